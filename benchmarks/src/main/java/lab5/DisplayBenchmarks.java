@@ -0,0 +1,47 @@
+package lab5;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/******************************************************************************
+ * Display's number formatting, which every frame runs for the pose, into
+ * a reused buffer as the display does.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class DisplayBenchmarks {
+	private static final int COUNT = 64;	// Numbers cycled through, a power of two
+
+	private final double[] values = new double[COUNT];
+	private final char[] out = new char[24];
+	private int i;
+
+	@Setup
+	public void setUp() {
+		java.util.Random r = new java.util.Random(1);
+		for (int k = 0; k < COUNT; k++)
+			values[k] = (r.nextDouble() - 0.5) * 400;	// Positions in cm and headings in degrees
+	}
+
+	@Benchmark
+	public int formatDouble() {
+		return Display.formatDouble(values[i++ & (COUNT - 1)], 2, out);}
+
+	@Benchmark
+	public int formatLong() {
+		return Display.formatLong((long) values[i++ & (COUNT - 1)], out, out.length);}
+}
@@ -0,0 +1,47 @@
+package lab5;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/******************************************************************************
+ * Driver's conversions from distances and angles to wheel rotations, which
+ * every move runs.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class DriverBenchmarks {
+	private static final int COUNT = 64;	// Inputs cycled through, a power of two
+
+	private final double[] distances = new double[COUNT], angles = new double[COUNT];
+	private int i;
+
+	@Setup
+	public void setUp() {
+		java.util.Random r = new java.util.Random(1);
+		for (int k = 0; k < COUNT; k++){
+			distances[k] = r.nextDouble() * 2 * Odometer.TILE_SIZE;
+			angles[k] = (r.nextDouble() - 0.5) * 360;}
+	}
+
+	@Benchmark
+	public int convertDistance() {
+		return Driver.convertDistance(Driver.WHEEL_RADIUS, distances[i++ & (COUNT - 1)]);}
+
+	@Benchmark
+	public int convertAngle() {
+		return Driver.convertAngle(Driver.WHEEL_RADIUS, Driver.WHEEL_BASE, angles[i++ & (COUNT - 1)]);}
+}
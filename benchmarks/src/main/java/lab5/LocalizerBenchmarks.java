@@ -0,0 +1,70 @@
+package lab5;
+
+import java.util.ArrayList;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/******************************************************************************
+ * Filtering every starting state of a map against one observation, through
+ * Localizer.valid() one state at a time and through a BeliefState's masks.
+ *
+ * Maps are side by side tiles: the lab's map at 4, otherwise scattered
+ * blocks from MapGenerator. Each operation filters the whole map once.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class LocalizerBenchmarks {
+	@Param({ "4", "16", "64" })
+	public int side;
+
+	private Position[] starts;			// Every free starting state
+	private Position observed;			// Free tile seen one tile up and to the left, facing left
+	private BeliefState full, belief;	// Every free starting state, and scratch to filter
+
+	@Setup
+	public void setUp() {
+		GridMap m = side == 4 ? GridMap.parse(GridMap.LAB)
+				: new GridMap(MapGenerator.generate(side, side, MapGenerator.Structure.SCATTERED, 0.25, 1));
+		Localizer.setMap(m);
+		ArrayList<Position> free = new ArrayList<Position>();
+		for (int x = 0; x < side; x++)
+			for (int y = 0; y < side; y++)
+				for (int d = 0; d < 4 && !m.isBlocked(x, y); d++)
+					free.add(new Position(x, y, BeliefMap.BY_VALUE[d], false));
+		starts = free.toArray(new Position[free.size()]);
+		observed = new Position(-1, 1, Direction.LEFT, false);
+		full = new BeliefState(new BeliefMap(Localizer.getGrid()));
+		belief = new BeliefState(full);
+	}
+
+	/** Count the starting states an observation leaves, one valid() call each */
+	@Benchmark
+	public int valid() {
+		int count = 0;
+		for (int i = 0; i < starts.length; i++)
+			if (Localizer.valid(starts[i], observed)) count++;
+		return count;
+	}
+
+	/** Filter every starting state with one observation through the masks */
+	@Benchmark
+	public int observe() {
+		belief.copyFrom(full);
+		return belief.observe(observed.getX(), observed.getY(), observed.getDir(), observed.isBlocked());
+	}
+}
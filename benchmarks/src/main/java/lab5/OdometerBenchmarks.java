@@ -0,0 +1,72 @@
+package lab5;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/******************************************************************************
+ * One period of Odometer.run(): reading the wheels, integrating the motion
+ * into the pose and recording it in the history, with either kernel.
+ *
+ * The wheels turn a few counts between updates, unevenly, so every update
+ * has a curve to integrate, as when the robot drives an arc at speed. With
+ * recording on, every update is recorded, though nothing writes the
+ * records out, so this is the cost on the odometer's own thread. The pose
+ * is read back after each update into an array rather than a new Pose, so
+ * neither side allocates.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class OdometerBenchmarks {
+	@Param({ "DOUBLE", "FIXED_POINT" })
+	public Odometer.Kernel kernel;
+
+	@Param({ "false", "true" })
+	public boolean recording;
+
+	/** Wheel turning a fixed number of counts per reading */
+	private static class Wheel implements Tachometer {
+		private final int step;
+		private int count;
+
+		Wheel(int step) {
+			this.step = step;}
+
+		public int getTachoCount() {
+			return count += step;}
+
+		public void resetTachoCount() {
+			count = 0;}
+	}
+
+	private Odometer odo;
+	private long stamp;
+	private final double[] pose = new double[3];
+
+	@Setup
+	public void setUp() {
+		odo = new Odometer(new Wheel(4), new Wheel(3), SystemClock.INSTANCE, Odometer.PERIOD, kernel);
+		if (recording) odo.setRecorder(new Recorder(new java.io.ByteArrayOutputStream(), SystemClock.INSTANCE), 1);
+	}
+
+	@Benchmark
+	public double[] update() {
+		odo.update(stamp += Odometer.PERIOD * 1000000L);
+		odo.getPose(pose);
+		return pose;
+	}
+}
@@ -0,0 +1,58 @@
+package lab5;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/******************************************************************************
+ * Position's relative coordinates and rotation, as Localizer.valid() calls
+ * them for every state. Each operation moves on to the next of a set of
+ * positions, so the JIT can't fold the result into a constant.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PositionBenchmarks {
+	private static final int COUNT = 64;	// Positions cycled through, a power of two
+
+	private final Position[] starts = new Position[COUNT], relative = new Position[COUNT];
+	private final Direction[] directions = new Direction[COUNT];
+	private int i;
+
+	@Setup
+	public void setUp() {
+		java.util.Random r = new java.util.Random(1);
+		for (int k = 0; k < COUNT; k++){
+			starts[k] = new Position(r.nextInt(8), r.nextInt(8), BeliefMap.BY_VALUE[r.nextInt(4)], false);
+			relative[k] = new Position(r.nextInt(9) - 4, r.nextInt(9) - 4, BeliefMap.BY_VALUE[r.nextInt(4)], r.nextBoolean());
+			directions[k] = BeliefMap.BY_VALUE[r.nextInt(4)];}
+	}
+
+	@Benchmark
+	public int relativeX() {
+		int k = i++ & (COUNT - 1);
+		return Position.relativeX(starts[k], relative[k]);
+	}
+
+	@Benchmark
+	public int relativeY() {
+		int k = i++ & (COUNT - 1);
+		return Position.relativeY(starts[k], relative[k]);
+	}
+
+	@Benchmark
+	public Direction rotateLeft() {
+		return Position.rotateLeft(directions[i++ & (COUNT - 1)]);}
+}
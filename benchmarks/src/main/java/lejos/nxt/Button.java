@@ -0,0 +1,12 @@
+package lejos.nxt;
+
+/******************************************************************************
+ * Stand-in for the leJOS class so the robot's code runs on a plain JVM.
+ * Only what the robot's code uses; no button is ever pressed.
+ */
+public class Button {
+	public static final int ID_ENTER = 1, ID_LEFT = 2, ID_RIGHT = 4, ID_ESCAPE = 8;
+
+	public static int waitForAnyPress() {
+		return 0;}
+}
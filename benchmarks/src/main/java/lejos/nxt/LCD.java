@@ -0,0 +1,13 @@
+package lejos.nxt;
+
+/******************************************************************************
+ * Stand-in for the leJOS class so the robot's code runs on a plain JVM.
+ * Draws nothing, on a screen the size of the brick's.
+ */
+public class LCD {
+	public static final int DISPLAY_CHAR_WIDTH = 16, DISPLAY_CHAR_DEPTH = 8;
+
+	public static void clear() {}
+
+	public static void drawChar(char c, int x, int y) {}
+}
@@ -0,0 +1,8 @@
+package lejos.nxt;
+
+/******************************************************************************
+ * Stand-in for the leJOS class so the robot's code runs on a plain JVM.
+ */
+public class Motor {
+	public static final NXTRegulatedMotor A = new NXTRegulatedMotor(), B = new NXTRegulatedMotor(), C = new NXTRegulatedMotor();
+}
@@ -0,0 +1,19 @@
+package lejos.nxt;
+
+/******************************************************************************
+ * Stand-in for the leJOS class so the robot's code runs on a plain JVM.
+ * Never moves; benchmarks drive the robot's code through its own
+ * Tachometer and DriveMotor interfaces instead.
+ */
+public class NXTRegulatedMotor {
+	public int getTachoCount() {return 0;}
+	public void resetTachoCount() {}
+	public void setSpeed(int speed) {}
+	public void rotate(int angle, boolean immediateReturn) {}
+	public void rotateTo(int limitAngle, boolean immediateReturn) {}
+	public void forward() {}
+	public void backward() {}
+	public void stop() {}
+	public boolean isMoving() {return false;}
+	public void waitComplete() {}
+}
@@ -0,0 +1,8 @@
+package lejos.nxt;
+
+/******************************************************************************
+ * Stand-in for the leJOS class so the robot's code runs on a plain JVM.
+ */
+public class SensorPort {
+	public static final SensorPort S1 = new SensorPort(), S2 = new SensorPort(), S3 = new SensorPort(), S4 = new SensorPort();
+}
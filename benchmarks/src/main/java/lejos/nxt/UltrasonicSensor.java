@@ -0,0 +1,13 @@
+package lejos.nxt;
+
+/******************************************************************************
+ * Stand-in for the leJOS class so the robot's code runs on a plain JVM.
+ * Always reads 255, as the sensor does when nothing is in range.
+ */
+public class UltrasonicSensor {
+	public UltrasonicSensor(SensorPort port) {}
+
+	public int ping() {return 0;}
+	public int continuous() {return 0;}
+	public int getDistance() {return 255;}
+}
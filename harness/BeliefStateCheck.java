@@ -0,0 +1,80 @@
+/******************************************************************************
+ * Check that BeliefState.observe() keeps exactly the starting states
+ * Localizer.valid() accepts. Throws on the first state they disagree on.
+ */
+public class BeliefStateCheck {
+	private BeliefStateCheck(){}
+
+	/****
+	 * Check that observe() keeps exactly the starting states Localizer.valid()
+	 * accepts, on the lab's map and seeded random maps of sizes that do and
+	 * don't fill whole words. Each run of observations is read from a random
+	 * true start, with some readings flipped, so survivors are neither all
+	 * nor none.
+	 *
+	 * @param args Number of runs of observations per map, if not 200
+	 */
+	public static void main(String[] args) {
+		int runs = args.length > 0 ? Integer.parseInt(args[0]) : 200;
+		int[] sides = { 4, 7, 13, 31, 64, 100 };
+		long checks = 0;
+		for (int i = 0; i < sides.length; i++){
+			GridMap grid;
+			if (sides[i] == 4) grid = GridMap.parse(GridMap.LAB);
+			else {
+				java.util.Random r = new java.util.Random(sides[i]);
+				boolean[][] map = new boolean[sides[i]][sides[i]];
+				for (int x = 0; x < map.length; x++)
+					for (int y = 0; y < map[0].length; y++)
+						map[x][y] = r.nextDouble() < 0.2;
+				grid = new GridMap(map);}
+			Localizer.setMap(grid);
+			boolean[][] map = grid.toArray();
+			int w = map.length, h = map[0].length;
+			BeliefState belief = new BeliefState(new BeliefMap(map));
+			boolean[] expected = new boolean[w * h * 4];	// [(x * h + y) * 4 + d] Whether valid() keeps it so far
+			java.util.Random r = new java.util.Random(sides[i] + 1);
+			for (int run = 0; run < runs; run++){
+				belief.reset();
+				for (int s = 0; s < expected.length; s++)
+					expected[s] = !map[s / 4 / h][s / 4 % h];
+				int sx, sy, sd = r.nextInt(4);
+				do {
+					sx = r.nextInt(w);
+					sy = r.nextInt(h);
+				} while (map[sx][sy]);
+
+				for (int step = 0; step < 8; step++){
+					// Read from a free tile in a random direction, relative to the true start
+					int ax, ay, a = r.nextInt(4);
+					do {
+						ax = r.nextInt(w);
+						ay = r.nextInt(h);
+					} while (map[ax][ay]);
+					int dx = ax - sx, dy = ay - sy;
+					int x = BeliefMap.ROT_XX[sd] * dx + BeliefMap.ROT_YX[sd] * dy;
+					int y = BeliefMap.ROT_XY[sd] * dx + BeliefMap.ROT_YY[sd] * dy;
+					Direction dir = BeliefMap.BY_VALUE[(a - sd) & 3];
+					boolean blocked = !grid.isOpen(ax, ay, a) != (r.nextInt(4) == 0);
+					Position seen = new Position(x, y, dir, blocked);
+
+					int remaining = belief.observe(x, y, dir, blocked), kept = 0;
+					for (int s = 0; s < expected.length; s++){
+						int cx = s / 4 / h, cy = s / 4 % h;
+						Direction d = BeliefMap.BY_VALUE[s & 3];
+						if (expected[s]) expected[s] = Localizer.valid(new Position(cx, cy, d, false), seen);
+						if (expected[s]) kept++;
+						if (belief.contains(cx, cy, d) != expected[s])
+							throw new RuntimeException(sides[i] + "x" + sides[i] + ": observe() and valid() disagree on "
+									+ cx + ", " + cy + ", " + d + " after seeing " + x + ", " + y + ", " + dir + (blocked ? " blocked" : " free"));
+						checks++;}
+					if (remaining != kept)
+						throw new RuntimeException(sides[i] + "x" + sides[i] + ": observe() counted " + remaining + ", valid() kept " + kept);
+					if (kept == 0) break;}
+			}
+			System.out.println(sides[i] + "x" + sides[i] + ": observe() agrees with valid()");
+		}
+		Localizer.setMap(GridMap.parse(GridMap.LAB));
+		System.out.println(checks + " states checked");
+	}
+}
@@ -0,0 +1,27 @@
+import java.io.IOException;
+
+/******************************************************************************
+ * The desktop gate for changes to the robot's code.
+ *
+ * The classes in harness/ check, time and write files for the code in src/.
+ * They run off the brick only and are never part of its build. Compile them
+ * along with src/ against the leJOS classes, from the top of the project:
+ *   javac -cp <leJOS classes> -d out src/*.java harness/*.java
+ *   java -cp out:<leJOS classes> Checks
+ * This runs each check in turn, and the exit status is 1 if any fails.
+ */
+public class Checks {
+	private Checks(){}
+
+	/****
+	 * Check that filtering agrees with Localizer.valid(), then that
+	 * localization hasn't regressed against localization-baseline.txt
+	 *
+	 * @param args Unused
+	 * @throws IOException If the baseline can't be read
+	 */
+	public static void main(String[] args) throws IOException {
+		BeliefStateCheck.main(new String[0]);
+		LocalizationBenchmark.main(new String[] { "check", "localization-baseline.txt" });
+	}
+}
@@ -0,0 +1,79 @@
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Random;
+
+/******************************************************************************
+ * Report what AmbiguityAnalyzer finds on Localizer's map and some others,
+ * and write the ClassTable of Localizer's map for the brick.
+ */
+public class ClassTableWriter {
+	private ClassTableWriter(){}
+
+	/** Print what a table says about its map */
+	private static void report(String name, ClassTable t, long ns) {
+		int ambiguous = 0, worst = 0, sum = 0;
+		for (int c = 0; c < t.classes(); c++){
+			if (t.size(c) > 1) ambiguous += t.size(c);
+			worst = Math.max(worst, t.depth(c));
+			sum += t.depth(c);}
+		System.out.println(name + ": " + t.classes() + " classes, "
+				+ (t.isLocalizable() ? "every state can be localized" : ambiguous + " states can never be localized, up to " + t.largest() + " alike")
+				+ ", depth " + Math.round(10.0 * sum / t.classes()) / 10.0 + " mean " + worst + " worst, " + (ns / 1000000) + "ms");
+	}
+
+	/****
+	 * Report on Localizer's map and some others, and write a class table
+	 * for Localizer's map
+	 *
+	 * @param args Output file, then optionally the most free tiles ahead the
+	 * readings tell apart (1 by default, as Localizer uses)
+	 * @throws IOException If the table cannot be written
+	 */
+	public static void main(String[] args) throws IOException {
+		String out = args.length > 0 ? args[0] : "classes.bin";
+		int maxTiles = args.length > 1 ? Integer.parseInt(args[1]) : 1;
+
+		boolean[][] map = Localizer.getMap();
+		long start = System.nanoTime();
+		ClassTable t = AmbiguityAnalyzer.analyze(map, maxTiles);
+		report("Localizer's map", t, System.nanoTime() - start);
+		for (int c = 0; c < t.classes(); c++)
+			if (t.size(c) > 1) System.out.println("  class " + c + ": " + t.size(c) + " states");
+		DataOutputStream dos = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(out)));
+		try {
+			t.write(dos);
+		} finally {
+			dos.close();}
+		System.out.println("  written to " + out);
+
+		// Maps that can't be localized: an empty square looks the same turned any way
+		report("Empty 4x4", AmbiguityAnalyzer.analyze(new boolean[4][4], maxTiles), 0);
+		report("Lab map turned half way and placed beside itself", AmbiguityAnalyzer.analyze(twin(map), maxTiles), 0);
+
+		int[] sides = { 10, 100, 300, 1000 };
+		for (int i = 0; i < sides.length; i++){
+			Random r = new Random(sides[i]);
+			boolean[][] m = new boolean[sides[i]][sides[i]];
+			for (int x = 0; x < m.length; x++)
+				for (int y = 0; y < m[0].length; y++)
+					m[x][y] = r.nextDouble() < 0.2;
+			start = System.nanoTime();
+			t = AmbiguityAnalyzer.analyze(m, maxTiles);
+			report("Random " + sides[i] + "x" + sides[i], t, System.nanoTime() - start);}
+	}
+
+	/** A map beside itself turned half way, with a wall between them */
+	private static boolean[][] twin(boolean[][] map) {
+		int w = map.length, h = map[0].length;
+		boolean[][] m = new boolean[2 * w + 1][h];
+		for (int x = 0; x < w; x++)
+			for (int y = 0; y < h; y++){
+				m[x][y] = map[x][y];
+				m[2 * w - x][h - 1 - y] = map[x][y];}
+		for (int y = 0; y < h; y++)
+			m[w][y] = true;
+		return m;
+	}
+}
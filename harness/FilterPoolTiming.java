@@ -0,0 +1,91 @@
+import java.util.Random;
+
+/******************************************************************************
+ * Time FilterPool against filtering on one thread, checking every pool
+ * keeps the same states.
+ */
+public class FilterPoolTiming {
+	private FilterPoolTiming(){}
+
+	/****
+	 * Time localizing on random maps of growing size with 1 thread up to
+	 * twice the cores available, checking every pool keeps the same states
+	 *
+	 * @param args Most threads to try, if not twice the cores
+	 */
+	public static void main(String[] args) {
+		int cores = Runtime.getRuntime().availableProcessors();
+		int most = args.length > 0 ? Integer.parseInt(args[0]) : Math.max(2 * cores, 4);
+		System.out.println(cores + " cores available");
+		int[] sides = { 100, 300, 700, 1000 };
+		for (int i = 0; i < sides.length; i++){
+			Random r = new Random(sides[i]);
+			boolean[][] map = new boolean[sides[i]][sides[i]];
+			for (int x = 0; x < map.length; x++)
+				for (int y = 0; y < map[0].length; y++)
+					map[x][y] = r.nextDouble() < 0.2;
+			BeliefMap bm = new BeliefMap(map, 4);
+			BeliefState start = new BeliefState(bm);
+			System.out.print(sides[i] + "x" + sides[i] + " (" + start.size() + " states, " + start.words() + " words):");
+
+			if (start.words() < FilterPool.SERIAL_WORDS) System.out.print(" [below SERIAL_WORDS]");
+
+			// Every pool runs once to warm up before any is timed
+			long serial = 0, check = 0;
+			for (int pass = 0; pass < 2; pass++){
+				for (int threads = 1; threads <= most; threads *= 2){
+					FilterPool pool = new FilterPool(threads);
+					long hash = 0;
+					long[] time = new long[1];
+					for (int run = 0; run < 40; run++)
+						hash = hash * 31 + walk(map, bm, new Random(run), pool, time);
+					pool.shutdown();
+					if (threads == 1){
+						serial = time[0];
+						check = hash;
+					} else if (hash != check) throw new RuntimeException("Pool of " + threads + " kept different states");
+					if (pass == 1)
+						System.out.print(" " + threads + ": " + (time[0] / 40 / 1000) + "us (x" + Math.round(100.0 * serial / time[0]) / 100.0 + ")");
+				}
+			}
+			System.out.println();
+		}
+	}
+
+	/** Localize from a random start on a map, adding the time spent filtering to time[0] in ns, and returning a fingerprint of what it kept */
+	private static long walk(boolean[][] map, BeliefMap bm, Random r, FilterPool pool, long[] time) {
+		int w = map.length, h = map[0].length, sx, sy;
+		do {
+			sx = r.nextInt(w);
+			sy = r.nextInt(h);
+		} while (map[sx][sy]);
+		int sd = r.nextInt(4);
+
+		BeliefState belief = new BeliefState(bm);
+		Direction current = Direction.UP;
+		int x = 0, y = 0, remaining = Integer.MAX_VALUE;
+		long fingerprint = 0;
+		for (int step = 0; step < 40 && remaining > 1; step++){
+			int a = (sd + current.v) & 3;
+			int ax = sx + BeliefMap.ROT_XX[sd] * x + BeliefMap.ROT_XY[sd] * y;
+			int ay = sy + BeliefMap.ROT_YX[sd] * x + BeliefMap.ROT_YY[sd] * y;
+			int tiles = 0, nx = ax + BeliefMap.ROT_XY[a], ny = ay + BeliefMap.ROT_YY[a];
+			while (tiles < bm.maxTiles && nx >= 0 && nx < w && ny >= 0 && ny < h && !map[nx][ny]){
+				tiles++;
+				nx += BeliefMap.ROT_XY[a];
+				ny += BeliefMap.ROT_YY[a];}
+
+			long t0 = System.nanoTime();
+			remaining = pool.observe(belief, x, y, current, tiles);
+			time[0] += System.nanoTime() - t0;
+			if (remaining == 0) throw new RuntimeException("Lost the true start");
+			fingerprint = fingerprint * 31 + remaining;
+
+			if (tiles == 0 || r.nextInt(4) == 0) current = Position.rotateLeft(current);
+			else {
+				x += BeliefMap.ROT_XY[current.v];
+				y += BeliefMap.ROT_YY[current.v];}
+		}
+		return fingerprint * 31 + belief.currentStateHash(x, y, current);
+	}
+}
@@ -0,0 +1,61 @@
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Random;
+
+/******************************************************************************
+ * Time loading GridMaps from files against building them from arrays,
+ * checking they read back the same.
+ */
+public class GridMapFileTiming {
+	private GridMapFileTiming(){}
+
+	/****
+	 * Time loading random maps of growing size and handing them to
+	 * Localizer.setMap()
+	 *
+	 * @param args Unused
+	 * @throws IOException If a map can't be written or read back
+	 */
+	public static void main(String[] args) throws IOException {
+		Random r = new Random(1);
+		int[] sides = { 4, 100, 1000 };
+		for (int i = 0; i < sides.length; i++){
+			int side = sides[i];
+			boolean[][] blocks = new boolean[side][side];
+			for (int x = 0; x < side; x++)
+				for (int y = 0; y < side; y++)
+					blocks[x][y] = r.nextDouble() < 0.2;
+			String path = java.io.File.createTempFile("grid", ".map").getPath();
+			long built = 0, streamed = 0, mapped = 0, set = 0;
+			int runs = side < 1000 ? 200 : 20;
+			for (int n = 0; n < runs + runs / 10; n++){
+				boolean measured = n >= runs / 10;		// The first tenth warms up
+				long t0 = System.nanoTime();
+				GridMap m = new GridMap(blocks);
+				long t1 = System.nanoTime();
+				if (n == 0) GridMapFile.save(m, path);
+				long t2 = System.nanoTime();
+				GridMap a = GridMap.load(path);
+				long t3 = System.nanoTime();
+				GridMap b = GridMapFile.map(path);
+				long t4 = System.nanoTime();
+				Localizer.setMap(b);
+				long t5 = System.nanoTime();
+				if (!Arrays.equals(a.blocks, m.blocks) || !Arrays.equals(a.open, m.open)
+						|| !Arrays.equals(b.blocks, m.blocks) || !Arrays.equals(b.open, m.open))
+					throw new RuntimeException("Map read back wrong");
+				if (measured){
+					built += t1 - t0;
+					streamed += t3 - t2;
+					mapped += t4 - t3;
+					set += t5 - t4;}
+			}
+			new java.io.File(path).delete();
+			System.out.println(side + "x" + side + " (" + (14 + 8 * ((side * side + 63) / 64) + (side * side + 1) / 2) + " bytes): "
+					+ (built / runs / 1000) + "us building tables from an array, "
+					+ (streamed / runs / 1000) + "us loading, " + (mapped / runs / 1000) + "us memory mapped, "
+					+ (set / runs / 1000) + "us in Localizer.setMap()");
+		}
+		Localizer.setMap(GridMap.parse(GridMap.LAB));
+	}
+}
@@ -0,0 +1,50 @@
+import java.util.Random;
+
+/******************************************************************************
+ * Time HistogramFilter's steps on random maps of growing size.
+ */
+public class HistogramFilterTiming {
+	private HistogramFilterTiming(){}
+
+	/****
+	 * Time predict() and update() on random maps of growing size
+	 *
+	 * @param args Optionally the most free tiles told apart, block density and seed
+	 */
+	public static void main(String[] args) {
+		int maxTiles = args.length > 0 ? Integer.parseInt(args[0]) : 4;
+		double density = args.length > 1 ? Double.parseDouble(args[1]) : 0.2;
+		Random r = new Random(args.length > 2 ? Long.parseLong(args[2]) : 1);
+
+		int[] sides = { 4, 32, 100, 316, 1000 };
+		for (int i = 0; i < sides.length; i++){
+			int side = sides[i];
+			boolean[][] map = new boolean[side][side];
+			for (int x = 0; x < side; x++)
+				for (int y = 0; y < side; y++)
+					map[x][y] = r.nextDouble() < density;
+
+			HistogramFilter f = new HistogramFilter(new GridMap(map), maxTiles);
+			int steps = (int) Math.max(20, Math.min(200000, 20000000L / f.size()));
+			long predict = 0, update = 0, choose = 0;
+			for (int n = 0; n < steps + steps / 10; n++){
+				boolean measured = n >= steps / 10;		// The first tenth warms up
+				long t0 = System.nanoTime();
+				f.update(r.nextInt(maxTiles + 1));
+				long t1 = System.nanoTime();
+				int move = f.chooseAction(false, r);
+				long t2 = System.nanoTime();
+				f.predict(move);
+				long t3 = System.nanoTime();
+				if (measured){
+					update += t1 - t0;
+					choose += t2 - t1;
+					predict += t3 - t2;}
+			}
+			System.out.println(side + "x" + side + " (" + f.size() + " states): "
+					+ (update / steps) + "ns update, " + (predict / steps) + "ns predict, "
+					+ (choose / steps) + "ns chooseAction per step, "
+					+ Math.round(10.0 * (update + predict) / steps / f.size()) / 10.0 + "ns per state");
+		}
+	}
+}
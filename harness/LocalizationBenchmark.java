@@ -0,0 +1,204 @@
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+
+/******************************************************************************
+ * Localization benchmark over generated maps, and the regression gate for
+ * changes to localization.
+ *
+ * Each structure of MapGenerator gives one seeded map. On each map, every
+ * LocalizationType localizes in simulation from every free starting state.
+ * A run counts as localized if it ends in the true starting state's
+ * ClassTable class; on maps with twins nothing better is possible. The
+ * benchmark reports distributions of observations, moves, CPU time spent
+ * filtering and choosing moves, and bytes allocated by the localizing
+ * thread, along with the peak heap use of each sweep.
+ *
+ * Observations, moves and localized runs repeat exactly from run to run,
+ * so they are the gate: run with "check" and a baseline written by "write",
+ * and the exit status is 1 if any sweep localizes fewer runs or needs more
+ * observations. Time and memory vary with the machine and are only reported.
+ * localization-baseline.txt holds the baseline for the default maps; write
+ * it again when a change makes localization better.
+ *
+ * Desktop only.
+ */
+public class LocalizationBenchmark {
+	/** Tiles across and up each generated map */
+	public static final int SIDE = 8;
+	/** Fraction of tiles blocked on each generated map */
+	public static final double DENSITY = 0.25;
+	/** Seed of the generated maps */
+	public static final long SEED = 1;
+	/** Most observations a run may make before it fails */
+	public static final int LIMIT = 200;
+	/** Mean observations a sweep may need above its baseline before the gate fails */
+	public static final double TOLERANCE = 0.01;
+
+	private LocalizationBenchmark(){}
+
+	/** Totals of one sweep, as kept in a baseline */
+	private static class Summary {
+		int runs, localized, failed;
+		double observations, moves;		// Means over the runs that didn't fail
+
+		public String toString() {
+			return runs + " " + localized + " " + failed + " " + observations + " " + moves;}
+	}
+
+	/****
+	 * Run the benchmark
+	 *
+	 * @param args Nothing to only report; "write" and a file to also write a
+	 * baseline; "check" and a file to also compare against one, exiting with
+	 * status 1 on a regression. Optionally then the side of the maps.
+	 * @throws IOException If the baseline can't be read or written
+	 */
+	public static void main(String[] args) throws IOException {
+		String mode = args.length > 1 ? args[0] : "", file = args.length > 1 ? args[1] : null;
+		int side = args.length > 2 ? Integer.parseInt(args[2]) : SIDE;
+		if (file != null && !mode.equals("write") && !mode.equals("check"))
+			throw new RuntimeException("Expected write or check, not " + mode);
+
+		HashMap<String, Summary> results = new HashMap<String, Summary>();
+		StringBuffer lines = new StringBuffer();
+		MapGenerator.Structure[] structures = MapGenerator.Structure.values();
+		for (int i = 0; i < structures.length; i++){
+			boolean[][] map = MapGenerator.generate(side, side, structures[i], DENSITY, SEED);
+			Localizer.setMap(new GridMap(map));
+			ClassTable classes = AmbiguityAnalyzer.analyze(map, 1);
+			System.out.println(structures[i] + " " + side + "x" + side + ", " + classes.classes() + " classes, "
+					+ (classes.isLocalizable() ? "all localizable" : "up to " + classes.largest() + " alike") + ":");
+			String[] rows = MapGenerator.rows(map);
+			for (int r = 0; r < rows.length; r++)
+				System.out.println("  " + rows[r]);
+
+			Localizer.LocalizationType[] types = Localizer.LocalizationType.values();
+			for (int t = 0; t < types.length; t++){
+				Summary s = sweep(map, classes, types[t]);
+				String key = structures[i] + " " + types[t];
+				results.put(key, s);
+				lines.append(key).append(' ').append(s).append('\n');}
+		}
+		Localizer.setMap(GridMap.parse(GridMap.LAB));
+
+		if (mode.equals("write")){
+			PrintWriter out = new PrintWriter(new FileWriter(file));
+			try {
+				out.print(lines);
+			} finally {
+				out.close();}
+			System.out.println("Baseline written to " + file);
+		} else if (mode.equals("check")){
+			if (!check(results, new File(file))) System.exit(1);
+			System.out.println("No regressions against " + file);}
+	}
+
+	/** Localize from every free starting state of the map with one type, printing the distributions */
+	private static Summary sweep(boolean[][] map, ClassTable classes, Localizer.LocalizationType type) {
+		int states = 0;
+		for (int x = 0; x < map.length; x++)
+			for (int y = 0; y < map[0].length; y++)
+				if (!map[x][y]) states += 4;
+		long[] observations = new long[states], moves = new long[states], cpu = new long[states], allocated = new long[states];
+		com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+		List<MemoryPoolMXBean> pools = ManagementFactory.getMemoryPoolMXBeans();
+		System.gc();
+		for (int p = 0; p < pools.size(); p++)
+			pools.get(p).resetPeakUsage();
+
+		Summary s = new Summary();
+		int exact = 0;
+		for (int x = 0; x < map.length; x++){
+			for (int y = 0; y < map[0].length; y++){
+				for (int d = 0; d < 4 && !map[x][y]; d++){
+					Simulation.Setup setup = new Simulation.Setup();
+					setup.type = type;
+					setup.demo = false;
+					setup.classes = classes;
+					setup.observationLimit = LIMIT;
+					long before = threads.getThreadAllocatedBytes(Thread.currentThread().getId());
+					Simulation.Result r = Simulation.run(new Position(x, y, BeliefMap.BY_VALUE[d], false), setup);
+					long bytes = threads.getThreadAllocatedBytes(Thread.currentThread().getId()) - before;
+					if (r.failure != null){
+						s.failed++;
+						continue;}
+					int i = s.runs++;
+					observations[i] = r.observations;
+					moves[i] = r.moves;
+					cpu[i] = r.computeNanos + r.overlappedNanos;
+					allocated[i] = bytes;
+					if (r.found != null && classes.of(r.found) == classes.of(r.start)) s.localized++;
+					if (r.correct()) exact++;}
+			}
+		}
+
+		long peak = 0;
+		for (int p = 0; p < pools.size(); p++)
+			if (pools.get(p).getType() == MemoryType.HEAP) peak += pools.get(p).getPeakUsage().getUsed();
+		s.observations = mean(observations, s.runs);
+		s.moves = mean(moves, s.runs);
+		s.runs += s.failed;
+		System.out.println("  " + type + ": " + s.localized + "/" + s.runs + " localized (" + exact + " exactly), "
+				+ s.failed + " failed, peak heap " + (peak >> 20) + " MB");
+		System.out.println("    observations " + distribution(observations, s.runs - s.failed, 1)
+				+ "; moves " + distribution(moves, s.runs - s.failed, 1));
+		System.out.println("    CPU us " + distribution(cpu, s.runs - s.failed, 1000)
+				+ "; allocated kB " + distribution(allocated, s.runs - s.failed, 1024));
+		return s;
+	}
+
+	/** Mean of the first n values */
+	private static double mean(long[] values, int n) {
+		long sum = 0;
+		for (int i = 0; i < n; i++)
+			sum += values[i];
+		return n == 0 ? 0 : Math.round(1000.0 * sum / n) / 1000.0;
+	}
+
+	/** Mean, median, 90th percentile and maximum of the first n values, divided by unit */
+	private static String distribution(long[] values, int n, int unit) {
+		if (n == 0) return "none";
+		long[] sorted = Arrays.copyOf(values, n);
+		Arrays.sort(sorted);
+		return "mean " + Math.round(10.0 * mean(sorted, n) / unit) / 10.0 + " p50 " + sorted[n / 2] / unit
+				+ " p90 " + sorted[(9 * n) / 10] / unit + " max " + sorted[n - 1] / unit;
+	}
+
+	/** Compare results against a baseline, printing every regression */
+	private static boolean check(HashMap<String, Summary> results, File baseline) throws IOException {
+		boolean ok = true;
+		BufferedReader in = new BufferedReader(new FileReader(baseline));
+		try {
+			String line;
+			while ((line = in.readLine()) != null){
+				String[] f = line.trim().split(" ");
+				if (f.length != 7) continue;
+				String key = f[0] + " " + f[1];
+				Summary now = results.get(key);
+				int localized = Integer.parseInt(f[3]);
+				double observations = Double.parseDouble(f[5]);
+				if (now == null){
+					System.out.println("Regression: " + key + " not run");
+					ok = false;
+				} else if (now.localized < localized){
+					System.out.println("Regression: " + key + " localized " + now.localized + ", was " + localized);
+					ok = false;
+				} else if (now.observations > observations * (1 + TOLERANCE)){
+					System.out.println("Regression: " + key + " took " + now.observations + " observations, was " + observations);
+					ok = false;}
+			}
+		} finally {
+			in.close();}
+		return ok;
+	}
+}
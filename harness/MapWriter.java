@@ -0,0 +1,18 @@
+import java.io.IOException;
+
+/******************************************************************************
+ * Write the lab's map to a file, to put on the brick as Lab5.MAP_FILE.
+ */
+public class MapWriter {
+	private MapWriter(){}
+
+	/****
+	 * Write the lab's map
+	 *
+	 * @param args The file to write, if not Lab5.MAP_FILE
+	 * @throws IOException If the file can't be written
+	 */
+	public static void main(String[] args) throws IOException {
+		GridMapFile.save(GridMap.parse(GridMap.LAB), args.length > 0 ? args[0] : Lab5.MAP_FILE);
+	}
+}
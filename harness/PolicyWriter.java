@@ -0,0 +1,50 @@
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Random;
+
+/******************************************************************************
+ * Solve a map with PolicySolver and write the PolicyTable for the brick.
+ */
+public class PolicyWriter {
+	private PolicyWriter(){}
+
+	/****
+	 * Solve Localizer's map, or a random map, and write the policy table
+	 *
+	 * @param args Output file, then optionally width, height, block density
+	 * and seed of a random map to solve instead
+	 * @throws IOException If the table cannot be written
+	 */
+	public static void main(String[] args) throws IOException {
+		String out = args.length > 0 ? args[0] : "policy.bin";
+		boolean[][] map = Localizer.getMap();
+		if (args.length >= 5){
+			Random r = new Random(Long.parseLong(args[4]));
+			map = new boolean[Integer.parseInt(args[1])][Integer.parseInt(args[2])];
+			double density = Double.parseDouble(args[3]);
+			for (int x = 0; x < map.length; x++)
+				for (int y = 0; y < map[0].length; y++)
+					map[x][y] = r.nextDouble() < density;}
+
+		long start = System.nanoTime();
+		PolicySolver solver = new PolicySolver(map, 24, 48, 1 << 22, Runtime.getRuntime().availableProcessors());
+		PolicyTable t;
+		try {
+			t = solver.solve(map);
+		} finally {
+			solver.shutdown();}
+		long ms = (System.nanoTime() - start) / 1000000;
+
+		DataOutputStream dos = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(out)));
+		try {
+			t.write(dos);
+		} finally {
+			dos.close();}
+
+		System.out.println(map.length + "x" + map[0].length + ": worst case " + solver.worstCase()
+				+ " observations, " + t.size() + " beliefs, " + solver.unsolved() + " unsolvable, "
+				+ ms + "ms, written to " + out);
+	}
+}
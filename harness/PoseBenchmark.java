@@ -0,0 +1,154 @@
+/******************************************************************************
+ * Contention benchmark for reading the pose while the Odometer updates it.
+ *
+ * One writer updates the pose as fast as it can, as Odometer.run() would
+ * with no period, while reader threads read x, y and theta together, as
+ * Driver.travel() does. Four ways of reading are compared:
+ *   locked   - three synchronized getters inside an outer lock, as before Pose
+ *   unlocked - the same getters without the outer lock, as when a caller forgets
+ *   snapshot - one read of an immutable Pose, allocated by every update
+ *   seqlock  - reads checked against a sequence count, as Odometer does now
+ * The writer keeps x == y == theta, so a reader seeing them differ saw a
+ * torn read.
+ *
+ * Runs off the brick only.
+ */
+public class PoseBenchmark {
+	/** Time to run each case for, in ms */
+	private static final int DURATION = 1000;
+
+	/** Pose with synchronized getters and setter, as the Odometer had */
+	private static class LockedPose {
+		private double x, y, theta;
+
+		synchronized void update(double d) {
+			x += d;
+			y += d;
+			theta += d;}
+
+		synchronized double getX() {return x;}
+		synchronized double getY() {return y;}
+		synchronized double getTheta() {return theta;}
+	}
+
+	/** Pose published as an immutable snapshot, as the Odometer had */
+	private static class SnapshotPose {
+		private volatile Pose pose = new Pose(0, 0, 0);
+
+		synchronized void update(double d) {
+			Pose p = pose;
+			pose = new Pose(p.getX() + d, p.getY() + d, p.getTheta() + d);}
+
+		Pose getPose() {return pose;}
+	}
+
+	/** Pose published under a sequence lock, as the Odometer has now */
+	private static class SeqPose {
+		private volatile int seq;
+		private volatile double x, y, theta;
+
+		synchronized void update(double d) {
+			seq++;
+			x += d;
+			y += d;
+			theta += d;
+			seq++;}
+
+		void getPose(double[] pose) {
+			while (true){
+				int s = seq;
+				pose[0] = x;
+				pose[1] = y;
+				pose[2] = theta;
+				if ((s & 1) == 0 && seq == s) return;
+				Thread.yield();}
+		}
+	}
+
+	private static volatile boolean running;
+	private static volatile double sink;		// Keeps reads from being optimized away
+
+	private PoseBenchmark(){}
+
+	/****
+	 * Run each case with 1 reader up to twice as many readers as processors
+	 *
+	 * @param args Unused
+	 */
+	public static void main(String[] args) throws InterruptedException {
+		int procs = Runtime.getRuntime().availableProcessors();
+		for (int readers = 1; readers <= 2 * procs; readers *= 2)
+			for (int mode = 0; mode < 4; mode++)
+				run(mode, readers);
+	}
+
+	/** Run one case and print its throughput and torn reads */
+	private static void run(final int mode, int readers) throws InterruptedException {
+		final LockedPose locked = new LockedPose();
+		final SnapshotPose snapshot = new SnapshotPose();
+		final SeqPose seq = new SeqPose();
+		final long[] reads = new long[readers], torn = new long[readers];
+		final long[] writes = new long[1];
+		Thread[] threads = new Thread[readers + 1];
+		running = true;
+
+		threads[0] = new Thread(new Runnable(){ public void run(){
+			long n = 0;
+			while (running){
+				if (mode == 2) snapshot.update(1);
+				else if (mode == 3) seq.update(1);
+				else locked.update(1);
+				n++;}
+			writes[0] = n;}});
+		for (int r = 0; r < readers; r++){
+			final int id = r;
+			threads[r + 1] = new Thread(new Runnable(){ public void run(){
+				long n = 0, bad = 0;
+				double sum = 0, x, y, theta;
+				double[] pose = new double[3];
+				while (running){
+					if (mode == 0){
+						synchronized (locked){
+							x = locked.getX();
+							y = locked.getY();
+							theta = locked.getTheta();}
+					} else if (mode == 1){
+						x = locked.getX();
+						y = locked.getY();
+						theta = locked.getTheta();
+					} else if (mode == 2){
+						Pose p = snapshot.getPose();
+						x = p.getX();
+						y = p.getY();
+						theta = p.getTheta();
+					} else {
+						seq.getPose(pose);
+						x = pose[0];
+						y = pose[1];
+						theta = pose[2];}
+					if (x != y || y != theta) bad++;
+					sum += x;
+					n++;}
+				reads[id] = n;
+				torn[id] = bad;
+				sink = sum;}});
+		}
+
+		for (int i = 0; i < threads.length; i++)
+			threads[i].start();
+		Thread.sleep(DURATION);
+		running = false;
+		for (int i = 0; i < threads.length; i++)
+			threads[i].join();
+
+		long totalReads = 0, totalTorn = 0;
+		for (int r = 0; r < readers; r++){
+			totalReads += reads[r];
+			totalTorn += torn[r];}
+		String[] names = { "locked  ", "unlocked", "snapshot", "seqlock " };
+		System.out.println(names[mode] + " " + readers + " readers: "
+				+ (totalReads * 1000 / DURATION / 1000) + "k reads/s, "
+				+ (writes[0] * 1000 / DURATION / 1000) + "k writes/s, "
+				+ totalTorn + " torn reads");
+	}
+}
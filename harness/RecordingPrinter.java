@@ -0,0 +1,52 @@
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.FileInputStream;
+import java.io.IOException;
+
+/******************************************************************************
+ * Print a stream written by Recorder as text, one record per line.
+ */
+public class RecordingPrinter {
+	private RecordingPrinter(){}
+
+	/****
+	 * Print a recorded stream as text, one record per line
+	 *
+	 * @param args The file to print
+	 * @throws IOException If the file can't be read or isn't a recording
+	 */
+	public static void main(String[] args) throws IOException {
+		DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(args[0])));
+		try {
+			if (in.readInt() != Recorder.MAGIC || in.readShort() != Recorder.VERSION || in.readShort() != Recorder.RECORD_INTS * 4)
+				throw new IOException("Not a recording");
+			System.out.println("Started at " + new java.util.Date(in.readLong()));
+			String[] types = { "?", "TACHO", "POSE", "RANGE", "HYPOTHESES", "COMMAND", "DROPPED" };
+			String[] commands = { "?", "TRAVEL", "TURN", "FORWARD", "ROTATE", "STOP" };
+			long last = 0;		// Time of the record before, unwrapped, in us
+			while (true){
+				int time, type, a, b, c;
+				try {
+					time = in.readInt();
+				} catch (EOFException e) {
+					break;}
+				type = in.readInt();
+				a = in.readInt();
+				b = in.readInt();
+				c = in.readInt();
+				// Records can come slightly out of order, so step from the last time either way
+				last += time - (int) last;
+				long us = Math.abs(last);
+				String line = (last < 0 ? "-" : "") + (us / 1000) + "." + (1000 + us % 1000 + "").substring(1) + "ms "
+						+ (type > 0 && type < types.length ? types[type] : "type " + type) + " ";
+				if (type == Recorder.POSE)
+					line += a / Recorder.SCALE + " " + b / Recorder.SCALE + " " + c / Recorder.ANGLE_SCALE;
+				else if (type == Recorder.COMMAND)
+					line += (a > 0 && a < commands.length ? commands[a] : "command " + a) + " " + b / Recorder.SCALE + " " + c / Recorder.SCALE;
+				else line += a + " " + b + " " + c;
+				System.out.println(line);}
+		} finally {
+			in.close();}
+	}
+}
@@ -0,0 +1,71 @@
+import java.util.Random;
+
+/******************************************************************************
+ * Time RouteOptimizer, and compare its routes with the order given and
+ * its heuristic with the exact search.
+ */
+public class RouteOptimizerTiming {
+	private RouteOptimizerTiming(){}
+
+	/****
+	 * Order random tiles on random maps, and print how long it takes and how
+	 * much quicker the run is than visiting them in the order given
+	 *
+	 * @param args Optionally the side of the maps, block density, trials per size and seed
+	 */
+	public static void main(String[] args) {
+		int side = args.length > 0 ? Integer.parseInt(args[0]) : 10;
+		double density = args.length > 1 ? Double.parseDouble(args[1]) : 0.2;
+		int trials = args.length > 2 ? Integer.parseInt(args[2]) : 50;
+		Random r = new Random(args.length > 3 ? Long.parseLong(args[3]) : 1);
+
+		int[] sizes = { 4, 8, 10, 12, 16, 32, 64 };
+		for (int i = 0; i < sizes.length; i++){
+			int n = sizes[i];
+			long given = 0, found = 0, exactTotal = 0, heuristicTotal = 0, exactNanos = 0, heuristicNanos = 0;
+			for (int trial = 0; trial < trials; trial++){
+				// A map on which the start can reach at least half the tiles
+				Position from = new Position(0, 0, Direction.UP, false);
+				PathPlanner planner;
+				int reachable;
+				do {
+					boolean[][] map = new boolean[side][side];
+					for (int x = 0; x < side; x++)
+						for (int y = 0; y < side; y++)
+							map[x][y] = r.nextDouble() < density;
+					map[0][0] = false;
+					planner = new PathPlanner(new GridMap(map));
+					reachable = 0;
+					for (int x = 0; x < side; x++)
+						for (int y = 0; y < side; y++)
+							if (planner.cost(from, x, y) >= 0) reachable++;
+				} while (2 * reachable < side * side);
+				RouteOptimizer optimizer = new RouteOptimizer(planner);
+
+				// Tiles reachable from the start, in random order
+				Position[] targets = new Position[n];
+				for (int k = 0; k < n; ){
+					int x = r.nextInt(side), y = r.nextInt(side);
+					if (planner.cost(from, x, y) > 0) targets[k++] = new Position(x, y, Direction.UP, false);}
+
+				given += optimizer.cost(from, optimizer.inOrder(from, targets));
+				long t0 = System.nanoTime();
+				Position[] h = optimizer.heuristic(from, targets);
+				long t1 = System.nanoTime();
+				heuristicNanos += t1 - t0;
+				heuristicTotal += optimizer.cost(from, h);
+				if (n <= RouteOptimizer.EXACT_LIMIT){
+					t0 = System.nanoTime();
+					Position[] e = optimizer.exact(from, targets);
+					exactNanos += System.nanoTime() - t0;
+					exactTotal += optimizer.cost(from, e);}
+				found += optimizer.cost(from, optimizer.optimize(from, targets));}
+
+			System.out.println(n + " tiles on " + side + "x" + side + ": " + Math.round(given / 100.0 / trials) / 10.0 + "s in the order given, "
+					+ Math.round(found / 100.0 / trials) / 10.0 + "s optimized (" + Math.round(100.0 * (given - found) / given) + "% quicker), "
+					+ (n <= RouteOptimizer.EXACT_LIMIT ? (exactNanos / trials / 1000) + "us exact, heuristic "
+							+ Math.round(1000.0 * (heuristicTotal - exactTotal) / exactTotal) / 10.0 + "% worse in " : "")
+					+ (heuristicNanos / trials / 1000) + "us heuristic");
+		}
+	}
+}
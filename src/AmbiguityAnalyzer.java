@@ -0,0 +1,120 @@
+/******************************************************************************
+ * Offline analysis of which starting states of a map can be told apart.
+ *
+ * The robot sees the free tiles ahead, up to maxTiles, and can move forward
+ * if the tile ahead is free or turn a quarter either way. Two states are
+ * told apart by a sequence of moves iff the readings along it differ, so
+ * the classes of states no sequence tells apart are found by partition
+ * refinement, as when minimising an automaton: start from the classes of
+ * equal first readings, and split each class by the classes its states
+ * reach with each move, until no class splits. After round r, states share
+ * a class iff no r moves tell them apart, so the round a class last split
+ * in is its depth in observations, less one.
+ *
+ * Each round hashes every state's class and the classes of its three
+ * successors into the next round's classes, so a round takes time linear
+ * in the states.
+ *
+ * Desktop only. ClassTableWriter reports on maps and writes a ClassTable for
+ * Localizer's map.
+ */
+public class AmbiguityAnalyzer {
+	private AmbiguityAnalyzer(){}
+
+	/****
+	 * Find the classes of a map's starting states
+	 *
+	 * @param map The map, used map[x][y]. True if there is a block there
+	 * @param maxTiles Most free tiles ahead the readings tell apart, as for BeliefMap
+	 * @return The classes
+	 */
+	public static ClassTable analyze(boolean[][] map, int maxTiles) {
+		int width = map.length, height = map[0].length, states = width * height * 4;
+		int[] forward = new int[states];	// State after moving forward, -1 if blocked
+		int[] cls = new int[states];		// Class of each state this round, -1 if blocked
+		int[] next = new int[states];
+		int[] last = new int[states];		// Round the state's class last split in
+
+		// Round 0: classes of equal first readings
+		int classes = 0;
+		for (int x = 0; x < width; x++){
+			for (int y = 0; y < height; y++){
+				for (int d = 0; d < 4; d++){
+					int s = ((x * height + y) << 2) | d;
+					forward[s] = -1;
+					if (map[x][y]){
+						cls[s] = -1;
+						continue;}
+					int tiles = 0, nx = x + BeliefMap.ROT_XY[d], ny = y + BeliefMap.ROT_YY[d];
+					while (tiles < maxTiles && nx >= 0 && nx < width && ny >= 0 && ny < height && !map[nx][ny]){
+						if (tiles == 0) forward[s] = ((nx * height + ny) << 2) | d;
+						tiles++;
+						nx += BeliefMap.ROT_XY[d];
+						ny += BeliefMap.ROT_YY[d];}
+					cls[s] = tiles;
+					classes = Math.max(classes, tiles + 1);}
+			}
+		}
+
+		int capacity = 1;
+		while (capacity < 2 * states) capacity <<= 1;
+		int[] table = new int[capacity];	// Open addressing by signature, holding a state with it
+		int[] size = new int[states + 1];	// Number of states in each class this round
+		for (int round = 1; ; round++){
+			for (int i = 0; i < capacity; i++)
+				table[i] = -1;
+			int split = 0;
+			for (int s = 0; s < states; s++){
+				if (cls[s] < 0){
+					next[s] = -1;
+					continue;}
+				int slot = (int) (signature(s, cls, forward) >>> 40) & (capacity - 1);
+				while (table[slot] >= 0 && !same(s, table[slot], cls, forward))
+					slot = (slot + 1) & (capacity - 1);
+				if (table[slot] < 0){
+					table[slot] = s;
+					next[s] = split++;
+				} else next[s] = next[table[slot]];
+			}
+			if (split == classes) break;	// No class split, and none ever will
+
+			// Mark the states whose class got smaller
+			for (int c = 0; c < split; c++)
+				size[c] = 0;
+			for (int s = 0; s < states; s++)
+				if (next[s] >= 0) size[next[s]]++;
+			int[] before = new int[classes];
+			for (int s = 0; s < states; s++)
+				if (cls[s] >= 0) before[cls[s]]++;
+			for (int s = 0; s < states; s++)
+				if (next[s] >= 0 && size[next[s]] < before[cls[s]]) last[s] = round;
+
+			int[] t = cls;
+			cls = next;
+			next = t;
+			classes = split;
+		}
+
+		short[] depth = new short[classes];
+		for (int s = 0; s < states; s++)
+			if (cls[s] >= 0) depth[cls[s]] = (short) Math.min(last[s] + 1, Short.MAX_VALUE);
+		return new ClassTable(map, maxTiles, cls, depth);
+	}
+
+	/** Hash of a state's class and the classes of its successors */
+	private static long signature(int s, int[] cls, int[] forward) {
+		long h = cls[s] * 0x9E3779B97F4A7C15L;
+		h = (h ^ (forward[s] < 0 ? -1 : cls[forward[s]])) * 0xBF58476D1CE4E5B9L;
+		h = (h ^ cls[(s & ~3) | ((s + 1) & 3)]) * 0x94D049BB133111EBL;
+		h = (h ^ cls[(s & ~3) | ((s + 3) & 3)]) * 0x9E3779B97F4A7C15L;
+		return h;
+	}
+
+	/** Whether two states have the same class and successor classes */
+	private static boolean same(int a, int b, int[] cls, int[] forward) {
+		return cls[a] == cls[b]
+				&& (forward[a] < 0 ? -1 : cls[forward[a]]) == (forward[b] < 0 ? -1 : cls[forward[b]])
+				&& cls[(a & ~3) | ((a + 1) & 3)] == cls[(b & ~3) | ((b + 1) & 3)]
+				&& cls[(a & ~3) | ((a + 3) & 3)] == cls[(b & ~3) | ((b + 3) & 3)];
+	}
+}
@@ -0,0 +1,166 @@
+/******************************************************************************
+ * Precomputed, read-only tables used to filter a BeliefState against a map.
+ *
+ * Hypotheses are laid out as one bitset per starting direction. Within a
+ * direction, the hypothesis for cell (x, y) lives at bit x * stride + y. The
+ * stride is twice the map height so that translating a mask by any offset
+ * smaller than the map never wraps a real cell into another column: shifted-in
+ * bits always land in the zero padding above each column.
+ *
+ * For every absolute direction there are two masks - cells that are free and
+ * blocked in that direction, and cells that are free and open in that
+ * direction. Filtering an observation is then a shifted AND per direction.
+ *
+ * When the ultrasonic range is used rather than a blocked/free bit, there is
+ * also a mask per number of free tiles ahead, from 0 up to maxTiles, where
+ * the last mask holds every cell with at least maxTiles free tiles ahead.
+ */
+public class BeliefMap {
+	/** Direction indexed by its value (# of left turns from up) */
+	static final Direction[] BY_VALUE = { Direction.UP, Direction.LEFT, Direction.DOWN, Direction.RIGHT };
+
+	// Rotation of a relative (x, y) offset into absolute coordinates, indexed
+	// by the value of the starting direction. Matches Position.relativeX/Y:
+	// dx = ROT_XX * rx + ROT_XY * ry, dy = ROT_YX * rx + ROT_YY * ry
+	// ROT_XY and ROT_YY are also the step to the tile ahead in each direction
+	static final int[]
+		ROT_XX = { 1,  0, -1, 0 },
+		ROT_XY = { 0, -1,  0, 1 },
+		ROT_YX = { 0,  1,  0, -1 },
+		ROT_YY = { 1,  0, -1, 0 };
+
+	final int width, height;		// Map dimensions in tiles
+	final int stride;				// Bits between consecutive columns
+	final int wordsPerDir;			// Words in the bitset of one starting direction
+	final int maxTiles;				// Most free tiles ahead told apart
+	final long[][] blocked, open;	// [absolute direction][word] observation masks
+	final long[][][] ranges;		// [absolute direction][free tiles ahead][word] observation masks
+	final long[] free;				// Every free cell
+
+	/****
+	 * Build the blocked/free observation masks for a map
+	 *
+	 * @param map The map, used map[x][y]. True if there is a block there
+	 */
+	public BeliefMap(boolean[][] map) {
+		this(new GridMap(map), 1);}
+
+	/****
+	 * Build the observation masks for a map
+	 *
+	 * @param map The map, used map[x][y]. True if there is a block there
+	 * @param maxTiles Most free tiles ahead that observations tell apart, at least 1
+	 */
+	public BeliefMap(boolean[][] map, int maxTiles) {
+		this(new GridMap(map), maxTiles);}
+
+	/****
+	 * Build the blocked/free observation masks for a map
+	 *
+	 * @param map The map
+	 */
+	public BeliefMap(GridMap map) {
+		this(map, 1);}
+
+	/****
+	 * Build the observation masks for a map. The free cells are copied a
+	 * column at a time out of the map's block bits, and every mask after
+	 * that is shifts and ANDs of whole words, so nothing looks at single
+	 * cells.
+	 *
+	 * @param map The map
+	 * @param maxTiles Most free tiles ahead that observations tell apart, at least 1
+	 */
+	public BeliefMap(GridMap map, int maxTiles) {
+		this.width = map.getWidth();
+		this.height = map.getHeight();
+		this.stride = 2 * height;
+		this.wordsPerDir = (width * stride + 63) >>> 6;
+		this.maxTiles = maxTiles;
+		this.ranges = new long[4][maxTiles + 1][wordsPerDir];
+		this.open = new long[4][];
+		this.blocked = new long[4][];
+		this.free = new long[wordsPerDir];
+
+		for (int x = 0; x < width; x++)
+			for (int k = 0; k < height; k += 64){
+				int n = Math.min(64, height - k);
+				or(free, x * stride + k, ~bits(map.blocks, x * height + k) & (-1L >>> (64 - n)));}
+
+		for (int a = 0; a < 4; a++){
+			// ranges[a][t] is first every free cell with at least t free tiles
+			// ahead, then has those with more than t taken out. The padding
+			// above each column and the ends of the bitset are zero, so cells
+			// looking off the map see a block.
+			int offset = ROT_XY[a] * stride + ROT_YY[a];
+			long[][] r = ranges[a];
+			System.arraycopy(free, 0, r[0], 0, wordsPerDir);
+			for (int t = 1; t <= maxTiles; t++){
+				for (int i = 0; i < wordsPerDir; i++)
+					r[t][i] = free[i] & shifted(r[t - 1], i, offset);
+				for (int i = 0; i < wordsPerDir; i++)
+					r[t - 1][i] &= ~r[t][i];
+				if (t == 1) open[a] = maxTiles == 1 ? r[1] : r[1].clone();}
+			blocked[a] = r[0];
+		}
+	}
+
+	/****
+	 * Get the width of the map
+	 * @return Width of the map in tiles
+	 */
+	public int getWidth() {
+		return width;}
+
+	/****
+	 * Get the height of the map
+	 * @return Height of the map in tiles
+	 */
+	public int getHeight() {
+		return height;}
+
+	/****
+	 * Get the most free tiles ahead that observations tell apart
+	 * @return Observations of this many tiles or more are the same
+	 */
+	public int getMaxTiles() {
+		return maxTiles;}
+
+	/****
+	 * Get the number of words needed to hold a full belief
+	 * @return Number of 64 bit words in a belief over this map
+	 */
+	public int words() {
+		return 4 * wordsPerDir;}
+
+	/****
+	 * Get the bit index of a hypothesis within its direction block
+	 *
+	 * @param x X coordinate of the cell
+	 * @param y Y coordinate of the cell
+	 * @return The bit of (x, y) within a direction block
+	 */
+	int bit(int x, int y) {
+		return x * stride + y;}
+
+	/** The 64 bits of a bitset from bit i up, zero past its end */
+	private static long bits(long[] bits, int i) {
+		int w = i >>> 6, s = i & 63;
+		long v = bits[w] >>> s;
+		if (s != 0 && w + 1 < bits.length) v |= bits[w + 1] << (64 - s);
+		return v;}
+
+	/** OR 64 bits into a bitset from bit i up, dropping any past its end */
+	private static void or(long[] bits, int i, long v) {
+		int w = i >>> 6, s = i & 63;
+		bits[w] |= v << s;
+		if (s != 0 && w + 1 < bits.length) bits[w + 1] |= v >>> (64 - s);}
+
+	/** Word i of a bitset moved down by offset bits, so bit b holds bit b + offset, zero off either end */
+	private static long shifted(long[] bits, int i, int offset) {
+		int w = i + (offset >> 6), s = offset & 63;
+		long lo = w >= 0 && w < bits.length ? bits[w] : 0;
+		if (s == 0) return lo;
+		long hi = w + 1 >= 0 && w + 1 < bits.length ? bits[w + 1] : 0;
+		return (lo >>> s) | (hi << (64 - s));}
+}
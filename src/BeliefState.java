@@ -0,0 +1,281 @@
+/******************************************************************************
+ * Packed set of possible starting states over (x, y, Direction).
+ *
+ * Each observation made at a position relative to where we started is applied
+ * as one shifted AND per starting direction against the masks in a BeliefMap,
+ * so filtering allocates nothing and touches a handful of words per step. The
+ * surviving hypotheses are exactly those accepted by Localizer.valid(), as
+ * BeliefStateCheck checks on random maps.
+ */
+public class BeliefState {
+	private final BeliefMap bm;		// Precomputed masks for the map
+	private final long[] bits;		// 4 direction blocks of bm.wordsPerDir words
+
+	/****
+	 * Create a belief where every free cell in every direction is possible
+	 *
+	 * @param bm Precomputed masks of the map to localize in
+	 */
+	public BeliefState(BeliefMap bm) {
+		this.bm = bm;
+		this.bits = new long[bm.words()];
+		reset();}
+
+	/****
+	 * Create a belief holding the same hypotheses as another, over the same map
+	 *
+	 * @param other The belief to copy
+	 */
+	public BeliefState(BeliefState other) {
+		this.bm = other.bm;
+		this.bits = other.bits.clone();}
+
+	/****
+	 * Make every free cell in every direction possible again
+	 */
+	public void reset() {
+		for (int d = 0; d < 4; d++)
+			System.arraycopy(bm.free, 0, bits, d * bm.wordsPerDir, bm.wordsPerDir);
+	}
+
+	/****
+	 * Copy the hypotheses of another belief over the same map into this one
+	 *
+	 * @param other The belief to copy
+	 */
+	public void copyFrom(BeliefState other) {
+		System.arraycopy(other.bits, 0, bits, 0, bits.length);}
+
+	/****
+	 * Remove every starting state that is inconsistent with an observation
+	 *
+	 * @param x X coordinate relative to where we started
+	 * @param y Y coordinate relative to where we started
+	 * @param dir Direction relative to where we started
+	 * @param blocked Whether the tile ahead was observed to be blocked
+	 * @return The number of starting states remaining
+	 */
+	public int observe(int x, int y, Direction dir, boolean blocked) {
+		return observe(x, y, dir, blocked, 0, bits.length);}
+
+	/****
+	 * Remove every starting state in a range of words that is inconsistent
+	 * with an observation. Ranges that don't overlap can be filtered at once.
+	 *
+	 * @param x X coordinate relative to where we started
+	 * @param y Y coordinate relative to where we started
+	 * @param dir Direction relative to where we started
+	 * @param blocked Whether the tile ahead was observed to be blocked
+	 * @param from First word to filter
+	 * @param to Word after the last to filter
+	 * @return The number of starting states remaining in the range
+	 */
+	int observe(int x, int y, Direction dir, boolean blocked, int from, int to) {
+		int count = 0;
+		for (int d = from / bm.wordsPerDir; d < 4 && d * bm.wordsPerDir < to; d++){
+			int dx = BeliefMap.ROT_XX[d] * x + BeliefMap.ROT_XY[d] * y;
+			int dy = BeliefMap.ROT_YX[d] * x + BeliefMap.ROT_YY[d] * y;
+			long[] mask = blocked ? bm.blocked[(d + dir.v) & 3] : bm.open[(d + dir.v) & 3];
+			count += and(d, mask, dx, dy, true, from, to);}
+		return count;
+	}
+
+	/****
+	 * Remove every starting state that is inconsistent with a ranged observation
+	 *
+	 * @param x X coordinate relative to where we started
+	 * @param y Y coordinate relative to where we started
+	 * @param dir Direction relative to where we started
+	 * @param tiles Number of free tiles observed ahead, the map's maxTiles or
+	 * more meaning at least that many
+	 * @return The number of starting states remaining
+	 */
+	public int observe(int x, int y, Direction dir, int tiles) {
+		return observe(x, y, dir, tiles, 0, bits.length);}
+
+	/****
+	 * Remove every starting state in a range of words that is inconsistent
+	 * with a ranged observation
+	 *
+	 * @param x X coordinate relative to where we started
+	 * @param y Y coordinate relative to where we started
+	 * @param dir Direction relative to where we started
+	 * @param tiles Number of free tiles observed ahead
+	 * @param from First word to filter
+	 * @param to Word after the last to filter
+	 * @return The number of starting states remaining in the range
+	 */
+	int observe(int x, int y, Direction dir, int tiles, int from, int to) {
+		int count = 0;
+		if (tiles > bm.maxTiles) tiles = bm.maxTiles;
+		for (int d = from / bm.wordsPerDir; d < 4 && d * bm.wordsPerDir < to; d++){
+			int dx = BeliefMap.ROT_XX[d] * x + BeliefMap.ROT_XY[d] * y;
+			int dy = BeliefMap.ROT_YX[d] * x + BeliefMap.ROT_YY[d] * y;
+			count += and(d, bm.ranges[(d + dir.v) & 3][tiles], dx, dy, true, from, to);}
+		return count;
+	}
+
+	/****
+	 * Count the starting states that would remain after a ranged observation,
+	 * without removing any
+	 *
+	 * @param x X coordinate relative to where we started
+	 * @param y Y coordinate relative to where we started
+	 * @param dir Direction relative to where we started
+	 * @param tiles Number of free tiles that would be observed ahead
+	 * @return The number of starting states that would remain
+	 */
+	public int count(int x, int y, Direction dir, int tiles) {
+		int count = 0;
+		if (tiles > bm.maxTiles) tiles = bm.maxTiles;
+		for (int d = 0; d < 4; d++){
+			int dx = BeliefMap.ROT_XX[d] * x + BeliefMap.ROT_XY[d] * y;
+			int dy = BeliefMap.ROT_YX[d] * x + BeliefMap.ROT_YY[d] * y;
+			count += and(d, bm.ranges[(d + dir.v) & 3][tiles], dx, dy, false, 0, bits.length);}
+		return count;
+	}
+
+	/****
+	 * Count the starting states that would remain after an observation,
+	 * without removing any
+	 *
+	 * @param x X coordinate relative to where we started
+	 * @param y Y coordinate relative to where we started
+	 * @param dir Direction relative to where we started
+	 * @param blocked Whether the tile ahead would be observed to be blocked
+	 * @return The number of starting states that would remain
+	 */
+	public int count(int x, int y, Direction dir, boolean blocked) {
+		int count = 0;
+		for (int d = 0; d < 4; d++){
+			int dx = BeliefMap.ROT_XX[d] * x + BeliefMap.ROT_XY[d] * y;
+			int dy = BeliefMap.ROT_YX[d] * x + BeliefMap.ROT_YY[d] * y;
+			long[] mask = blocked ? bm.blocked[(d + dir.v) & 3] : bm.open[(d + dir.v) & 3];
+			count += and(d, mask, dx, dy, false, 0, bits.length);}
+		return count;
+	}
+
+	/****
+	 * AND the words of one direction block that lie in [from, to) with a
+	 * mask translated by (dx, dy) tiles
+	 *
+	 * @param d Starting direction of the block
+	 * @param write Whether to store the result or only count it
+	 * @return Number of hypotheses remaining in the words
+	 */
+	private int and(int d, long[] mask, int dx, int dy, boolean write, int from, int to) {
+		int n = bm.wordsPerDir, base = d * n, count = 0;
+		int lo = Math.max(from - base, 0), hi = Math.min(to - base, n);
+		if (dx <= -bm.width || dx >= bm.width || dy <= -bm.height || dy >= bm.height){
+			for (int j = lo; write && j < hi; j++)	// Every cell is shifted off the map
+				bits[base + j] = 0;
+			return 0;}
+
+		int shift = dx * bm.stride + dy;
+		int word = (shift >> 6) + lo, off = shift & 63;
+		for (int j = lo; j < hi; j++, word++){
+			long w = bits[base + j];
+			if (w == 0) continue;
+			long m = word >= 0 && word < n ? mask[word] >>> off : 0;
+			if (off != 0 && word + 1 >= 0 && word + 1 < n)
+				m |= mask[word + 1] << (64 - off);
+			w &= m;
+			if (write) bits[base + j] = w;
+			count += Long.bitCount(w);}
+		return count;
+	}
+
+	/****
+	 * Get the number of words the belief is kept in
+	 * @return Number of 64 bit words, split by FilterPool
+	 */
+	int words() {
+		return bits.length;}
+
+	/****
+	 * Get the number of possible starting states
+	 * @return Number of possible starting states
+	 */
+	public int size() {
+		int count = 0;
+		for (int j = 0; j < bits.length; j++)
+			count += Long.bitCount(bits[j]);
+		return count;
+	}
+
+	/****
+	 * Check whether a starting state is still possible
+	 *
+	 * @param x X coordinate of the starting state
+	 * @param y Y coordinate of the starting state
+	 * @param dir Direction of the starting state
+	 * @return True iff (x, y, dir) is still a possible starting state
+	 */
+	public boolean contains(int x, int y, Direction dir) {
+		if (x < 0 || x >= bm.width || y < 0 || y >= bm.height) return false;
+		int bit = bm.bit(x, y);
+		return (bits[dir.v * bm.wordsPerDir + (bit >>> 6)] & (1L << bit)) != 0;}
+
+	/****
+	 * Get the fingerprint of the set of states the robot may currently be in,
+	 * as used by PolicyTable
+	 *
+	 * @param x X coordinate relative to where we started
+	 * @param y Y coordinate relative to where we started
+	 * @param dir Direction relative to where we started
+	 * @return The sum of PolicyTable.mix() over the possible current states
+	 */
+	public long currentStateHash(int x, int y, Direction dir) {
+		long h = 0;
+		for (int j = 0; j < bits.length; j++){
+			long w = bits[j];
+			int d = j / bm.wordsPerDir;
+			int dx = BeliefMap.ROT_XX[d] * x + BeliefMap.ROT_XY[d] * y;
+			int dy = BeliefMap.ROT_YX[d] * x + BeliefMap.ROT_YY[d] * y;
+			while (w != 0){
+				int bit = ((j - d * bm.wordsPerDir) << 6) + Long.numberOfTrailingZeros(w);
+				int cx = bit / bm.stride + dx, cy = bit % bm.stride + dy;
+				h += PolicyTable.mix((cx * bm.height + cy) * 4 + ((d + dir.v) & 3));
+				w &= w - 1;}
+		}
+		return h;
+	}
+
+	/****
+	 * Check whether every possible starting state is in one class, so no
+	 * moves can narrow them down further
+	 *
+	 * @param classes Classes of the states of the map
+	 * @return True iff there are possible states and they share a class
+	 */
+	public boolean withinClass(ClassTable classes) {
+		int c = -1;
+		for (int j = 0; j < bits.length; j++){
+			long w = bits[j];
+			int d = j / bm.wordsPerDir;
+			while (w != 0){
+				int bit = ((j - d * bm.wordsPerDir) << 6) + Long.numberOfTrailingZeros(w);
+				int k = classes.of((bit / bm.stride * bm.height + bit % bm.stride) * 4 + d);
+				if (c >= 0 && k != c) return false;
+				c = k;
+				w &= w - 1;}
+		}
+		return c >= 0;
+	}
+
+	/****
+	 * Get the first possible starting state
+	 *
+	 * @return The first possible starting state, or null if there are none.
+	 * The position is marked blocked iff the tile ahead of it is blocked.
+	 */
+	public Position first() {
+		for (int j = 0; j < bits.length; j++){
+			if (bits[j] == 0) continue;
+			int d = j / bm.wordsPerDir;
+			int bit = ((j - d * bm.wordsPerDir) << 6) + Long.numberOfTrailingZeros(bits[j]);
+			return new Position(bit / bm.stride, bit % bm.stride, BeliefMap.BY_VALUE[d],
+					(bm.blocked[d][bit >>> 6] & (1L << bit)) != 0);}
+		return null;
+	}
+}
@@ -0,0 +1,178 @@
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+
+/******************************************************************************
+ * Which starting states of a map no sequence of moves can tell apart.
+ *
+ * States are indexed (x * height + y) * 4 + direction value as in
+ * PolicyTable. Two states share a class iff every sequence of moves from
+ * them gives the same readings, so once the possible starting states all lie
+ * in one class, moving any further can't narrow them down. Each class also
+ * keeps its depth: over the other states, the most observations it takes to
+ * tell one from the class with the best moves for that state. No
+ * localization starting in the class can need fewer in the worst case.
+ *
+ * On disk the table is:
+ *   int magic, short version, short width, short height, long map hash,
+ *   byte max tiles, int classes, states * int class (-1 = blocked tile),
+ *   classes * short depth
+ * Tables are written by AmbiguityAnalyzer.
+ */
+public class ClassTable {
+	/** "LCLS" */
+	public static final int MAGIC = 0x4C434C53;
+	/** Version of the file format */
+	public static final short VERSION = 1;
+
+	private final int width, height;	// Dimensions of the map the table is for
+	private final long mapHash;			// PolicyTable.mapHash() of the map the table is for
+	private final int maxTiles;			// Most free tiles ahead the readings told apart
+	private final int[] classOf;		// [state] Class of each state, -1 if its tile is blocked
+	private final short[] depth;		// [class] Observations needed to tell it from the hardest other state
+	private final int[] size;			// [class] Number of states in it
+	private int largest;				// Most states in one class
+
+	/****
+	 * Create a table from the classes of every state
+	 *
+	 * @param map The map the table is for, used map[x][y]
+	 * @param maxTiles Most free tiles ahead the readings told apart
+	 * @param classOf Class of each state, -1 if its tile is blocked
+	 * @param depth Observations needed for each class
+	 */
+	ClassTable(boolean[][] map, int maxTiles, int[] classOf, short[] depth) {
+		this(map.length, map[0].length, PolicyTable.mapHash(new GridMap(map)), maxTiles, classOf, depth);}
+
+	private ClassTable(int width, int height, long mapHash, int maxTiles, int[] classOf, short[] depth) {
+		this.width = width;
+		this.height = height;
+		this.mapHash = mapHash;
+		this.maxTiles = maxTiles;
+		this.classOf = classOf;
+		this.depth = depth;
+		this.size = new int[depth.length];
+		for (int s = 0; s < classOf.length; s++)
+			if (classOf[s] >= 0 && ++size[classOf[s]] > largest) largest = size[classOf[s]];
+	}
+
+	/****
+	 * Get the class of a state
+	 *
+	 * @param state Index of the state, (x * height + y) * 4 + direction value
+	 * @return The class, -1 if the state's tile is blocked
+	 */
+	public int of(int state) {
+		return classOf[state];}
+
+	/****
+	 * Get the class of a state
+	 *
+	 * @param p Tile and heading of the state
+	 * @return The class, -1 if the tile is blocked
+	 */
+	public int of(Position p) {
+		return classOf[(p.getX() * height + p.getY()) * 4 + p.getDir().v];}
+
+	/****
+	 * Get the number of classes
+	 * @return Number of classes of free states
+	 */
+	public int classes() {
+		return depth.length;}
+
+	/****
+	 * Get the number of states in a class
+	 * @param c The class
+	 * @return Number of states no moves can tell apart
+	 */
+	public int size(int c) {
+		return size[c];}
+
+	/****
+	 * Get the most states in any one class
+	 * @return Size of the largest class, 1 if every state can be localized
+	 */
+	public int largest() {
+		return largest;}
+
+	/****
+	 * Get the observations needed to tell a class from the hardest other
+	 * state to tell it from, after which nothing more can be learned
+	 *
+	 * @param c The class
+	 * @return Number of observations, 1 if the first reading tells it apart
+	 */
+	public int depth(int c) {
+		return depth[c];}
+
+	/****
+	 * Check whether every starting state can be localized
+	 * @return True iff no two states share a class
+	 */
+	public boolean isLocalizable() {
+		return largest <= 1;}
+
+	/****
+	 * Get the most free tiles ahead the readings told apart
+	 * @return maxTiles of the BeliefMap the table matches
+	 */
+	public int getMaxTiles() {
+		return maxTiles;}
+
+	/****
+	 * Check whether the table was made for a map
+	 *
+	 * @param map The map
+	 * @return True iff the table was made for exactly this map
+	 */
+	public boolean matches(GridMap map) {
+		return map.getWidth() == width && map.getHeight() == height && PolicyTable.mapHash(map) == mapHash;}
+
+	/****
+	 * Read a table written by write()
+	 *
+	 * @param in Stream to read from
+	 * @return The table
+	 * @throws IOException If the stream does not hold a class table
+	 */
+	public static ClassTable read(DataInputStream in) throws IOException {
+		if (in.readInt() != MAGIC || in.readShort() != VERSION)
+			throw new IOException("Not a class table");
+		int width = in.readShort(), height = in.readShort();
+		long mapHash = in.readLong();
+		int maxTiles = in.readByte(), classes = in.readInt();
+		if (width <= 0 || height <= 0 || maxTiles < 1 || classes < 0)
+			throw new IOException("Bad class table header");
+
+		int[] classOf = new int[width * height * 4];
+		for (int s = 0; s < classOf.length; s++){
+			classOf[s] = in.readInt();
+			if (classOf[s] < -1 || classOf[s] >= classes)
+				throw new IOException("Bad class " + classOf[s]);}
+		short[] depth = new short[classes];
+		for (int c = 0; c < classes; c++)
+			depth[c] = in.readShort();
+		return new ClassTable(width, height, mapHash, maxTiles, classOf, depth);
+	}
+
+	/****
+	 * Write the table
+	 *
+	 * @param out Stream to write to
+	 * @throws IOException If writing fails
+	 */
+	public void write(DataOutputStream out) throws IOException {
+		out.writeInt(MAGIC);
+		out.writeShort(VERSION);
+		out.writeShort(width);
+		out.writeShort(height);
+		out.writeLong(mapHash);
+		out.writeByte(maxTiles);
+		out.writeInt(depth.length);
+		for (int s = 0; s < classOf.length; s++)
+			out.writeInt(classOf[s]);
+		for (int c = 0; c < depth.length; c++)
+			out.writeShort(depth[c]);
+	}
+}
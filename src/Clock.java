@@ -0,0 +1,36 @@
+/******************************************************************************
+ * Source of time for the robot's threads.
+ * 
+ * On the brick this is the system clock. Off the brick it is replaced by a
+ * SimClock so that a whole run can execute faster than real time.
+ */
+public interface Clock {
+	/****
+	 * Get the current time in milliseconds
+	 * @return The current time in milliseconds
+	 */
+	public long currentTimeMillis();
+	
+	/****
+	 * Get the current time in nanoseconds, for measuring intervals only
+	 * @return The current time in nanoseconds
+	 */
+	public long nanoTime();
+	
+	/****
+	 * Sleep the calling thread. An interrupt ends the sleep early and
+	 * leaves the thread's interrupted flag set.
+	 * 
+	 * @param millis Time to sleep in milliseconds
+	 */
+	public void sleep(long millis);
+	
+	/****
+	 * Sleep the calling thread until nanoTime() reaches a point, returning
+	 * at once if it already has. An interrupt ends the sleep early and
+	 * leaves the thread's interrupted flag set.
+	 * 
+	 * @param wake Time to wake up at in ns, as given by nanoTime()
+	 */
+	public void sleepUntil(long wake);
+}
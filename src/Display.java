@@ -1,103 +1,264 @@
 /*
  * OdometryDisplay.java
- * 
+ *
  * Controls what is displayed on the NXT screen
+ *
+ * Callers write into a back buffer and return at once. One long-lived
+ * render thread copies the buffer at most FRAME_RATE times a second and
+ * draws only the characters that changed since the last frame, so any
+ * number of updates between frames cost one redraw. Nothing here
+ * allocates once the render thread is running.
  */
 
 import lejos.nxt.LCD;
 
 public class Display {
+	/** Most frames drawn per second */
+	public static final int FRAME_RATE = 10;
+
+	private static final int WIDTH = LCD.DISPLAY_CHAR_WIDTH, HEIGHT = LCD.DISPLAY_CHAR_DEPTH;
+
+	private static volatile boolean enabled = true;	// False when running without an LCD
+	private static final Object lock = new Object();		// Guards back, dirty, digits and renderer
+	private static final char[][] back = new char[HEIGHT][WIDTH];	// What callers want on the screen
+	private static boolean dirty;							// Whether back changed since the last frame
+	private static final char[] digits = new char[24];		// Scratch for formatting numbers
+	private static Thread renderer;							// Draws frames, null until first needed
+
+	/****
+	 * Turn drawing to the LCD on or off. Off the brick, e.g. in a
+	 * Simulation, there is no LCD to draw to.
+	 *
+	 * @param enabled Whether to draw to the LCD
+	 */
+	public static void setEnabled(boolean enabled) {
+		Display.enabled = enabled;}
+
 	/****
 	 * Print the current values of x, y, and theta to the screen.
-	 * 
+	 *
 	 * Modified to be called from the Odometry class, to allow for more control
 	 * @param <Position>
-	 * 
+	 *
 	 * @param x The current x value of the odometer in cm
 	 * @param y The current y value of the domoeter in cm
 	 * @param theta The current value of theta (amount the robot has rotated) in radians
 	 */
+	public static void printDemoInfo(final Pose pose, final int observations, final Position start){
+		printDemoInfo(pose.getX(), pose.getY(), pose.getTheta(), observations, start);}
+
 	public static void printDemoInfo(final double x, final double y, final double theta, final int observations, final Position start){
-		new Thread(new Runnable(){ public void run(){
-			String sx = formattedDoubleToString((((double)start.getX()) - 0.5)*Odometer.TILE_SIZE, 2);
-			String sy = formattedDoubleToString((((double)start.getY()) - 0.5)*Odometer.TILE_SIZE, 2);
-			
-			LCD.clear();
-			// clear the lines for displaying odometry information
-			LCD.drawString("X:                  ", 0, 0);
-			LCD.drawString("Y:                  ", 0, 1);
-			LCD.drawString("T:                  ", 0, 2);
-			LCD.drawString("Observations: " + observations, 0, 3);
-			LCD.drawString("Start: ", 0, 4);
-			LCD.drawString("(" + sx + ", " + sy + ")", 0, 5);
-			LCD.drawString(start.getDir().asCardinal(), 0, 6);
-			LCD.drawString(formattedDoubleToString(x, 2), 3, 0);
-			LCD.drawString(formattedDoubleToString(y, 2), 3, 1);
-			LCD.drawString(formattedDoubleToString(theta, 2), 3, 2);}}).start();}
-
-	public static void printLocalizationInfo(int x, int y, Direction current, boolean blocked, int size){
-		new Thread(new Runnable(){ public void run(){
-			LCD.clear();
-			LCD.drawString(blocked + "" , 0, 0);
-			LCD.drawString("# possible: " + size, 0, 1);
-			LCD.drawString("Relative Location:", 0, 2);
-			LCD.drawString(x + ", " + y + ", " + current.toString(), 0, 3);
-		}}).start();}
-	private static String formattedDoubleToString(double x, int places) {
-		String result = "";
-		String stack = "";
-		long t;
-		
+		if (!enabled) return;
+		synchronized (lock) {
+			clear();
+			put("X: ", 0, 0);
+			put(x, 2, 3, 0);
+			put("Y: ", 0, 1);
+			put(y, 2, 3, 1);
+			put("T: ", 0, 2);
+			put(theta, 2, 3, 2);
+			put(observations, put("Observations: ", 0, 3), 3);
+			put("Start: ", 0, 4);
+			int at = put("(", 0, 5);
+			at = put((((double)start.getX()) - 0.5)*Odometer.TILE_SIZE, 2, at, 5);
+			at = put(", ", at, 5);
+			at = put((((double)start.getY()) - 0.5)*Odometer.TILE_SIZE, 2, at, 5);
+			put(")", at, 5);
+			put(start.getDir().asCardinal(), 0, 6);
+			show();}
+	}
+
+	public static void printLocalizationInfo(final int x, final int y, final Direction current, final boolean blocked, final int size){
+		if (!enabled) return;
+		synchronized (lock) {
+			clear();
+			put(blocked ? "true" : "false", 0, 0);
+			put(size, put("# possible: ", 0, 1), 1);
+			put("Relative Location:", 0, 2);
+			putLocation(x, y, current, 3);
+			show();}
+	}
+
+	public static void printMarkovInfo(final int x, final int y, final Direction current, final boolean blocked, final float confidence){
+		if (!enabled) return;
+		synchronized (lock) {
+			clear();
+			put(blocked ? "true" : "false", 0, 0);
+			put("%", put((int)(100 * confidence), put("Confidence: ", 0, 1), 1), 1);
+			put("Relative Location:", 0, 2);
+			putLocation(x, y, current, 3);
+			show();}
+	}
+
+	/******
+	 * Print the main menu
+	 */
+	public static void printMainMenu() {
+		if (!enabled) return;
+		synchronized (lock) {
+			// clear the display
+			clear();
+
+			// ask the user whether the motors should Avoid Block or Go to locations
+			put("< Left | Right >", 0, 0);
+			put("       |        ", 0, 1);
+			put(" STOCH | DET.   ", 0, 2);
+			put("----------------", 0, 3);
+			put("    DEMO=ENTER   ", 0, 4);
+			put("     vvvvvv     ", 0, 5);
+			show();}
+	}
+
+	// The helpers below are called holding lock
+
+	/** Blank the back buffer */
+	private static void clear() {
+		for (int row = 0; row < HEIGHT; row++)
+			for (int col = 0; col < WIDTH; col++)
+				back[row][col] = ' ';}
+
+	/** Write "x, y, direction" across a row */
+	private static void putLocation(int x, int y, Direction current, int row) {
+		int at = put(x, 0, row);
+		at = put(", ", at, row);
+		at = put(y, at, row);
+		at = put(", ", at, row);
+		put(current.toString(), at, row);}
+
+	/****
+	 * Write text into the back buffer, cutting it off at the edge
+	 * @return The column after the text
+	 */
+	private static int put(String s, int col, int row) {
+		for (int i = 0; i < s.length() && col < WIDTH; i++)
+			back[row][col++] = s.charAt(i);
+		return col;}
+
+	/****
+	 * Write characters into the back buffer, cutting them off at the edge
+	 * @return The column after them
+	 */
+	private static int put(char[] s, int from, int to, int col, int row) {
+		for (int i = from; i < to && col < WIDTH; i++)
+			back[row][col++] = s[i];
+		return col;}
+
+	/****
+	 * Write an integer into the back buffer
+	 * @return The column after it
+	 */
+	private static int put(long n, int col, int row) {
+		int from = formatLong(n, digits, digits.length);
+		return put(digits, from, digits.length, col, row);}
+
+	/****
+	 * Write a number into the back buffer with a fixed number of decimals
+	 * @return The column after it
+	 */
+	private static int put(double x, int places, int col, int row) {
+		int to = formatDouble(x, places, digits);
+		return put(digits, 0, to, col, row);}
+
+	/** Mark the back buffer changed and make sure there is a thread to draw it */
+	private static void show() {
+		dirty = true;
+		if (renderer == null){
+			renderer = new Thread(new Runnable(){ public void run(){ render(); }});
+			renderer.setDaemon(true);
+			renderer.start();}
+		lock.notify();
+	}
+
+	/**
+	 * Draw frames whenever the back buffer has changed, no more than
+	 * FRAME_RATE a second, until interrupted while waiting for a change
+	 */
+	private static void render() {
+		char[][] front = new char[HEIGHT][WIDTH], frame = new char[HEIGHT][WIDTH];
+		for (int row = 0; row < HEIGHT; row++)
+			for (int col = 0; col < WIDTH; col++)
+				front[row][col] = ' ';
+		LCD.clear();
+
+		while (true){
+			synchronized (lock) {
+				while (!dirty){
+					try {
+						lock.wait();
+					} catch (InterruptedException e) {
+						// Leave it to the next show() to start another renderer
+						renderer = null;
+						return;}
+				}
+				dirty = false;
+				for (int row = 0; row < HEIGHT; row++)
+					System.arraycopy(back[row], 0, frame[row], 0, WIDTH);}
+
+			// Only redraw what changed
+			for (int row = 0; row < HEIGHT; row++)
+				for (int col = 0; col < WIDTH; col++)
+					if (frame[row][col] != front[row][col]){
+						front[row][col] = frame[row][col];
+						LCD.drawChar(front[row][col], col, row);}
+
+			SystemClock.INSTANCE.sleep(1000 / FRAME_RATE);
+		}
+	}
+
+	/****
+	 * Format an integer, right aligned to the end of a buffer
+	 *
+	 * @param n The number
+	 * @param out Buffer to write into
+	 * @param end Index after the last character to write
+	 * @return Index of the first character written
+	 */
+	static int formatLong(long n, char[] out, int end) {
+		int i = end;
+		long t = n < 0 ? -n : n;
+		do {
+			out[--i] = (char) ('0' + t % 10);
+			t /= 10;
+		} while (t > 0);
+		if (n < 0) out[--i] = '-';
+		return i;
+	}
+
+	/****
+	 * Format a number with a fixed number of decimals, cut off rather than
+	 * rounded, from the start of a buffer
+	 *
+	 * @param x The number
+	 * @param places Number of decimals
+	 * @param out Buffer to write into, long enough for the number
+	 * @return Index after the last character written
+	 */
+	static int formatDouble(double x, int places, char[] out) {
+		int i = 0;
+
 		// put in a minus sign as needed
 		if (x < 0.0)
-			result += "-";
-		
-		// put in a leading 0
-		if (-1.0 < x && x < 1.0)
-			result += "0";
-		else {
-			t = (long)x;
-			if (t < 0)
-				t = -t;
-			
-			while (t > 0) {
-				stack = Long.toString(t % 10) + stack;
-				t /= 10;
-			}
-			
-			result += stack;
-		}
-		
+			out[i++] = '-';
+
+		// the whole part, with a leading 0 if there is none
+		long t = (long) Math.abs(x);
+		int from = formatLong(t, out, out.length);
+		while (from < out.length)
+			out[i++] = out[from++];
+
 		// put the decimal, if needed
 		if (places > 0) {
-			result += ".";
-		
+			out[i++] = '.';
+
 			// put the appropriate number of decimals
-			for (int i = 0; i < places; i++) {
-				x = Math.abs(x);
+			x = Math.abs(x);
+			for (int p = 0; p < places; p++) {
 				x = x - Math.floor(x);
 				x *= 10.0;
-				result += Long.toString((long)x);
+				out[i++] = (char) ('0' + (int) x);
 			}
 		}
-		
-		return result;
-	}
-
-	/******
-	 * Print the main menu
-	 */
-	public static void printMainMenu() {
-		// clear the display
-		LCD.clear();
 
-		// ask the user whether the motors should Avoid Block or Go to locations
-		LCD.drawString("< Left | Right >", 0, 0);
-		LCD.drawString("       |        ", 0, 1);
-		LCD.drawString(" STOCH | DET.   ", 0, 2);
-		LCD.drawString("----------------", 0, 3);
-		LCD.drawString("    DEMO=ENTER   ", 0, 4);
-		LCD.drawString("     vvvvvv     ", 0, 5);
+		return i;
 	}
-
 }
@@ -0,0 +1,56 @@
+/******************************************************************************
+ * Regulated motor driving one wheel of the robot.
+ * 
+ * Mirrors the subset of lejos.nxt.NXTRegulatedMotor used by Driver so the
+ * robot can be driven by either the real motors or a simulator.
+ */
+public interface DriveMotor extends Tachometer {
+	/****
+	 * Set the speed of the motor
+	 * @param speed Speed in degrees per second
+	 */
+	public void setSpeed(int speed);
+	
+	/****
+	 * Rotate the motor by a relative angle at the current speed
+	 * 
+	 * @param angle Angle to rotate in degrees
+	 * @param immediateReturn If false, block until the rotation completes
+	 */
+	public void rotate(int angle, boolean immediateReturn);
+	
+	/****
+	 * Rotate the motor to an angle at the current speed
+	 * 
+	 * @param limitAngle Tacho count to stop at in degrees
+	 * @param immediateReturn If false, block until the rotation completes
+	 */
+	public void rotateTo(int limitAngle, boolean immediateReturn);
+	
+	/****
+	 * Run the motor forward until told otherwise
+	 */
+	public void forward();
+	
+	/****
+	 * Run the motor backward until told otherwise
+	 */
+	public void backward();
+	
+	/****
+	 * Stop the motor in place
+	 */
+	public void stop();
+	
+	/****
+	 * Check whether the motor is moving
+	 * @return True iff the motor is rotating
+	 */
+	public boolean isMoving();
+	
+	/****
+	 * Block until a rotation started with immediateReturn completes. Returns
+	 * at once if there is none.
+	 */
+	public void waitComplete();
+}
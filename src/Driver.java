@@ -1,3 +1,5 @@
+import java.util.ArrayList;
+
 /******************************************************************************
  * Group 5
  * @author Scott Cooper	- 260503452
@@ -11,7 +13,7 @@
  */
 public class Driver {
 	
-	private static final int 
+	static final int 
 		FORWARD_SPEED = 250,
 		LOCALIZE_SPEED = 100;
 	
@@ -22,9 +24,24 @@ public class Driver {
 	private double thetar, xr, yr;
 	private boolean navigating;
 	private Odometer odo;
+	private PoseSource pose;			// Where travel() and demo() think the robot is
+	private DriveMotor leftMotor, rightMotor;
+	private MotionQueue queue;			// Runs every move, or null to drive the motors directly
+	private MotionQueue.Motion motion;	// Last move handed to the queue
+	private Recorder recorder;			// Where commands are recorded, or null
 	
-	public Driver(Odometer odometer){
+	/****
+	 * Create a driver for a pair of wheels
+	 * 
+	 * @param odometer Odometer tracking the robot
+	 * @param leftMotor Motor of the left wheel
+	 * @param rightMotor Motor of the right wheel
+	 */
+	public Driver(Odometer odometer, DriveMotor leftMotor, DriveMotor rightMotor){
 		this.odo =  odometer;
+		this.pose = odometer;
+		this.leftMotor = leftMotor;
+		this.rightMotor = rightMotor;
 		navigating = false;
 	}
 	
@@ -38,12 +55,17 @@ public class Driver {
 	 * @param y Coordinate of destination
 	 */
 	public void travel (double x, double y){
-		//gets position. Synchronized to avoid collision
-			synchronized (odo) {
-				thetar = odo.getTheta() * 180 / Math.PI;
-				xr = odo.getX();
-				yr = odo.getY();
-			}
+		if (queue != null){
+			this.navigating = true;
+			travelAsync(x, y).waitFor();
+			this.navigating = false;
+			return;}
+		if (recorder != null) recorder.command(Recorder.TRAVEL, x, y);
+		//gets position, all from the same instant
+			Pose current = pose.getPose();
+			thetar = current.getTheta() * 180 / Math.PI;
+			xr = current.getX();
+			yr = current.getY();
 			//calculates degrees to turn from 0 degrees
 			double thetad =  Math.atan2(x - xr, y - yr) * 180 / Math.PI;
 			//calculates actual angle to turn
@@ -73,13 +95,28 @@ public class Driver {
 	 * @param distance Distance forward to travel in cm
 	 */
 	public void goForward(double distance){
+		goForward(distance, false);}
+	
+	/*****
+	 * Go forward a specified distance
+	 * 
+	 * @param distance Distance forward to travel in cm
+	 * @param immediateReturn If true, return once the wheels are turning, and
+	 * use waitForMotion() to wait for them to stop
+	 */
+	public void goForward(double distance, boolean immediateReturn){
+		if (recorder != null) recorder.command(Recorder.FORWARD, distance, 0);
+		if (queue != null){
+			motion = queue.goForward(distance);
+			if (!immediateReturn) motion.waitFor();
+			return;}
 		
 		// drive forward 
-		Lab5.LEFT_MOTOR.setSpeed(FORWARD_SPEED);
-		Lab5.RIGHT_MOTOR.setSpeed(FORWARD_SPEED);
+		leftMotor.setSpeed(FORWARD_SPEED);
+		rightMotor.setSpeed(FORWARD_SPEED);
 		
-		Lab5.LEFT_MOTOR.rotate(convertDistance(WHEEL_RADIUS, distance), true);
-		Lab5.RIGHT_MOTOR.rotate(convertDistance(WHEEL_RADIUS, distance), false);}
+		leftMotor.rotate(convertDistance(WHEEL_RADIUS, distance), true);
+		rightMotor.rotate(convertDistance(WHEEL_RADIUS, distance), immediateReturn);}
 	
 	
 	/*********
@@ -88,14 +125,39 @@ public class Driver {
 	 * @param theta The amount to turn in degrees
 	 */
 	public void turnTo (double theta){
+		turnTo(theta, false);}
+	
+	/*********
+	 * Turn a specified amount
+	 * 
+	 * @param theta The amount to turn in degrees
+	 * @param immediateReturn If true, return once the wheels are turning, and
+	 * use waitForMotion() to wait for them to stop
+	 */
+	public void turnTo (double theta, boolean immediateReturn){
+		if (recorder != null) recorder.command(Recorder.TURN, theta, 0);
+		if (queue != null){
+			motion = queue.turnTo(theta);
+			if (!immediateReturn) motion.waitFor();
+			return;}
 	
 		// turn degrees clockwise
-		Lab5.LEFT_MOTOR.setSpeed(LOCALIZE_SPEED);
-		Lab5.RIGHT_MOTOR.setSpeed(LOCALIZE_SPEED);
+		leftMotor.setSpeed(LOCALIZE_SPEED);
+		rightMotor.setSpeed(LOCALIZE_SPEED);
 		
 		//calculates angel to turn to and rotates
-		Lab5.LEFT_MOTOR.rotate(convertAngle(WHEEL_RADIUS, WHEEL_BASE, theta), true);
-		Lab5.RIGHT_MOTOR.rotate(-convertAngle(WHEEL_RADIUS, WHEEL_BASE, theta), false);}
+		leftMotor.rotate(convertAngle(WHEEL_RADIUS, WHEEL_BASE, theta), true);
+		rightMotor.rotate(-convertAngle(WHEEL_RADIUS, WHEEL_BASE, theta), immediateReturn);}
+	
+	/****
+	 * Wait for a move started with immediateReturn to finish
+	 */
+	public void waitForMotion(){
+		if (queue != null){
+			if (motion != null) motion.waitFor();
+			return;}
+		leftMotor.waitComplete();
+		rightMotor.waitComplete();}
 	
 	/********
 	 * Rotate in place
@@ -103,14 +165,15 @@ public class Driver {
 	 * @param rotateClockwise Whether or not to rotate clockwise
 	 */
 	public void rotate (boolean rotateClockwise){
-		Lab5.LEFT_MOTOR.setSpeed(LOCALIZE_SPEED);
-		Lab5.RIGHT_MOTOR.setSpeed(LOCALIZE_SPEED);
+		if (recorder != null) recorder.command(Recorder.ROTATE, rotateClockwise ? 1 : 0, 0);
+		leftMotor.setSpeed(LOCALIZE_SPEED);
+		rightMotor.setSpeed(LOCALIZE_SPEED);
 		if (rotateClockwise){
-			Lab5.LEFT_MOTOR.forward();
-			Lab5.RIGHT_MOTOR.backward();
+			leftMotor.forward();
+			rightMotor.backward();
 		} else {
-			Lab5.LEFT_MOTOR.backward();
-			Lab5.RIGHT_MOTOR.forward();
+			leftMotor.backward();
+			rightMotor.forward();
 		}
 	}
 	
@@ -118,10 +181,78 @@ public class Driver {
 	 * Stop the robot in place
 	 */
 	public void stop(){
-		Lab5.LEFT_MOTOR.setSpeed(0);
-		Lab5.RIGHT_MOTOR.setSpeed(0);
+		if (recorder != null) recorder.command(Recorder.STOP, 0, 0);
+		leftMotor.setSpeed(0);
+		rightMotor.setSpeed(0);
 	}
 	
+	/****
+	 * Set where travel() and demo() get the robot's pose from, e.g. a
+	 * ParticleFilter correcting the odometer. The odometer by default.
+	 * 
+	 * @param pose Source of the robot's pose
+	 */
+	public void setPoseSource(PoseSource pose){
+		this.pose = pose;
+		if (queue != null) queue.setPoseSource(pose);}
+	
+	/****
+	 * Set the queue that travelAsync(), turnToAsync() and goForwardAsync()
+	 * hand their moves to, and that demo() uses to drive its route without
+	 * stopping at every corner. Every other move goes through it too, so
+	 * its speed profile applies throughout. The caller starts and halts it.
+	 * The queue takes its pose from this driver's pose source.
+	 * 
+	 * @param queue Queue to run moves, or null for none
+	 */
+	public void setMotionQueue(MotionQueue queue){
+		this.queue = queue;
+		if (queue != null) queue.setPoseSource(pose);}
+	
+	/****
+	 * Record every command given to the driver
+	 * 
+	 * @param recorder Recorder to record to, or null to stop recording
+	 */
+	public void setRecorder(Recorder recorder){
+		this.recorder = recorder;}
+	
+	/****
+	 * Queue a move to a position, relative to starting coordinates, planned
+	 * from where the moves already queued end
+	 * 
+	 * @param x Coordinate of destination
+	 * @param y Coordinate of destination
+	 * @return The move, to wait on
+	 */
+	public MotionQueue.Motion travelAsync(double x, double y){
+		if (recorder != null) recorder.command(Recorder.TRAVEL, x, y);
+		return motion = queue().travel(x, y);}
+	
+	/****
+	 * Queue a turn on the spot
+	 * 
+	 * @param theta The amount to turn in degrees
+	 * @return The move, to wait on
+	 */
+	public MotionQueue.Motion turnToAsync(double theta){
+		if (recorder != null) recorder.command(Recorder.TURN, theta, 0);
+		return motion = queue().turnTo(theta);}
+	
+	/****
+	 * Queue a straight move
+	 * 
+	 * @param distance Distance forward to travel in cm
+	 * @return The move, to wait on
+	 */
+	public MotionQueue.Motion goForwardAsync(double distance){
+		if (recorder != null) recorder.command(Recorder.FORWARD, distance, 0);
+		return motion = queue().goForward(distance);}
+	
+	private MotionQueue queue(){
+		if (queue == null) throw new RuntimeException("No motion queue");
+		return queue;}
+	
 	/**
 	 * Returns true if the robot is navigating
 	 * 
@@ -131,34 +262,101 @@ public class Driver {
 		return this.navigating;
 	}
 	
+	/****
+	 * Drive to the free tile nearest the top right corner of the map along
+	 * the quickest route, and face up. With a motion queue the legs are
+	 * queued together, so the robot keeps moving through the corners;
+	 * without one it stops at every corner.
+	 */
 	public void demo(){
-		int y;
-		double x;
-		synchronized(odo){
-			x = odo.getX();
-			y = (int) (Math.round(odo.getY() / Odometer.TILE_SIZE) + .5);}
-		switch(y){
-		case 0:
-			this.travel(x, 15);
-		case 1:
-			this.travel(15, 15);
-			this.travel(15, 75);
-			this.travel(75,75);
-			break;
-		case 2:
-			this.travel(15, 45);
-			this.travel(15, 75);
-		case 3:
-			this.travel(75, 75);
-			break;
-		default:
-			throw new RuntimeException("???");
-		}
-		double theta;
-		synchronized(odo){
-			theta = odo.getTheta();}
-		this.turnTo(-Math.toDegrees(theta));		
+		demo(demoGoal(Localizer.getGrid()));}
+	
+	/****
+	 * Drive to a tile along the quickest route the Localizer's map allows,
+	 * then turn to a heading. Call once localized, with the odometer in map
+	 * coordinates.
+	 * 
+	 * @param goal Tile to drive to and heading to end with
+	 */
+	public void demo(Position goal){
+		MotionQueue.Motion last = route(here(), goal);
+		if (last != null) last.waitFor();
+		this.turnTo(Math.toDegrees(Math.IEEEremainder(-0.5 * goal.getDir().v * Math.PI - pose.getPose().getTheta(), 2 * Math.PI)));
 	}
+	
+	/****
+	 * Visit tiles in the order a RouteOptimizer finds quickest, along the
+	 * quickest route between each. With a motion queue the whole run is
+	 * queued at once. Only up to RouteOptimizer.BRICK_EXACT_LIMIT tiles
+	 * are ordered exactly, to leave memory for the rest. Call once
+	 * localized, with the odometer in map coordinates.
+	 * 
+	 * @param targets Tiles to visit, their directions ignored
+	 * @return The tiles in the order visited
+	 */
+	public Position[] visit(Position[] targets){
+		Position from = here();
+		Position[] stops = new RouteOptimizer(Localizer.getPlanner(), RouteOptimizer.BRICK_EXACT_LIMIT).optimize(from, targets);
+		if (stops == null) throw new RuntimeException("A tile can't be reached");
+		MotionQueue.Motion last = null;
+		for (int i = 0; i < stops.length; i++){
+			MotionQueue.Motion m = route(i == 0 ? from : stops[i - 1], stops[i]);
+			if (m != null) last = m;}
+		if (last != null) last.waitFor();
+		return stops;
+	}
+	
+	/** Get the tile the robot is on and the heading it is nearest */
+	private Position here(){
+		Pose current = pose.getPose();
+		return new Position(tile(current.getX()), tile(current.getY()),
+				BeliefMap.BY_VALUE[(int) Math.round(-2 * current.getTheta() / Math.PI) & 3], false);}
+	
+	/****
+	 * Drive the legs of the quickest route between two tiles
+	 * @return The last leg if it was queued, otherwise null
+	 */
+	private MotionQueue.Motion route(Position from, Position to){
+		ArrayList<Position> route = Localizer.getPlanner().route(from, to);
+		if (route == null) throw new RuntimeException("No route to " + to.getX() + ", " + to.getY());
+		MotionQueue.Motion last = null;
+		for (int i = 0; i < route.size(); i++)
+			last = leg(centre(route.get(i).getX()), centre(route.get(i).getY()));
+		return last;
+	}
+	
+	/****
+	 * Get the tile demo() drives to: the free tile nearest the top right
+	 * corner of a map, facing up
+	 * 
+	 * @param map The map
+	 * @return The tile and heading
+	 */
+	public static Position demoGoal(GridMap map){
+		int bestX = -1, bestY = -1;
+		for (int x = 0; x < map.getWidth(); x++)
+			for (int y = 0; y < map.getHeight(); y++)
+				if (!map.isBlocked(x, y) && (bestX < 0 || x + y > bestX + bestY || (x + y == bestX + bestY && y > bestY))){
+					bestX = x;
+					bestY = y;}
+		if (bestX < 0) throw new RuntimeException("No free tile");
+		return new Position(bestX, bestY, Direction.UP, false);
+	}
+	
+	/** Centre of a tile in the odometer's coordinates once Localizer has corrected it, in cm */
+	private static double centre(int tile){
+		return (tile - 0.5) * Odometer.TILE_SIZE;}
+	
+	/** Tile a coordinate lies in, in the odometer's coordinates once Localizer has corrected it */
+	private static int tile(double cm){
+		return (int) Math.floor(cm / Odometer.TILE_SIZE + 1);}
+	
+	/** Drive one leg of demo(), or queue it and return the move if there is a queue */
+	private MotionQueue.Motion leg(double x, double y){
+		if (queue != null) return travelAsync(x, y);
+		travel(x, y);
+		return null;}
+	
 	/**
 	 * Returns degrees to turn servos in order to rotate robot by that amount
 	 * 
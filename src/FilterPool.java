@@ -0,0 +1,158 @@
+/******************************************************************************
+ * Fixed pool of threads that filter a BeliefState together.
+ *
+ * A belief is split into contiguous runs of words, one per thread, and the
+ * calling thread filters the first run while the workers filter the rest.
+ * Runs don't overlap and each thread counts its own survivors into its own
+ * slot, so merging is adding up the slots, with no lock around the words.
+ * Beliefs under SERIAL_WORDS are filtered on the calling thread alone, as
+ * waking the workers costs more than it saves.
+ *
+ * Threads are plain Threads waiting on a lock, as in ParticleFilter, so the
+ * pool runs under leJOS, though the brick has one core to give it.
+ */
+public class FilterPool {
+	/** Fewest words in a belief to split between threads */
+	public static final int SERIAL_WORDS = 8192;
+
+	private final Worker[] workers;		// Threads filtering the other runs, empty for one thread
+	private final int[] counts;			// [thread] survivors in its run of the current job
+	private final Object jobs;			// Lock the workers wait on
+	private int generation;				// Incremented for each job
+	private int pending;				// Workers still filtering the current job
+	private boolean running;			// Cleared to stop the workers
+
+	// The current job
+	private BeliefState state;
+	private int x, y, tiles;			// Free tiles ahead, -1 for blocked/free readings
+	private boolean blocked;
+	private Direction dir;
+
+	/****
+	 * Start a pool
+	 *
+	 * @param threads Threads to filter with, including the calling thread, at least 1
+	 */
+	public FilterPool(int threads) {
+		if (threads < 1) throw new RuntimeException("Need a thread");
+		this.counts = new int[threads];
+		this.jobs = new Object();
+		this.running = true;
+		this.workers = new Worker[threads - 1];
+		for (int i = 0; i < workers.length; i++){
+			workers[i] = new Worker(i + 1);
+			workers[i].setDaemon(true);
+			workers[i].start();}
+	}
+
+	/****
+	 * Get the number of threads filtering, including the calling thread
+	 * @return Number of threads
+	 */
+	public int getThreads() {
+		return counts.length;}
+
+	/****
+	 * Remove every starting state that is inconsistent with a ranged
+	 * observation, as BeliefState.observe() does
+	 *
+	 * @param state Belief to filter
+	 * @param x X coordinate relative to where we started
+	 * @param y Y coordinate relative to where we started
+	 * @param dir Direction relative to where we started
+	 * @param tiles Number of free tiles observed ahead
+	 * @return The number of starting states remaining
+	 */
+	public int observe(BeliefState state, int x, int y, Direction dir, int tiles) {
+		if (workers.length == 0 || state.words() < SERIAL_WORDS)
+			return state.observe(x, y, dir, tiles);
+		return run(state, x, y, dir, Math.max(tiles, 0), false);}
+
+	/****
+	 * Remove every starting state that is inconsistent with a blocked/free
+	 * observation
+	 *
+	 * @param state Belief to filter
+	 * @param x X coordinate relative to where we started
+	 * @param y Y coordinate relative to where we started
+	 * @param dir Direction relative to where we started
+	 * @param blocked Whether the tile ahead was observed to be blocked
+	 * @return The number of starting states remaining
+	 */
+	public int observe(BeliefState state, int x, int y, Direction dir, boolean blocked) {
+		if (workers.length == 0 || state.words() < SERIAL_WORDS)
+			return state.observe(x, y, dir, blocked);
+		return run(state, x, y, dir, -1, blocked);}
+
+	/** Split a job between the threads and add up what survives. Only one job runs at a time. */
+	private synchronized int run(BeliefState state, int x, int y, Direction dir, int tiles, boolean blocked) {
+		synchronized (jobs){
+			this.state = state;
+			this.x = x;
+			this.y = y;
+			this.dir = dir;
+			this.tiles = tiles;
+			this.blocked = blocked;
+			pending = workers.length;
+			generation++;
+			jobs.notifyAll();}
+		counts[0] = filter(0);
+		boolean interrupted = false;
+		synchronized (jobs){
+			while (pending > 0){
+				try {
+					jobs.wait();
+				} catch (InterruptedException e) {
+					interrupted = true;}
+			}
+			this.state = null;}
+		if (interrupted) Thread.currentThread().interrupt();
+
+		int count = 0;
+		for (int i = 0; i < counts.length; i++)
+			count += counts[i];
+		return count;
+	}
+
+	/** Filter one thread's run of the current job */
+	private int filter(int k) {
+		int n = counts.length, words = state.words();
+		int from = (int) ((long) words * k / n), to = (int) ((long) words * (k + 1) / n);
+		return tiles < 0 ? state.observe(x, y, dir, blocked, from, to) : state.observe(x, y, dir, tiles, from, to);}
+
+	/****
+	 * Stop the workers
+	 */
+	public void shutdown() {
+		synchronized (jobs){
+			running = false;
+			jobs.notifyAll();}
+	}
+
+	/** Thread filtering one run of words for each job */
+	private class Worker extends Thread {
+		final int k;				// Which run it filters
+
+		Worker(int k) {
+			this.k = k;}
+
+		public void run() {
+			int done = 0;
+			while (true){
+				synchronized (jobs){
+					while (generation == done && running){
+						try {
+							jobs.wait();
+						} catch (InterruptedException e) {
+							return;}
+					}
+					if (!running) return;
+					done = generation;}
+
+				counts[k] = filter(k);
+				synchronized (jobs){
+					if (--pending == 0) jobs.notifyAll();}
+			}
+		}
+	}
+}
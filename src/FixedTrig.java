@@ -0,0 +1,56 @@
+/******************************************************************************
+ * Sine and cosine in fixed point, from a lookup table, for the brick's
+ * ARM, which has no floating point unit.
+ *
+ * Angles are binary: a full turn is 2^32, so an int wraps around exactly
+ * where the angle does and never needs reducing. Results are scaled by
+ * ONE (2^30). Linear interpolation between 4096 entries keeps the error
+ * under 1e-6.
+ */
+public final class FixedTrig {
+	/** Fixed point 1 */
+	public static final int ONE = 1 << 30;
+	/** A quarter turn as a binary angle */
+	public static final int QUARTER = 1 << 30;
+	/** Radians per unit of binary angle */
+	public static final double RADIANS = 2 * Math.PI / 4294967296.0;
+
+	private static final int BITS = 12;					// log2 of the table size
+	private static final int SHIFT = 32 - BITS;			// Bits of angle below the table index
+	private static final int[] SIN = new int[(1 << BITS) + 1];	// One extra entry so i + 1 is always in range
+
+	static {
+		for (int i = 0; i < SIN.length; i++)
+			SIN[i] = (int) Math.round(Math.sin(2 * Math.PI * i / (1 << BITS)) * ONE);
+	}
+
+	private FixedTrig(){}
+
+	/****
+	 * Get the sine of a binary angle
+	 * @param angle Angle, 2^32 to the turn
+	 * @return Sine, scaled by ONE
+	 */
+	public static int sin(int angle) {
+		int i = angle >>> SHIFT;
+		int frac = (angle >>> (SHIFT - 16)) & 0xFFFF;		// Top 16 bits of what is left
+		int a = SIN[i];
+		return a + (int) (((long) (SIN[i + 1] - a) * frac) >> 16);
+	}
+
+	/****
+	 * Get the cosine of a binary angle
+	 * @param angle Angle, 2^32 to the turn
+	 * @return Cosine, scaled by ONE
+	 */
+	public static int cos(int angle) {
+		return sin(angle + QUARTER);}
+
+	/****
+	 * Convert radians to a binary angle, wrapping to one turn
+	 * @param theta Angle in radians
+	 * @return Angle, 2^32 to the turn
+	 */
+	public static int fromRadians(double theta) {
+		return (int) (long) Math.floor(theta / RADIANS + 0.5);}
+}
@@ -0,0 +1,183 @@
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.FileInputStream;
+import java.io.IOException;
+
+/******************************************************************************
+ * A map of free and blocked tiles, of any size, that can be stored compactly
+ * and loaded without looking at every tile.
+ *
+ * Tile (x, y) is cell x * height + y. Blocks are kept one bit per cell, and
+ * alongside them a table of which neighbours of each cell are free, four
+ * bits per cell, with bit d set if the tile one step in the direction of
+ * value d is on the map and free. Off the map counts as blocked.
+ *
+ * On disk a map is:
+ *   int magic, short version, int width, int height,
+ *   (cells + 63) / 64 longs of block bits, cell i at bit i % 64 of long i / 64,
+ *   (cells + 1) / 2 bytes of neighbour bits, cell i in the low nibble of byte i / 2 if i is even
+ * Reading one is a handful of bulk reads, so loading does no per-cell work.
+ * GridMapFile memory maps these files on the desktop.
+ */
+public class GridMap {
+	/** "LMAP" */
+	public static final int MAGIC = 0x4C4D4150;
+	/** Version of the file format */
+	public static final short VERSION = 1;
+	/** The lab's map, top row first, '#' for a block */
+	public static final String[] LAB = {
+		"#...",
+		"..##",
+		"....",
+		".#.." };
+
+	private final int width, height;	// Dimensions in tiles
+	final long[] blocks;				// Bit per cell, set if it is blocked
+	final byte[] open;					// Nibble per cell, bit d set if the neighbour in direction d is free
+
+	/****
+	 * Create a map, working out its tables
+	 * @param map The map, used map[x][y]. True if there is a block there
+	 */
+	public GridMap(boolean[][] map) {
+		this(map.length, map[0].length);
+		for (int x = 0; x < width; x++)
+			for (int y = 0; y < height; y++)
+				if (map[x][y]){
+					int i = x * height + y;
+					blocks[i >>> 6] |= 1L << i;}
+		for (int x = 0; x < width; x++)
+			for (int y = 0; y < height; y++){
+				int bits = 0;
+				for (int d = 0; d < 4; d++)
+					if (!isBlocked(x + BeliefMap.ROT_XY[d], y + BeliefMap.ROT_YY[d])) bits |= 1 << d;
+				int i = x * height + y;
+				open[i >> 1] |= bits << ((i & 1) << 2);}
+	}
+
+	/** Create an empty map to fill in */
+	GridMap(int width, int height) {
+		if (width <= 0 || height <= 0) throw new RuntimeException("Map must have tiles");
+		this.width = width;
+		this.height = height;
+		long cells = (long) width * height;
+		if (cells > Integer.MAX_VALUE) throw new RuntimeException("Map too big");
+		this.blocks = new long[(int) ((cells + 63) >>> 6)];
+		this.open = new byte[(int) ((cells + 1) >>> 1)];}
+
+	/****
+	 * Create a map from rows of text
+	 * @param rows Rows of the map from the top, all as long, '#' for a block and anything else for free
+	 * @return The map
+	 */
+	public static GridMap parse(String[] rows) {
+		boolean[][] map = new boolean[rows[0].length()][rows.length];
+		for (int r = 0; r < rows.length; r++){
+			if (rows[r].length() != map.length) throw new RuntimeException("Rows differ in length");
+			for (int x = 0; x < map.length; x++)
+				map[x][rows.length - 1 - r] = rows[r].charAt(x) == '#';}
+		return new GridMap(map);
+	}
+
+	/****
+	 * Get the width of the map
+	 * @return Number of tiles across
+	 */
+	public int getWidth() {
+		return width;}
+
+	/****
+	 * Get the height of the map
+	 * @return Number of tiles up
+	 */
+	public int getHeight() {
+		return height;}
+
+	/****
+	 * Check whether a tile is blocked
+	 * @param x X coordinate of the tile
+	 * @param y Y coordinate of the tile
+	 * @return True iff the tile is blocked or off the map
+	 */
+	public boolean isBlocked(int x, int y) {
+		if (x < 0 || x >= width || y < 0 || y >= height) return true;
+		int i = x * height + y;
+		return (blocks[i >>> 6] & (1L << i)) != 0;}
+
+	/****
+	 * Check whether the tile next to a tile is free
+	 * @param x X coordinate of the tile, on the map
+	 * @param y Y coordinate of the tile, on the map
+	 * @param dir Value of the direction to look in
+	 * @return True iff the tile one step that way is on the map and free
+	 */
+	public boolean isOpen(int x, int y, int dir) {
+		int i = x * height + y;
+		return (open[i >> 1] >> (((i & 1) << 2) + dir) & 1) != 0;}
+
+	/****
+	 * Get the map as an array, as the simulator and offline solvers take it
+	 * @return The map, used map[x][y]. True if there is a block there
+	 */
+	public boolean[][] toArray() {
+		boolean[][] map = new boolean[width][height];
+		for (int x = 0; x < width; x++)
+			for (int y = 0; y < height; y++)
+				map[x][y] = isBlocked(x, y);
+		return map;}
+
+	/****
+	 * Read a map written by write()
+	 *
+	 * @param in Stream to read from
+	 * @return The map
+	 * @throws IOException If the stream does not hold a map
+	 */
+	public static GridMap read(DataInputStream in) throws IOException {
+		if (in.readInt() != MAGIC || in.readShort() != VERSION)
+			throw new IOException("Not a map");
+		int width = in.readInt(), height = in.readInt();
+		if (width <= 0 || height <= 0 || (long) width * height > Integer.MAX_VALUE)
+			throw new IOException("Bad map size " + width + "x" + height);
+		GridMap m = new GridMap(width, height);
+		// One read for the block bits rather than a read per long
+		byte[] raw = new byte[8 * m.blocks.length];
+		in.readFully(raw);
+		for (int i = 0, b = 0; i < m.blocks.length; i++)
+			for (int k = 0; k < 8; k++)
+				m.blocks[i] = (m.blocks[i] << 8) | (raw[b++] & 0xFF);
+		in.readFully(m.open);
+		return m;
+	}
+
+	/****
+	 * Read a map from a file
+	 *
+	 * @param path File written by write()
+	 * @return The map
+	 * @throws IOException If the file can't be read or does not hold a map
+	 */
+	public static GridMap load(String path) throws IOException {
+		DataInputStream in = new DataInputStream(new FileInputStream(path));
+		try {
+			return read(in);
+		} finally {
+			in.close();}
+	}
+
+	/****
+	 * Write the map with its tables
+	 *
+	 * @param out Stream to write to
+	 * @throws IOException If writing fails
+	 */
+	public void write(DataOutputStream out) throws IOException {
+		out.writeInt(MAGIC);
+		out.writeShort(VERSION);
+		out.writeInt(width);
+		out.writeInt(height);
+		for (int i = 0; i < blocks.length; i++)
+			out.writeLong(blocks[i]);
+		out.write(open);
+	}
+}
@@ -0,0 +1,62 @@
+import java.io.DataOutputStream;
+import java.io.BufferedOutputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+/******************************************************************************
+ * Desktop side GridMap files: memory mapped loading, and writing.
+ *
+ * Mapping a file lets the block bits and neighbour table be copied straight
+ * out of the page cache in two bulk gets, rather than through a stream.
+ * leJOS has no java.nio, so this runs off the brick only; the brick uses
+ * GridMap.load().
+ */
+public class GridMapFile {
+	private GridMapFile(){}
+
+	/****
+	 * Read a map from a file by memory mapping it
+	 *
+	 * @param path File written by GridMap.write()
+	 * @return The map
+	 * @throws IOException If the file can't be read or does not hold a map
+	 */
+	public static GridMap map(String path) throws IOException {
+		RandomAccessFile file = new RandomAccessFile(path, "r");
+		try {
+			FileChannel channel = file.getChannel();
+			ByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+			if (buffer.remaining() < 14 || buffer.getInt() != GridMap.MAGIC || buffer.getShort() != GridMap.VERSION)
+				throw new IOException("Not a map");
+			int width = buffer.getInt(), height = buffer.getInt();
+			if (width <= 0 || height <= 0 || (long) width * height > Integer.MAX_VALUE)
+				throw new IOException("Bad map size " + width + "x" + height);
+			GridMap m = new GridMap(width, height);
+			if (buffer.remaining() != 8L * m.blocks.length + m.open.length)
+				throw new IOException("Map file is the wrong length");
+			buffer.asLongBuffer().get(m.blocks);
+			buffer.position(buffer.position() + 8 * m.blocks.length);
+			buffer.get(m.open);
+			return m;
+		} finally {
+			file.close();}
+	}
+
+	/****
+	 * Write a map to a file
+	 *
+	 * @param m The map
+	 * @param path File to write
+	 * @throws IOException If writing fails
+	 */
+	public static void save(GridMap m, String path) throws IOException {
+		DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(path)));
+		try {
+			m.write(out);
+		} finally {
+			out.close();}
+	}
+}
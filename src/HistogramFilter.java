@@ -0,0 +1,350 @@
+import java.util.Random;
+
+/******************************************************************************
+ * Grid (histogram) Markov localization over the current state (x, y, Direction).
+ *
+ * Where BeliefState rules starting states out for good, this keeps a
+ * probability for every free state, so a bad reading only makes the true state
+ * less likely for a while instead of removing it. Probabilities live in a flat
+ * float[] indexed by free cell * 4 + direction value, and predict() and
+ * update() are single passes over it that allocate nothing. The array is only
+ * normalized up to a separate scale, which is folded into the next update.
+ *
+ * Readings are numbers of free tiles ahead, as in BeliefMap. A reading is
+ * right with probability sensorHit, and otherwise any other number of tiles is
+ * equally likely. A forward move reaches the next tile with probability
+ * moveHit and otherwise leaves the robot where it was; turns are the same with
+ * turnHit. Moving forward into a block leaves the robot where it was.
+ */
+public class HistogramFilter {
+	/** Default probability of a reading giving the right number of free tiles */
+	public static final float SENSOR_HIT = 0.9f;
+	/** Default probability of a forward move reaching the next tile */
+	public static final float MOVE_HIT = 0.98f;
+	/** Default probability of a turn happening */
+	public static final float TURN_HIT = 0.99f;
+	/** Number of most likely states chooseAction() tries to tell apart */
+	static final int TOP = 8;
+	/** States less likely than this times the most likely state are not told apart */
+	static final float UNLIKELY = 0.01f;
+	/** Width of the square of tiles around the robot searched by chooseAction() */
+	private static final int SEARCH_SIDE = 2 * Localizer.SEARCH_DEPTH + 1;
+
+	private final int width, height;	// Map dimensions in tiles
+	private final int maxTiles;			// Most free tiles ahead that readings tell apart
+	private final int states;			// Number of free states, 4 per free cell
+	private final int[] cells;			// x * height + y of each free cell
+	private final int[] index;			// Free cell number of each x * height + y, -1 if blocked
+	private final int[] behind;			// State that reaches each state moving forward, states if none
+	private final byte[] expected;		// Free tiles ahead of each state, at most maxTiles
+	private final float sensorHit, sensorMiss, moveHit, turnHit;
+	private final int[] top;			// Most likely states, found by chooseAction()
+	private final float[] topProb;		// Probabilities of the most likely states
+	private final float[] bucket;		// Scratch, one value per reading
+	private final int[] searchQueue;		// Poses to visit when choosing a move
+	private final byte[] searchMoves;		// Moves needed to reach each pose, -1 if not reached
+	private final byte[] searchFirst;		// First move on the way to each pose
+	private float[] prob;				// Probability of each state, times 1 / scale
+	private float scale;				// Normalizes prob, kept apart to save a pass per update
+	private float[] next;				// Scratch for predict()
+
+	/****
+	 * Create a filter with the default noise models
+	 *
+	 * @param map The map
+	 * @param maxTiles Most free tiles ahead that readings tell apart, at least 1
+	 */
+	public HistogramFilter(GridMap map, int maxTiles) {
+		this(map, maxTiles, SENSOR_HIT, MOVE_HIT, TURN_HIT);}
+
+	/****
+	 * Create a filter where every free state is equally likely
+	 *
+	 * @param map The map
+	 * @param maxTiles Most free tiles ahead that readings tell apart, at least 1
+	 * @param sensorHit Probability of a reading giving the right number of tiles
+	 * @param moveHit Probability of a forward move reaching the next tile
+	 * @param turnHit Probability of a turn happening
+	 */
+	public HistogramFilter(GridMap map, int maxTiles, float sensorHit, float moveHit, float turnHit) {
+		this.width = map.getWidth();
+		this.height = map.getHeight();
+		this.maxTiles = maxTiles;
+		this.sensorHit = sensorHit;
+		this.sensorMiss = (1 - sensorHit) / maxTiles;
+		this.moveHit = moveHit;
+		this.turnHit = turnHit;
+		this.bucket = new float[maxTiles + 1];
+		this.top = new int[TOP];
+		this.topProb = new float[TOP];
+		int poses = SEARCH_SIDE * SEARCH_SIDE * 4;
+		this.searchQueue = new int[poses];
+		this.searchMoves = new byte[poses];
+		this.searchFirst = new byte[poses];
+
+		// Number the free cells
+		this.index = new int[width * height];
+		int free = 0;
+		for (int c = 0; c < index.length; c++)
+			index[c] = map.isBlocked(c / height, c % height) ? -1 : free++;
+		this.states = 4 * free;
+		this.cells = new int[free];
+		this.behind = new int[states];
+		this.expected = new byte[states];
+		this.prob = new float[states + 1];	// The extra state is never possible, see behind
+		this.next = new float[states + 1];
+
+		for (int c = 0; c < index.length; c++){
+			if (index[c] < 0) continue;
+			int x = c / height, y = c % height;
+			cells[index[c]] = c;
+			for (int d = 0; d < 4; d++){
+				int s = index[c] * 4 + d;
+				int tiles = 0, nx = x + BeliefMap.ROT_XY[d], ny = y + BeliefMap.ROT_YY[d];
+				while (tiles < maxTiles && !map.isBlocked(nx, ny)){
+					tiles++;
+					nx += BeliefMap.ROT_XY[d];
+					ny += BeliefMap.ROT_YY[d];}
+				expected[s] = (byte) tiles;
+				int bx = x - BeliefMap.ROT_XY[d], by = y - BeliefMap.ROT_YY[d];
+				behind[s] = map.isBlocked(bx, by) ? states : index[bx * height + by] * 4 + d;}
+		}
+		reset();
+	}
+
+	/****
+	 * Make every free state equally likely again
+	 */
+	public void reset() {
+		for (int s = 0; s < states; s++)
+			prob[s] = 1;
+		scale = 1f / states;
+	}
+
+	/****
+	 * Move the probabilities through a move of the robot
+	 *
+	 * @param move Localizer.TURN_LEFT, TURN_RIGHT or FORWARD
+	 */
+	public void predict(int move) {
+		predict(move, next);
+		float[] t = prob;
+		prob = next;
+		next = t;}
+
+	/** Write the probabilities after a move into out. Each state is reached
+	 *  from itself and at most one other, so this gathers in one pass. */
+	private void predict(int move, float[] out) {
+		if (move == Localizer.FORWARD){
+			// Chance of staying by the tiles ahead, as a table rather than a branch
+			for (int k = 0; k <= maxTiles; k++)
+				bucket[k] = k == 0 ? 1 : 1 - moveHit;
+			for (int s = 0; s < states; s++)
+				out[s] = prob[s] * bucket[expected[s]] + moveHit * prob[behind[s]];
+		} else {
+			float miss = 1 - turnHit;
+			int from = move == Localizer.TURN_LEFT ? 3 : 1;	// Direction turned from, relative
+			for (int s = 0; s < states; s++)
+				out[s] = miss * prob[s] + turnHit * prob[(s & ~3) | ((s + from) & 3)];
+		}
+	}
+
+	/****
+	 * Weigh the probabilities by a reading and normalize them
+	 *
+	 * @param tiles Number of free tiles observed ahead, maxTiles or more
+	 * meaning at least that many
+	 * @return The probability of the most likely state
+	 */
+	public float update(int tiles) {
+		if (tiles > maxTiles) tiles = maxTiles;
+		// Likelihood of the reading by the tiles ahead of a state, as a table rather than a branch
+		for (int k = 0; k <= maxTiles; k++)
+			bucket[k] = (k == tiles ? sensorHit : sensorMiss) * scale;
+		float sum = 0, max = 0;
+		for (int s = 0; s < states; s++){
+			float p = prob[s] * bucket[expected[s]];
+			prob[s] = p;
+			sum += p;
+			if (p > max) max = p;}
+
+		if (!(sum > 0)){		// Underflow, or a sensor model that rules everything out
+			reset();
+			return scale;}
+
+		scale = 1 / sum;
+		return max * scale;
+	}
+
+	/****
+	 * Pick the move towards the nearby pose whose reading best tells apart the
+	 * TOP most likely states, per move, as Localizer's INFORMATION_GAIN does
+	 * for possible states. Searching a handful of states keeps the cost of a
+	 * move independent of the size of the map. If no pose within
+	 * Localizer.SEARCH_DEPTH moves tells them apart, the move is random.
+	 *
+	 * @param blocked Whether the last reading saw a block ahead. The robot
+	 * also won't move forward if the tile ahead is probably blocked.
+	 * @param r Random source for when nothing nearby tells states apart
+	 * @return Localizer.TURN_LEFT, TURN_RIGHT or FORWARD
+	 */
+	public int chooseAction(boolean blocked, Random r) {
+		if (states == 0) throw new RuntimeException("No possible states");
+		// Find the most likely states, most likely first, and how likely the way ahead is free
+		for (int k = 0; k <= maxTiles; k++)
+			bucket[k] = k == 0 ? 0 : 1;
+		int n = 0;
+		float free = 0;
+		for (int s = 0; s < states; s++){
+			float p = prob[s];
+			free += p * bucket[expected[s]];
+			if (n == TOP && p <= topProb[TOP - 1]) continue;
+			int i = n < TOP ? n++ : TOP - 1;
+			for (; i > 0 && topProb[i - 1] < p; i--){
+				top[i] = top[i - 1];
+				topProb[i] = topProb[i - 1];}
+			top[i] = s;
+			topProb[i] = p;}
+		while (topProb[n - 1] < topProb[0] * UNLIKELY) n--;	// Not worth a move
+		float mass = 0;
+		for (int i = 0; i < n; i++)
+			mass += topProb[i];
+
+		// Only drive on when the map agrees with the reading that the way is free,
+		// since driving into a block on a bad reading loses track of the robot
+		blocked |= free * scale < 0.5f;
+		
+		for (int i = 0; i < searchMoves.length; i++)
+			searchMoves[i] = -1;
+		
+		// Pose index is ((dx * SEARCH_SIDE) + dy) * 4 + direction, relative to the robot
+		int depth = Localizer.SEARCH_DEPTH;
+		int start = ((depth * SEARCH_SIDE) + depth) * 4;
+		int head = 0, tail = 0;
+		searchQueue[tail++] = start;
+		searchMoves[start] = 0;
+		
+		int best = -1, bestMoves = 1;
+		float bestGain = 0;
+		while (head < tail){
+			int p = searchQueue[head++];
+			int d = p & 3, dx = (p >> 2) / SEARCH_SIDE, dy = (p >> 2) % SEARCH_SIDE;
+			for (int a = Localizer.TURN_LEFT; a <= Localizer.FORWARD; a++){
+				int nd = d, nx = dx, ny = dy;
+				if (a == Localizer.TURN_LEFT) nd = (d + 1) & 3;
+				else if (a == Localizer.TURN_RIGHT) nd = (d + 3) & 3;
+				else if (p == start ? blocked : reading(top[0], dx - depth, dy - depth, d) == 0) continue;
+				else {
+					nx += BeliefMap.ROT_XY[d];
+					ny += BeliefMap.ROT_YY[d];
+					if (nx < 0 || nx >= SEARCH_SIDE || ny < 0 || ny >= SEARCH_SIDE) continue;}
+				
+				int q = ((nx * SEARCH_SIDE) + ny) * 4 + nd;
+				if (searchMoves[q] >= 0) continue;
+				int moves = searchMoves[p] + 1;
+				searchMoves[q] = (byte) moves;
+				searchFirst[q] = p == start ? (byte) a : searchFirst[p];
+				
+				// Split the likely states by the reading each would give here
+				for (int k = 0; k <= maxTiles; k++)
+					bucket[k] = 0;
+				boolean split = false;
+				int first = reading(top[0], nx - depth, ny - depth, nd);
+				for (int i = 0; i < n; i++){
+					int k = reading(top[i], nx - depth, ny - depth, nd);
+					if (k != first) split = true;
+					bucket[k] += topProb[i];}
+				
+				if (split){
+					float squares = 0;
+					for (int k = 0; k <= maxTiles; k++)
+						squares += bucket[k] * bucket[k];
+					float gain = mass - squares / mass;
+					if (gain * bestMoves > bestGain * moves){
+						bestGain = gain;
+						bestMoves = moves;
+						best = searchFirst[q];}
+				} else if (moves < depth)
+					searchQueue[tail++] = q;		// The reading is known here - keep looking
+			}
+		}
+		
+		if (best >= 0) return best;
+		return blocked || r.nextBoolean() ? Localizer.TURN_LEFT : Localizer.FORWARD;
+	}
+
+	/****
+	 * Get the reading a state would give after moving to a pose relative to it
+	 *
+	 * @param s Index of the state
+	 * @param rx X offset of the pose, relative to the state facing up
+	 * @param ry Y offset of the pose, relative to the state facing up
+	 * @param rd Direction of the pose relative to the state
+	 * @return Free tiles ahead of the pose, 0 if the pose is not on a free cell
+	 */
+	private int reading(int s, int rx, int ry, int rd) {
+		int d = s & 3, c = cells[s >> 2];
+		int x = c / height + BeliefMap.ROT_XX[d] * rx + BeliefMap.ROT_XY[d] * ry;
+		int y = c % height + BeliefMap.ROT_YX[d] * rx + BeliefMap.ROT_YY[d] * ry;
+		if (x < 0 || x >= width || y < 0 || y >= height || index[x * height + y] < 0) return 0;
+		return expected[index[x * height + y] * 4 + ((d + rd) & 3)];
+	}
+
+	/****
+	 * Get the most likely state
+	 * @return Index of the most likely state
+	 */
+	public int mostLikely() {
+		if (states == 0) throw new RuntimeException("No possible states");
+		int best = 0;
+		for (int s = 1; s < states; s++)
+			if (prob[s] > prob[best]) best = s;
+		return best;
+	}
+
+	/****
+	 * Get the probability of a state
+	 * @param s Index of the state
+	 * @return Probability of the state
+	 */
+	public float probability(int s) {
+		return prob[s] * scale;}
+
+	/****
+	 * Get the X coordinate of a state
+	 * @param s Index of the state
+	 * @return X coordinate of the state's cell
+	 */
+	public int stateX(int s) {
+		return cells[s >> 2] / height;}
+
+	/****
+	 * Get the Y coordinate of a state
+	 * @param s Index of the state
+	 * @return Y coordinate of the state's cell
+	 */
+	public int stateY(int s) {
+		return cells[s >> 2] % height;}
+
+	/****
+	 * Get the direction of a state
+	 * @param s Index of the state
+	 * @return Direction of the state
+	 */
+	public Direction stateDir(int s) {
+		return BeliefMap.BY_VALUE[s & 3];}
+
+	/****
+	 * Get the number of states
+	 * @return Number of free states, 4 per free cell
+	 */
+	public int size() {
+		return states;}
+
+	/****
+	 * Get the most free tiles ahead that readings tell apart
+	 * @return Readings of this many tiles or more are the same
+	 */
+	public int getMaxTiles() {
+		return maxTiles;}
+}
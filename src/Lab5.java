@@ -1,3 +1,7 @@
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
 import lejos.nxt.Button;
 import lejos.nxt.Motor;
 import lejos.nxt.NXTRegulatedMotor;
@@ -26,38 +30,95 @@ public class Lab5 {
 		STOCHASTIC = Button.ID_LEFT,
 		DETERMINISTIC = Button.ID_RIGHT,
 		DEMO = Button.ID_ENTER;
+	/** Map file written by MapWriter, used instead of the lab's map if it is on the brick */
+	public static final String MAP_FILE = "lab.map";
+	/** File each run is recorded to, replaced by the next run. Print it with RecordingPrinter */
+	public static final String RECORD_FILE = "run.rec";
+	/** Odometer updates per record while the wheels move, 50 records a second at the default period */
+	public static final int RECORD_EVERY = 4;
 	
 	public static void main(String[] args) {
 		// setup the odometer, ultrasonic sensor, and light sensor
-		Odometer odo = new Odometer();
-		Driver driver = new Driver(odo);
-		UltrasonicSensor us = new UltrasonicSensor(SensorPort.S2);
+		DriveMotor left = new NXTDriveMotor(LEFT_MOTOR), right = new NXTDriveMotor(RIGHT_MOTOR);
+		Odometer odo = new Odometer(left, right, SystemClock.INSTANCE, Odometer.PERIOD, Odometer.Kernel.FIXED_POINT);
+		Driver driver = new Driver(odo, left, right);
+		RangeSensor us = new NXTRangeSensor(new UltrasonicSensor(SensorPort.S2));
 		Localizer l;
+		if (new File(MAP_FILE).exists()){
+			try {
+				Localizer.setMap(GridMap.load(MAP_FILE));
+			} catch (IOException e) {
+				throw new RuntimeException("Can't load " + MAP_FILE + ": " + e.getMessage());}
+		}
+		
+		// Record the run to flash, so a run that goes wrong can be looked at afterwards
+		Recorder recorder = null;
+		try {
+			recorder = new Recorder(new FileOutputStream(new File(RECORD_FILE)), SystemClock.INSTANCE);
+			recorder.setDaemon(true);
+			recorder.start();
+			odo.setRecorder(recorder, RECORD_EVERY);
+			driver.setRecorder(recorder);
+		} catch (IOException e) {
+			recorder = null;}		// Run without recording
 		
 		Display.printMainMenu();
 		int option = Button.waitForAnyPress(), observationsMade;
 		odo.start();
+		// Drive every move through a queue, ramping the wheels so they don't slip
+		MotionQueue queue = new MotionQueue(left, right, odo, SystemClock.INSTANCE);
+		queue.setProfile(MotionQueue.CRUISE_SPEED, MotionQueue.SPIN_SPEED, MotionQueue.ACCELERATION);
+		queue.setDaemon(true);
+		queue.start();
+		driver.setMotionQueue(queue);
+		// Sample the sensor continuously while localizing
+		RangeSampler sampler = new RangeSampler(us, SystemClock.INSTANCE);
+		sampler.setDaemon(true);
+		sampler.start();
 		
-		switch (option){
-			case STOCHASTIC:
-				l = new Localizer(us, odo, driver, Localizer.LocalizationType.STOCHASTIC);
-				observationsMade = l.localize();
-				Display.printDemoInfo(odo.getX(), odo.getY(), odo.getTheta(), observationsMade, l.getStartingPoint());
-				break;
-			case DETERMINISTIC:
-				l = new Localizer(us, odo, driver, Localizer.LocalizationType.DETERMINISTIC);
-				observationsMade = l.localize();
-				Display.printDemoInfo(odo.getX(), odo.getY(), odo.getTheta(), observationsMade, l.getStartingPoint());
-				break;
-			case DEMO:
-				l = new Localizer(us, odo, driver, Localizer.LocalizationType.DETERMINISTIC);
-				observationsMade = l.localize();
-				Display.printDemoInfo(odo.getX(), odo.getY(), odo.getTheta(), observationsMade, l.getStartingPoint());
-				driver.demo();
-				Display.printDemoInfo(odo.getX(), odo.getY(), odo.getTheta(), observationsMade, l.getStartingPoint());
-				break;
-			default:
-				System.exit(0);}
+		try {
+			switch (option){
+				case STOCHASTIC:
+					l = new Localizer(us, odo, driver, Localizer.LocalizationType.STOCHASTIC, SystemClock.INSTANCE);
+					l.setSampler(sampler, Localizer.WINDOW);
+					l.setRecorder(recorder);
+					observationsMade = l.localize();
+					Display.printDemoInfo(odo.getPose(), observationsMade, l.getStartingPoint());
+					break;
+				case DETERMINISTIC:
+					l = new Localizer(us, odo, driver, Localizer.LocalizationType.DETERMINISTIC, SystemClock.INSTANCE);
+					l.setSampler(sampler, Localizer.WINDOW);
+					l.setRecorder(recorder);
+					observationsMade = l.localize();
+					Display.printDemoInfo(odo.getPose(), observationsMade, l.getStartingPoint());
+					break;
+				case DEMO:
+					l = new Localizer(us, odo, driver, Localizer.LocalizationType.DETERMINISTIC, SystemClock.INSTANCE);
+					l.setSampler(sampler, Localizer.WINDOW);
+					l.setRecorder(recorder);
+					observationsMade = l.localize();
+					Display.printDemoInfo(odo.getPose(), observationsMade, l.getStartingPoint());
+					// Correct the odometer against the map while driving. The filter
+					// pings for itself, which takes the sensor out of continuous mode
+					sampler.halt();
+					ParticleFilter filter = new ParticleFilter(Localizer.getGrid(), odo, us, SystemClock.INSTANCE);
+					filter.setDaemon(true);
+					filter.start();
+					driver.setPoseSource(filter);
+					driver.demo();
+					Display.printDemoInfo(odo.getPose(), observationsMade, l.getStartingPoint());
+					break;
+				default:
+					System.exit(0);}
+		} finally {
+			// Write out the run even if localizing failed, since that is the run worth looking at
+			if (recorder != null){
+				recorder.halt();
+				try {
+					recorder.join();
+				} catch (InterruptedException e) {}
+			}
+		}
 
 		while (Button.waitForAnyPress() != Button.ID_ESCAPE);
 		System.exit(0);
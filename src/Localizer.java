@@ -1,7 +1,4 @@
-import java.util.ArrayList;
-import java.util.Iterator;
 import java.util.Random;
-import lejos.nxt.UltrasonicSensor;
 
 public class Localizer {
 	/** Localization type to use */
@@ -11,15 +8,79 @@ public class Localizer {
 		STOCHASTIC, 
 		/** Deterministic localization - If it sees a block, it will turn -90 deg. 
 		 *  If it does not, it will move forward 1 tile */
-		DETERMINISTIC};
+		DETERMINISTIC,
+		/** Information gain localization - Turn left, turn right or move forward 1 tile
+		 *  towards the nearby pose whose observation is expected to rule out the most
+		 *  possible states per move */
+		INFORMATION_GAIN,
+		/** Policy localization - Follow a worst case optimal policy solved offline by
+		 *  PolicySolver, falling back to INFORMATION_GAIN where the policy has no move */
+		POLICY,
+		/** Markov localization - Keep a probability for every state rather than ruling
+		 *  states out, so bad readings don't end localization. Stops once one state
+		 *  is likely enough */
+		MARKOV};
 	
-	private static boolean[][] map;			// map is used map[x][y]. True if there is a block there
-	private UltrasonicSensor us;			// Ultrasonic Sensor for block recognition
+	/** Default furthest ultrasonic reading used, in cm. Beyond one tile it
+	 *  can't tell one free tile ahead from several */
+	public static final int SENSOR_CAP = 50;
+	
+	/** Default probability MARKOV localization needs in one state to stop */
+	public static final float CONFIDENCE = 0.95f;
+	/** Most observations MARKOV localization makes before taking the most likely state */
+	static final int MARKOV_LIMIT = 100;
+	
+	/** Moves made by INFORMATION_GAIN, POLICY and MARKOV localization */
+	static final int TURN_LEFT = 0, TURN_RIGHT = 1, FORWARD = 2;
+	/** Furthest INFORMATION_GAIN looks, in moves, for a pose that tells states apart */
+	static final int SEARCH_DEPTH = 8;
+	/** Default number of sampled readings each observation takes the median of */
+	public static final int WINDOW = 3;
+	/** Largest heading change, in radians, between a sampled reading and the observation it is used for */
+	private static final double SAMPLE_HEADING = Math.toRadians(2);
+	/** Most sampling periods to wait for a full window before making do with fewer readings */
+	private static final int SAMPLE_WAIT = 10;
+	/** Width of the square of tiles around the robot searched by INFORMATION_GAIN */
+	private static final int SEARCH_SIDE = 2 * SEARCH_DEPTH + 1;
+	
+	private static GridMap grid;			// The map, with its neighbour table
+	private static BeliefMap beliefMap;		// Precomputed observation masks for grid
+	private static PathPlanner planner;		// Precomputed routes across grid, null until first asked for
+	private RangeSensor us;					// Ultrasonic Sensor for block recognition
 	private Odometer odo;					// Odometer to maintain position
 	private Driver driver;					// Driver to control movement
 	private LocalizationType locType;		// Localization type of this instance of Localizer
+	private Clock clock;					// Time source for waiting on pings
 	private Position startingPoint;			// Where we started - null until localization finished
-	private ArrayList<Position> possible;	// List of possible starting states
+	private PolicyTable policy;				// Moves for POLICY localization, null if none loaded
+	private ClassTable classes;				// Starting states no moves tell apart, null if none loaded
+	private int ambiguity;					// Starting states the last localization ended with
+	private int limit;						// Most observations before giving up, 0 for no limit
+	private int moves;						// Moves made by the last localization
+	private int maxRange;					// Furthest ultrasonic reading used, in cm
+	private int maxTiles;					// Most free tiles ahead that readings tell apart
+	private BeliefState possible;			// Set of possible starting states
+	private FilterPool pool;				// Threads to filter possible with, null to filter serially
+	private Recorder recorder;				// Where readings and possible states are recorded, or null
+	private HistogramFilter histogram;		// State probabilities for MARKOV, null until first used
+	private float sensorHit, moveHit, turnHit;	// Noise models for MARKOV
+	private float confidence;				// Probability MARKOV needs in one state to stop
+	private int[] searchQueue;				// Poses to visit when choosing a move
+	private byte[] searchMoves;				// Moves needed to reach each pose, -1 if not reached
+	private byte[] searchFirst;				// First move on the way to each pose
+	private boolean[] searchBlocked;		// Whether each pose reached is known to be blocked
+	private Pose readingPose;				// Odometer pose when the last reading was taken
+	private RangeSampler sampler;			// Continuous readings, null to ping for each observation
+	private int[] sampleDistance;			// Latest sampled readings, newest first
+	private long[] sampleTime;				// When each was taken
+	private int[] sampleWindow;				// Readings used for one observation
+	private long sensing;					// Time spent waiting on readings, in ns
+	private boolean pipelined;				// Whether to compute while the robot moves
+	private BeliefState[] outcomes;			// Possible states after each reading at the next pose
+	private int[] outcomeSizes;				// Number of states in each
+	private int[] outcomeActions;			// Move to make after each reading, -1 to decide later
+	private long computing, overlapped;		// Time spent filtering and choosing moves, in ns,
+											// while the robot stood still and while it moved
 
 	/*********
 	 * Create a new Localizer using a known map
@@ -28,26 +89,31 @@ public class Localizer {
 	 * @param odo Odometer to correct
 	 * @param driver Driver to control movement
 	 * @param locType Type of localization to use
+	 * @param clock Time source for waiting on pings
 	 */
-	public Localizer(UltrasonicSensor us, Odometer odo, Driver driver, LocalizationType locType){
+	public Localizer(RangeSensor us, Odometer odo, Driver driver, LocalizationType locType, Clock clock){
 		this.us = us;
+		this.clock = clock;
 		this.odo = odo;
 		this.driver = driver;
 		this.locType = locType;
 		this.startingPoint = null;
-		possible = new ArrayList<Position>();
+		this.maxRange = SENSOR_CAP;
+		this.maxTiles = beliefMap.getMaxTiles();
+		this.sensorHit = HistogramFilter.SENSOR_HIT;
+		this.moveHit = HistogramFilter.MOVE_HIT;
+		this.turnHit = HistogramFilter.TURN_HIT;
+		this.confidence = CONFIDENCE;
 		
-		// Initialize possible states based on map
-		for (int x = 0; x < 4; x++){
-			for(int y = 0; y < 4; y++){
-				if (!map[x][y]){
-					possible.add(new Position(x, y, Direction.UP, y == 3 || map[x][y+1]));
-					possible.add(new Position(x, y, Direction.DOWN, y == 0 || map[x][y-1]));
-					possible.add(new Position(x, y, Direction.RIGHT, x == 3 || map[x+1][y]));
-					possible.add(new Position(x, y, Direction.LEFT, x == 0 || map[x-1][y]));}
-			}
-		}
-
+		// Initialize possible states based on map - every free tile in every direction
+		this.possible = new BeliefState(beliefMap);
+		
+		// Search space for INFORMATION_GAIN, allocated once
+		int poses = SEARCH_SIDE * SEARCH_SIDE * 4;
+		this.searchQueue = new int[poses];
+		this.searchMoves = new byte[poses];
+		this.searchFirst = new byte[poses];
+		this.searchBlocked = new boolean[poses];
 	}
 
 	/********
@@ -56,8 +122,12 @@ public class Localizer {
 	 * @return Number of observations made
 	 */
 	public int localize() {
+		moves = 0;
+		if (locType == LocalizationType.MARKOV)
+			return localizeMarkov();
+		
 		// Only used for stochastic localization
-		Random r = new Random(System.nanoTime());	
+		Random r = new Random(clock.nanoTime());	
 		
 		// Current direction relative to where we started
 		Direction current = Direction.UP;	
@@ -65,86 +135,497 @@ public class Localizer {
 		// Current X and Y relative to where we started, # of observations
 		int x = 0, y = 0, observations = 0;	
 		
-		while (possible.size() > 1) { // Narrow down list of states until we know where we started
-			boolean blocked = getFilteredData() < Odometer.TILE_SIZE;
+		int remaining = possible.size();
+		boolean done = false;
+		while (!done) { // Narrow down list of states until we know where we started
+			int tiles = (int) (getFilteredData(x, y) / Odometer.TILE_SIZE);	// Free tiles ahead
+			boolean blocked = tiles == 0;
 			observations++;
 
-			// Filter out now invalid orientations
-			Iterator<Position> iter = possible.iterator();
-			while (iter.hasNext()){
-				Position s = iter.next();
-				if (!Localizer.valid(s, new Position(x, y, current, blocked))){
-					iter.remove();}}
+			long start = System.nanoTime();
+			int action = -1;
+			if (pipelined && observations > 1){
+				// Take the states filtered for this reading while the robot moved here
+				BeliefState filtered = outcomes[tiles];
+				outcomes[tiles] = possible;
+				possible = filtered;
+				remaining = outcomeSizes[tiles];
+				action = outcomeActions[tiles];
+			} else {
+				// Filter out now invalid orientations
+				remaining = pool == null ? possible.observe(x, y, current, tiles) : pool.observe(possible, x, y, current, tiles);}
 			
-			Display.printLocalizationInfo(x, y, current, blocked, possible.size());
+			Display.printLocalizationInfo(x, y, current, blocked, remaining);
+			if (recorder != null) recorder.record(Recorder.HYPOTHESES, remaining, observations, moves);
 			
-			if (possible.size() == 1) break;
+			done = settled(remaining);
+			if (!done && action < 0)
+				action = decide(x, y, current, blocked, remaining, r);
+			computing += System.nanoTime() - start;
+			if (done) break;
+			if (limit > 0 && observations >= limit)
+				throw new RuntimeException("Not localized after " + limit + " observations");
 			
-			switch(locType){
-			case STOCHASTIC:
-				if (blocked) {
-					driver.turnTo(-90);
-					current = Position.rotateLeft(current); }
-				else {
-					if (r.nextBoolean()){
-						driver.turnTo(-90);
-						current = Position.rotateLeft(current);
-					} else{
-						driver.goForward(Odometer.TILE_SIZE);
-						switch(current){
-						case DOWN: y--; break;
-						case LEFT: x--; break;
-						case RIGHT: x++; break;
-						case UP: y++; break;
-						default: throw new RuntimeException("Shouldn't Happen");}}}
+			moves++;
+			switch(action){
+			case TURN_LEFT:
+				driver.turnTo(-90, pipelined);
+				current = Position.rotateLeft(current);
 				break;
-			case DETERMINISTIC:
-				if (blocked) {
-					driver.turnTo(-90);
-					current = Position.rotateLeft(current);
-				} else {
-					driver.goForward(Odometer.TILE_SIZE);
-					switch(current){
-					case DOWN: y--; break;
-					case LEFT: x--; break;
-					case RIGHT: x++; break;
-					case UP: y++; break;
-					default: throw new RuntimeException("Shouldn't Happen");}}
+			case TURN_RIGHT:
+				driver.turnTo(90, pipelined);
+				current = Position.rotateRight(current);
 				break;
-			}
+			default:
+				driver.goForward(Odometer.TILE_SIZE, pipelined);
+				x += BeliefMap.ROT_XY[current.v];
+				y += BeliefMap.ROT_YY[current.v];}
+			
+			if (pipelined){
+				start = System.nanoTime();
+				prepare(x, y, current);
+				overlapped += System.nanoTime() - start;
+				driver.waitForMotion();}
 		}
 
-		if (possible.size() != 1)
+		if (remaining == 0)
 			throw new RuntimeException("No possible states");
 		
-		startingPoint = possible.get(0);
-
-		synchronized(odo){		// Update odometer based on known starting location
+		ambiguity = remaining;
+		startingPoint = possible.first();
+		correctOdometer();
+		return observations;	
+	}
+	
+	/***
+	 * Check whether localization can stop: one possible starting state is
+	 * left, none are, or those left are in one class, so no moves can
+	 * narrow them down
+	 * 
+	 * @param remaining Number of possible starting states
+	 * @return True iff moving further can't tell any more
+	 */
+	private boolean settled(int remaining){
+		if (remaining <= 1) return true;
+		return classes != null && remaining <= classes.largest() && possible.withinClass(classes);}
+	
+	/********
+	 * Perform Markov localization using a known map. Every state keeps a
+	 * probability, so no reading can rule the true state out for good.
+	 * 
+	 * @return Number of observations made
+	 */
+	private int localizeMarkov() {
+		Random r = new Random(clock.nanoTime());	// Breaks ties between moves
+		if (histogram == null || histogram.getMaxTiles() != maxTiles)
+			histogram = new HistogramFilter(grid, maxTiles, sensorHit, moveHit, turnHit);
+		histogram.reset();
+		
+		// Current direction, X and Y relative to where we started, # of observations
+		Direction current = Direction.UP;
+		int x = 0, y = 0, observations = 0;
+		
+		while (true) {
+			int tiles = (int) (getFilteredData(x, y) / Odometer.TILE_SIZE);	// Free tiles ahead
+			boolean blocked = tiles == 0;
+			observations++;
+			
+			long start = System.nanoTime();
+			float p = histogram.update(tiles);
+			Display.printMarkovInfo(x, y, current, blocked, p);
+			
+			// Past the limit, settle for the most likely state
+			boolean done = p >= confidence || observations >= MARKOV_LIMIT;
+			int action = done ? -1 : histogram.chooseAction(blocked, r);
+			computing += System.nanoTime() - start;
+			if (done) break;
+			
+			moves++;
+			switch(action){
+			case TURN_LEFT:
+				driver.turnTo(-90, pipelined);
+				current = Position.rotateLeft(current);
+				break;
+			case TURN_RIGHT:
+				driver.turnTo(90, pipelined);
+				current = Position.rotateRight(current);
+				break;
+			default:
+				driver.goForward(Odometer.TILE_SIZE, pipelined);
+				x += BeliefMap.ROT_XY[current.v];
+				y += BeliefMap.ROT_YY[current.v];}
+			// The update needs the reading, but the prediction can run while moving
+			start = System.nanoTime();
+			histogram.predict(action);
+			if (pipelined){
+				overlapped += System.nanoTime() - start;
+				driver.waitForMotion();
+			} else computing += System.nanoTime() - start;
+		}
+		
+		// Undo the moves made from the most likely current state to find where we started
+		int s = histogram.mostLikely();
+		int d = (histogram.stateDir(s).v - current.v) & 3;
+		int sx = histogram.stateX(s) - (BeliefMap.ROT_XX[d] * x + BeliefMap.ROT_XY[d] * y);
+		int sy = histogram.stateY(s) - (BeliefMap.ROT_YX[d] * x + BeliefMap.ROT_YY[d] * y);
+		int ax = sx + BeliefMap.ROT_XY[d], ay = sy + BeliefMap.ROT_YY[d];
+		startingPoint = new Position(sx, sy, BeliefMap.BY_VALUE[d], grid.isBlocked(ax, ay));
+		correctOdometer();
+		return observations;
+	}
+	
+	/****
+	 * Choose the next move of STOCHASTIC, DETERMINISTIC, INFORMATION_GAIN or
+	 * POLICY localization
+	 * 
+	 * @param x X coordinate relative to where we started
+	 * @param y Y coordinate relative to where we started
+	 * @param current Direction relative to where we started
+	 * @param blocked Whether the tile ahead is blocked
+	 * @param n Number of possible states
+	 * @param r Source of random moves for STOCHASTIC
+	 * @return TURN_LEFT, TURN_RIGHT or FORWARD
+	 */
+	private int decide(int x, int y, Direction current, boolean blocked, int n, Random r) {
+		switch(locType){
+		case STOCHASTIC:
+			return blocked || r.nextBoolean() ? TURN_LEFT : FORWARD;
+		case DETERMINISTIC:
+			return blocked ? TURN_LEFT : FORWARD;
+		default:
+			int action = -1;
+			if (locType == LocalizationType.POLICY && policy != null)
+				action = policy.get(possible.currentStateHash(x, y, current));
+			if (action < 0)
+				action = chooseAction(x, y, current, blocked, n);
+			return action;}
+	}
+	
+	/****
+	 * While the robot moves to a pose, filter the possible states for every
+	 * reading it could make there, and for INFORMATION_GAIN and POLICY choose
+	 * the move after each, so none of it waits on the reading
+	 * 
+	 * @param x X coordinate the robot is moving to, relative to where we started
+	 * @param y Y coordinate the robot is moving to, relative to where we started
+	 * @param current Direction the robot will face there, relative to where we started
+	 */
+	private void prepare(int x, int y, Direction current) {
+		if (outcomes == null || outcomes.length != maxTiles + 1){
+			outcomes = new BeliefState[maxTiles + 1];
+			for (int k = 0; k <= maxTiles; k++)
+				outcomes[k] = new BeliefState(possible);
+			outcomeSizes = new int[maxTiles + 1];
+			outcomeActions = new int[maxTiles + 1];}
+		
+		BeliefState before = possible;
+		for (int k = 0; k <= maxTiles; k++){
+			outcomes[k].copyFrom(before);
+			outcomeSizes[k] = pool == null ? outcomes[k].observe(x, y, current, k) : pool.observe(outcomes[k], x, y, current, k);
+			outcomeActions[k] = -1;
+			// Random moves must be drawn in order, so STOCHASTIC decides later
+			if (outcomeSizes[k] > 1 && (locType == LocalizationType.INFORMATION_GAIN || locType == LocalizationType.POLICY)){
+				possible = outcomes[k];
+				outcomeActions[k] = decide(x, y, current, k == 0, outcomeSizes[k], null);}
+		}
+		possible = before;
+	}
+	
+	/***
+	 * Compute while the robot moves: filter the possible states for every
+	 * reading before it is taken, and choose the next move for each, so a
+	 * move can start as soon as the reading is in. MARKOV only predicts while
+	 * moving, since its update needs the reading. Readings are still taken
+	 * once the robot has settled, or from a RangeSampler's readings during
+	 * the final approach.
+	 * 
+	 * @param pipelined Whether to compute while the robot moves
+	 */
+	public void setPipelined(boolean pipelined){
+		this.pipelined = pipelined;}
+	
+	/***
+	 * Get the time spent filtering possible states and choosing moves while
+	 * localizing, split by whether the robot was moving at the time
+	 * 
+	 * @param whileMoving True for the time overlapped with motion, false for
+	 * the time the robot waited on it
+	 * @return Time in ns
+	 */
+	public long getComputeTime(boolean whileMoving){
+		return whileMoving ? overlapped : computing;}
+	
+	/****
+	 * Move the odometer into map coordinates once the starting point is known
+	 */
+	private void correctOdometer() {
+		synchronized(odo){		// Update odometer based on known starting location, holding off its updates
+			Pose p = odo.getPose();
 			double odo_x, odo_y;
 			switch(startingPoint.getDir()){	// Need to get absolute change from starting point relative to where we are
 			case DOWN:
-				odo_x = -odo.getX();
-				odo_y = -odo.getY();
+				odo_x = -p.getX();
+				odo_y = -p.getY();
 				break;
 			case LEFT:
-				odo_x = -odo.getY();
-				odo_y = odo.getX();
+				odo_x = -p.getY();
+				odo_y = p.getX();
 				break;
 			case RIGHT:
-				odo_x = odo.getY();
-				odo_y = -odo.getX();
+				odo_x = p.getY();
+				odo_y = -p.getX();
 				break;
 			case UP:
-				odo_x = odo.getX();
-				odo_y = odo.getY();
+				odo_x = p.getX();
+				odo_y = p.getY();
 				break;
 			default: throw new RuntimeException("Shouldn't Happen");}
-			odo.setX((((double)startingPoint.getX()) - 0.5)*Odometer.TILE_SIZE + odo_x);
-			odo.setY((((double)startingPoint.getY()) - 0.5)*Odometer.TILE_SIZE + odo_y);
-			odo.setThetaRad(odo.getTheta() - (0.5 * ((double)startingPoint.getDir().v) * (Math.PI)));}
-		return observations;	
+			odo.setPose((((double)startingPoint.getX()) - 0.5)*Odometer.TILE_SIZE + odo_x,
+					(((double)startingPoint.getY()) - 0.5)*Odometer.TILE_SIZE + odo_y,
+					p.getTheta() - (0.5 * ((double)startingPoint.getDir().v) * (Math.PI)));}
 	}
 	
+	/****
+	 * Pick the move towards the pose, at most SEARCH_DEPTH moves away, whose
+	 * observation is expected to rule out the most possible states per move.
+	 * 
+	 * Until a pose tells states apart, every possible state agrees on what
+	 * each observation will be, so the possible states do not change on the
+	 * way there. This makes the search a breadth first search over poses
+	 * relative to the robot. Once the robot moves towards the best pose, that
+	 * pose is worth more per move on the next search, so the robot never
+	 * circles without observing something new.
+	 * 
+	 * @param x X coordinate relative to where we started
+	 * @param y Y coordinate relative to where we started
+	 * @param current Direction relative to where we started
+	 * @param blocked Whether the tile ahead is blocked
+	 * @param n Number of possible states
+	 * @return TURN_LEFT, TURN_RIGHT or FORWARD. If no pose in range tells
+	 * states apart, FORWARD unless blocked, as for DETERMINISTIC.
+	 */
+	private int chooseAction(int x, int y, Direction current, boolean blocked, int n){
+		for (int i = 0; i < searchMoves.length; i++)
+			searchMoves[i] = -1;
+		
+		// Pose index is ((dx * SEARCH_SIDE) + dy) * 4 + direction, dx and dy offset by SEARCH_DEPTH
+		int start = ((SEARCH_DEPTH * SEARCH_SIDE) + SEARCH_DEPTH) * 4 + current.v;
+		int head = 0, tail = 0;
+		searchQueue[tail++] = start;
+		searchMoves[start] = 0;
+		searchBlocked[start] = blocked;
+		
+		int best = blocked ? TURN_LEFT : FORWARD, bestMoves = 1;
+		double bestGain = 0;
+		while (head < tail){
+			int p = searchQueue[head++];
+			int d = p & 3, dx = (p >> 2) / SEARCH_SIDE, dy = (p >> 2) % SEARCH_SIDE;
+			for (int a = TURN_LEFT; a <= FORWARD; a++){
+				int nd = d, nx = dx, ny = dy;
+				if (a == TURN_LEFT) nd = (d + 1) & 3;
+				else if (a == TURN_RIGHT) nd = (d + 3) & 3;
+				else if (searchBlocked[p]) continue;
+				else {
+					nx += BeliefMap.ROT_XY[d];
+					ny += BeliefMap.ROT_YY[d];
+					if (nx < 0 || nx >= SEARCH_SIDE || ny < 0 || ny >= SEARCH_SIDE) continue;}
+				
+				int q = ((nx * SEARCH_SIDE) + ny) * 4 + nd;
+				if (searchMoves[q] >= 0) continue;
+				int moves = searchMoves[p] + 1;
+				searchMoves[q] = (byte) moves;
+				searchFirst[q] = p == start ? (byte) a : searchFirst[p];
+				
+				// Every state is still possible here, so split them by the free tiles they'd see ahead
+				int seen = 0, known = -1;
+				double squares = 0;
+				for (int k = 0; k <= maxTiles && seen < n; k++){
+					int c = possible.count(x + nx - SEARCH_DEPTH, y + ny - SEARCH_DEPTH, BeliefMap.BY_VALUE[nd], k);
+					if (c == n) known = k;
+					squares += (double)c * c;
+					seen += c;}
+				
+				if (known < 0){
+					double gain = n - squares / n;
+					if (gain * bestMoves > bestGain * moves){
+						bestGain = gain;
+						bestMoves = moves;
+						best = searchFirst[q];}
+				} else if (moves < SEARCH_DEPTH){
+					// Nothing learned here, so the observation is known - keep looking
+					searchBlocked[q] = known == 0;
+					searchQueue[tail++] = q;}
+			}
+		}
+		return best;
+	}
+	
+	/***
+	 * Set the furthest ultrasonic reading used. Every whole tile within range
+	 * is told apart, so one reading can rule out far more states than blocked
+	 * or not. Must be set before localizing. Policies are solved for
+	 * blocked/free readings, so POLICY searches beliefs they don't hold.
+	 * 
+	 * @param maxRange Furthest reading in cm. SENSOR_CAP (the default) only
+	 * tells blocked from free.
+	 */
+	public void setMaxRange(int maxRange){
+		int tiles = Math.max(1, (int) (maxRange / Odometer.TILE_SIZE));
+		this.maxRange = maxRange;
+		this.maxTiles = tiles;
+		this.possible = new BeliefState(tiles == beliefMap.getMaxTiles() ? beliefMap : new BeliefMap(grid, tiles));}
+	
+	/***
+	 * Split filtering the possible states between a pool of threads. Only
+	 * worth it on maps big enough for FilterPool not to filter serially.
+	 * 
+	 * @param pool Pool to filter with, null to filter on the calling thread
+	 */
+	public void setFilterPool(FilterPool pool){
+		this.pool = pool;}
+	
+	/***
+	 * Record each reading, and the number of possible starting states left
+	 * after each observation. MARKOV records only the readings.
+	 * 
+	 * @param recorder Recorder to record to, or null to stop recording
+	 */
+	public void setRecorder(Recorder recorder){
+		this.recorder = recorder;}
+	
+	/***
+	 * Take observations from a sampler's readings rather than pinging for
+	 * each. Each observation is the median of the latest readings taken
+	 * since the robot last turned, corrected for where the odometer had the
+	 * robot when each was taken, so readings from the end of a forward move
+	 * still count. The sampler must already be running.
+	 * 
+	 * @param sampler Sampler reading the same sensor, null to go back to pinging
+	 * @param window Number of readings to take the median of
+	 */
+	public void setSampler(RangeSampler sampler, int window){
+		this.sampler = sampler;
+		this.sampleDistance = new int[4 * window];
+		this.sampleTime = new long[4 * window];
+		this.sampleWindow = new int[window];}
+	
+	/***
+	 * Get the total time spent waiting on ultrasonic readings while localizing
+	 * 
+	 * @return Time in ns
+	 */
+	public long getSensingTime(){
+		return sensing;}
+	
+	/***
+	 * Set the noise models and stopping point of MARKOV localization
+	 * 
+	 * @param sensorHit Probability of a reading giving the right number of free tiles
+	 * @param moveHit Probability of a forward move reaching the next tile
+	 * @param turnHit Probability of a turn happening
+	 * @param confidence Probability needed in one state to stop
+	 */
+	public void setMarkovModel(float sensorHit, float moveHit, float turnHit, float confidence){
+		this.sensorHit = sensorHit;
+		this.moveHit = moveHit;
+		this.turnHit = turnHit;
+		this.confidence = confidence;
+		this.histogram = null;}
+	
+	/***
+	 * Set the policy followed by POLICY localization
+	 * 
+	 * @param policy Policy solved by PolicySolver for this Localizer's map
+	 */
+	public void setPolicy(PolicyTable policy){
+		if (!policy.matches(grid))
+			throw new RuntimeException("Policy is for a different map");
+		this.policy = policy;}
+	
+	/***
+	 * Stop localizing once the possible starting states are all in one class
+	 * of a table, rather than moving on forever when the map has states no
+	 * moves tell apart. Set it after setMaxRange().
+	 * 
+	 * The belief stays one bit per state rather than per class: a state's
+	 * whole class survives or dies with it anyway, and the masks filter 64
+	 * states a word, where a class can only be checked with valid() on one of
+	 * its states. Most maps have about as many classes as states; even maps
+	 * symmetric under a half turn only halve them.
+	 * 
+	 * @param classes Classes found by AmbiguityAnalyzer for this Localizer's map and readings
+	 */
+	public void setClassTable(ClassTable classes){
+		if (!classes.matches(grid) || classes.getMaxTiles() != maxTiles)
+			throw new RuntimeException("Class table is for a different map or range");
+		this.classes = classes;}
+	
+	/***
+	 * Get the number of starting states the last localization could not
+	 * tell apart. Above 1 only on maps with a class table that says no moves
+	 * can; the starting point is then any one of them.
+	 * 
+	 * @return Number of starting states left, 0 before localizing
+	 */
+	public int getAmbiguity(){
+		return ambiguity;}
+	
+	/***
+	 * Give up localizing after a number of observations, rather than
+	 * wandering on when the moves chosen stop telling states apart. MARKOV
+	 * always stops at MARKOV_LIMIT.
+	 * 
+	 * @param limit Most observations, 0 (the default) for no limit
+	 */
+	public void setObservationLimit(int limit){
+		this.limit = limit;}
+	
+	/***
+	 * Get the number of moves the last localization made
+	 * 
+	 * @return Turns and moves forward, 0 before localizing
+	 */
+	public int getMoves(){
+		return moves;}
+	
+	/***
+	 * Get a copy of the map used for localization as an array, made anew
+	 * on each call, for the desktop tools that take one
+	 * 
+	 * @return The map, used map[x][y]. True if there is a block there
+	 */
+	public static boolean[][] getMap(){
+		return grid.toArray();}
+	
+	/***
+	 * Get the map used for localization with its neighbour table
+	 * 
+	 * @return The map
+	 */
+	public static GridMap getGrid(){
+		return grid;}
+	
+	/***
+	 * Set the map used for localization. Localizers already created keep
+	 * the old one's observation masks, so set it before creating any.
+	 * 
+	 * @param m The map
+	 */
+	public static synchronized void setMap(GridMap m){
+		grid = m;
+		beliefMap = new BeliefMap(m);
+		planner = null;}
+	
+	/***
+	 * Get the routes planned across the map used for localization,
+	 * planning them the first time
+	 * 
+	 * @return The planner for the map
+	 */
+	public static synchronized PathPlanner getPlanner(){
+		if (planner == null) planner = new PathPlanner(grid);
+		return planner;}
+	
 	/***
 	 * Get the starting point resulting from localization or
 	 * null if localization has not occurred yet
@@ -157,33 +638,94 @@ public class Localizer {
 	
 	/*******
 	 * Get a value from the ultrasonic sensor for the current distance from the
-	 * wall
+	 * wall, measured from the middle of the tile the robot should be on
 	 * 
+	 * Each reading is stamped with the odometer's pose when it was taken,
+	 * even if the robot was still moving, and how far that pose is ahead of
+	 * the middle of the tile is added to the reading. The odometer is taken
+	 * to start at 0 in the middle of the starting tile.
+	 * 
+	 * @param x X coordinate of the tile, relative to where we started
+	 * @param y Y coordinate of the tile, relative to where we started
 	 * @return A filtered value of the distance from the wall
 	 */
-	private int getFilteredData() {
+	private int getFilteredData(int x, int y) {
+		long start = clock.nanoTime();
+		int dist = sampler == null ? ping(x, y) : sample(x, y);
+		sensing += clock.nanoTime() - start;
+		if (recorder != null) recorder.record(Recorder.RANGE, dist, x, y);
+		return dist;
+	}
+	
+	/** Take a reading by pinging and waiting for the echo */
+	private int ping(int x, int y) {
 		int dist;
 
 		// do a ping
+		long sent = clock.nanoTime();
 		us.ping();
 		// wait for the ping to complete
-		try {
-			Thread.sleep(50);
-		} catch (InterruptedException e) {
-		}
+		clock.sleep(50);
 
 		// there will be a delay here
 		dist = us.getDistance();
-		return dist > 50 ? 50 : dist;
+		readingPose = odo.poseAt(sent);
+		return fromTile(dist, readingPose, x, y);
 	}
+	
+	/** Take the median of the sampler's latest readings since the robot turned, waiting for more if needed */
+	private int sample(int x, int y) {
+		Pose now = odo.getPose();
+		for (int tries = 0; tries <= SAMPLE_WAIT; tries++){
+			int n = sampler.latest(sampleDistance, sampleTime), used = 0;
+			for (int i = 0; i < n && used < sampleWindow.length; i++){
+				Pose p = odo.poseAt(sampleTime[i]);
+				// Older readings looked somewhere else
+				if (Math.abs(Math.IEEEremainder(p.getTheta() - now.getTheta(), 2 * Math.PI)) > SAMPLE_HEADING) break;
+				sampleWindow[used++] = fromTile(sampleDistance[i], p, x, y);}
+			if (used == sampleWindow.length || (tries == SAMPLE_WAIT && used > 0)){
+				readingPose = now;
+				return RangeSampler.median(sampleWindow, used);}
+			clock.sleep(sampler.getPeriod());
+		}
+		return ping(x, y);		// The sampler has stopped
+	}
+	
+	/****
+	 * Turn a reading taken at a pose into one from the middle of a tile
+	 * 
+	 * @param dist Reading in cm
+	 * @param p Odometer pose when it was taken
+	 * @param x X coordinate of the tile, relative to where we started
+	 * @param y Y coordinate of the tile, relative to where we started
+	 * @return Reading from the middle of the tile in cm, capped at maxRange
+	 */
+	private int fromTile(int dist, Pose p, int x, int y) {
+		double theta = p.getTheta();
+		double ahead = (p.getX() - x * Odometer.TILE_SIZE) * Math.sin(theta)
+				+ (p.getY() - y * Odometer.TILE_SIZE) * Math.cos(theta);
+		if (dist < maxRange) dist = (int) Math.round(dist + ahead);
+		return dist > maxRange ? maxRange : (dist < 0 ? 0 : dist);
+	}
+	
+	/****
+	 * Get the odometer's pose when the last reading was taken
+	 * 
+	 * @return The pose, null if no reading has been taken
+	 */
+	public Pose getReadingPose() {
+		return readingPose;}
 
 	/****
 	 * Check whether a position r is possible from position s
+	 * 
+	 * Reference implementation of the filtering done by BeliefState.observe()
+	 * 
 	 * @param s The starting position to use as a 'base'
 	 * @param r Where the robot is relative to where it started (current observation)
 	 * @return True iff the position the position r is possible relative to position s
 	 */
-	private static boolean valid(Position s, Position r){
+	static boolean valid(Position s, Position r){
 		// Get real direction to check based on Position checking and 
 		// where we are facing based on where we started
 		Direction realDir = s.getDir();
@@ -194,48 +736,13 @@ public class Localizer {
 		int x = Position.relativeX(s, r);
 		int y = Position.relativeY(s, r);
 		
-		if (x < 0 || x > 3 || y < 0 || y > 3 || map[x][y]) return false;
-		
-		switch(realDir){
-		case UP:
-			if (r.isBlocked())
-				return (y == 3 || map[x][y+1]);
-			else
-				return (y < 3 && !map[x][y+1]);
-		case DOWN:
-			if (r.isBlocked())
-				return (y == 0 || map[x][y-1]);
-			else
-				return (y > 0 && !map[x][y-1]);
-		case LEFT:
-			if (r.isBlocked())
-				return (x == 0 || map[x-1][y]);
-			else
-				return (x > 0 && !map[x-1][y]);
-		case RIGHT:
-			if (r.isBlocked())
-				return (x == 3 || map[x+1][y]);
-			else
-				return (x < 3 && !map[x+1][y]);}
-		return true;
+		if (grid.isBlocked(x, y)) return false;
+		return grid.isOpen(x, y, realDir.v) != r.isBlocked();
 	}
 	
 	static { 
-		// Intiailization of static variables (map)
+		// The lab's map until another is set
 		// BOTTOM LEFT TILE IS (0, 0)
-		// TOP RIGHT IS (3, 3)
-		// null tile => block
-		
-		map = new boolean[4][4];
-		
-		for (int x = 0; x < 4; x++){
-			for (int y = 0; y<4; y++){
-					map[x][y] = false;
-			}
-		}
-		map[1][0] = true; // Block (1,0)
-		map[0][3] = true; // Block (0,3)
-		map[2][2] = true; // Block (2,2)
-		map[3][2] = true; // Block (3,2)
+		setMap(GridMap.parse(GridMap.LAB));
 	}
 }
\ No newline at end of file
@@ -0,0 +1,164 @@
+import java.util.Random;
+
+/******************************************************************************
+ * Seeded generator of maps for testing localization beyond the lab's map.
+ *
+ * The same size, structure, density and seed always give the same map, so
+ * benchmarks on generated maps can be compared from run to run.
+ */
+public class MapGenerator {
+	/** Kinds of map to generate */
+	public static enum Structure {
+		/** Blocks scattered independently over the map */
+		SCATTERED,
+		/** A maze of one tile corridors, opened up to the density */
+		CORRIDORS,
+		/** Rooms walled off by recursive division, each wall with one doorway */
+		ROOMS,
+		/** Scattered blocks the same when turned half way, so every state has a twin */
+		SYMMETRIC};
+
+	private MapGenerator(){}
+
+	/****
+	 * Generate a map
+	 *
+	 * @param width Tiles across, at least 1
+	 * @param height Tiles up, at least 1
+	 * @param structure Kind of map
+	 * @param density Fraction of tiles to block, from 0 to 1. Mazes and rooms
+	 * stop at their own fraction when it is lower.
+	 * @param seed Seed of the random choices
+	 * @return The map, used map[x][y]. True if there is a block there
+	 */
+	public static boolean[][] generate(int width, int height, Structure structure, double density, long seed) {
+		if (width < 1 || height < 1) throw new RuntimeException("Map must have tiles");
+		Random r = new Random(seed);
+		boolean[][] map = new boolean[width][height];
+		switch (structure){
+		case SCATTERED:
+			for (int x = 0; x < width; x++)
+				for (int y = 0; y < height; y++)
+					map[x][y] = r.nextDouble() < density;
+			break;
+		case SYMMETRIC:
+			for (int x = 0; x < width; x++)
+				for (int y = 0; y < height; y++)
+					if (x * height + y < (width - 1 - x) * height + (height - 1 - y))
+						map[x][y] = map[width - 1 - x][height - 1 - y] = r.nextDouble() < density;
+			break;
+		case CORRIDORS:
+			maze(map, r, density);
+			break;
+		case ROOMS:
+			rooms(map, r, density);
+			break;}
+		return map;
+	}
+
+	/** Carve a maze through a full map, then open random blocks down to the density */
+	private static void maze(boolean[][] map, Random r, double density) {
+		int width = map.length, height = map[0].length;
+		for (int x = 0; x < width; x++)
+			for (int y = 0; y < height; y++)
+				map[x][y] = true;
+
+		// Depth first from (0, 0) over the tiles with even coordinates
+		int[] stack = new int[width * height];
+		int size = 0;
+		stack[size++] = 0;
+		map[0][0] = false;
+		int[] order = { 0, 1, 2, 3 };
+		while (size > 0){
+			int tile = stack[size - 1], x = tile / height, y = tile % height;
+			for (int i = 3; i > 0; i--){
+				int j = r.nextInt(i + 1), t = order[i];
+				order[i] = order[j];
+				order[j] = t;}
+			boolean moved = false;
+			for (int i = 0; i < 4 && !moved; i++){
+				int nx = x + 2 * BeliefMap.ROT_XY[order[i]], ny = y + 2 * BeliefMap.ROT_YY[order[i]];
+				if (nx < 0 || nx >= width || ny < 0 || ny >= height || !map[nx][ny]) continue;
+				map[x + BeliefMap.ROT_XY[order[i]]][y + BeliefMap.ROT_YY[order[i]]] = false;
+				map[nx][ny] = false;
+				stack[size++] = nx * height + ny;
+				moved = true;}
+			if (!moved) size--;
+		}
+
+		int blocked = 0;
+		for (int x = 0; x < width; x++)
+			for (int y = 0; y < height; y++)
+				if (map[x][y]) blocked++;
+		while (blocked > density * width * height){
+			int x = r.nextInt(width), y = r.nextInt(height);
+			if (map[x][y]){
+				map[x][y] = false;
+				blocked--;}
+		}
+	}
+
+	/****
+	 * Wall a map off into rooms, leaving a doorway in each wall. Regions are
+	 * split largest first, so when the density stops the walls early they
+	 * are spread over the map rather than all in one corner.
+	 */
+	private static void rooms(boolean[][] map, Random r, double density) {
+		int width = map.length, height = map[0].length, budget = (int) (density * width * height);
+		int[] queue = new int[4 * (2 * width * height + 1)];	// [x0, y0, x1, y1] of regions to split, two per wall
+		int head = 0, tail = 0;
+		queue[tail++] = 0;
+		queue[tail++] = 0;
+		queue[tail++] = width;
+		queue[tail++] = height;
+		while (head < tail){
+			int x0 = queue[head++], y0 = queue[head++], x1 = queue[head++], y1 = queue[head++];
+			int w = x1 - x0, h = y1 - y0;
+			boolean across = w >= h;		// Wall from bottom to top, splitting the width
+			int length = across ? h : w, span = across ? w : h;
+			if (span < 3 || length - 1 > budget) continue;
+
+			// Keep rooms at least a tile wide, and don't wall off a doorway into the region
+			int[] at = new int[span - 2];
+			int n = 0;
+			for (int k = 1; k < span - 1; k++)
+				if (across ? !door(map, x0 + k, y0 - 1) && !door(map, x0 + k, y1) : !door(map, x0 - 1, y0 + k) && !door(map, x1, y0 + k))
+					at[n++] = k;
+			if (n == 0) continue;
+			int k = at[r.nextInt(n)], gap = r.nextInt(length);
+			budget -= length - 1;
+			if (across){
+				for (int y = y0; y < y1; y++)
+					map[x0 + k][y] = y - y0 != gap;
+				int[] halves = { x0, y0, x0 + k, y1, x0 + k + 1, y0, x1, y1 };
+				System.arraycopy(halves, 0, queue, tail, 8);
+			} else {
+				for (int x = x0; x < x1; x++)
+					map[x][y0 + k] = x - x0 != gap;
+				int[] halves = { x0, y0, x1, y0 + k, x0, y0 + k + 1, x1, y1 };
+				System.arraycopy(halves, 0, queue, tail, 8);}
+			tail += 8;
+		}
+	}
+
+	/** Whether a tile is a free tile on the map, so a doorway when next to a room */
+	private static boolean door(boolean[][] map, int x, int y) {
+		return x >= 0 && x < map.length && y >= 0 && y < map[0].length && !map[x][y];}
+
+	/****
+	 * Get a map as rows of text, as GridMap.parse() takes them
+	 *
+	 * @param map The map, used map[x][y]. True if there is a block there
+	 * @return Rows from the top, '#' for a block and '.' for free
+	 */
+	public static String[] rows(boolean[][] map) {
+		int width = map.length, height = map[0].length;
+		String[] rows = new String[height];
+		for (int y = 0; y < height; y++){
+			StringBuffer row = new StringBuffer(width);
+			for (int x = 0; x < width; x++)
+				row.append(map[x][height - 1 - y] ? '#' : '.');
+			rows[y] = row.toString();}
+		return rows;
+	}
+}
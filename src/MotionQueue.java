@@ -0,0 +1,527 @@
+import java.util.ArrayList;
+
+/******************************************************************************
+ * Runs queued moves one after another in the background, so a caller can
+ * hand over a whole route at once and get on with other work.
+ *
+ * Each move is planned when it is queued, from where the move before it
+ * will end rather than from where the robot is, and the wheels are sent
+ * to absolute tacho counts so rounding never builds up from move to move.
+ * A move to a point is aimed again from the pose source as it starts, so
+ * corrections, e.g. from a ParticleFilter, are still taken up.
+ * Where a leg is followed by one that turns by no more than BLEND_ANGLE,
+ * and both are long enough, the corner between them is driven as an arc
+ * of BLEND_RADIUS without stopping, rather than stopping, turning on the
+ * spot and setting off again. A leg that carries straight on is simply
+ * joined to the one before.
+ *
+ * With an acceleration set, the queue ramps the wheels up and down in
+ * a trapezoidal profile instead of starting and stopping them dead,
+ * stepping their speeds every PERIOD ms. Each step it also checks each
+ * wheel's tacho count against where the commanded speeds should have
+ * taken it. A wheel more than SLIP_DEGREES ahead has lost its grip and is
+ * spinning, so the queue eases off the speed and halves the acceleration
+ * for every move after, down to MIN_ACCELERATION.
+ *
+ * On straights driven forward with a profile the queue also holds the
+ * robot on the line into the end of the move. Every step it reads the
+ * odometer, and a PID on the heading error plus CROSS_TRACK times the
+ * distance off the line speeds one wheel up and slows the other by the
+ * same amount, moving their targets apart to match. So a weak motor, or a
+ * heading slightly off after a turn, is steered out along the way rather
+ * than left for the next move to turn away. The hold never reads another
+ * pose source, e.g. a ParticleFilter, since that changes only every 100ms
+ * or so, and a PID stepping every 5ms on it would kick at every change.
+ * Instead the line is carried into the odometer's frame as the leg starts.
+ *
+ * The queue only ever waits by sleeping on its Clock, so in a Simulation
+ * its thread is registered like the Odometer's.
+ */
+public class MotionQueue extends Thread {
+	/** Radius of the arc driven through a blended corner, in cm */
+	public static final double BLEND_RADIUS = 10;
+	/** Sharpest corner blended into an arc, in degrees */
+	public static final double BLEND_ANGLE = 120;
+	/** Distance to a point under which a move to it doesn't turn to face it, in cm */
+	public static final double CLOSE = 0.5;
+	/** Time between checks for new moves, or for a move to finish, in ms */
+	public static final int POLL = 5;
+	/** Speed of the wheels on a straight with a profile, in degrees per second */
+	public static final int CRUISE_SPEED = 400;
+	/** Speed of the wheels turning on the spot with a profile, in degrees per second */
+	public static final int SPIN_SPEED = 200;
+	/** Acceleration of the wheels with a profile, in degrees per second squared */
+	public static final int ACCELERATION = 2000;
+	/** Time between speed steps of a profile, in ms */
+	public static final int PERIOD = Odometer.PERIOD;
+	/** Slowest speed a profile runs a wheel at, so it always arrives, in degrees per second */
+	public static final int MIN_SPEED = 20;
+	/** Distance a wheel may get ahead of its commanded speeds before it counts as slipping, in degrees */
+	public static final int SLIP_DEGREES = 3;
+	/** Lowest acceleration slipping backs off to, in degrees per second squared */
+	public static final int MIN_ACCELERATION = 250;
+	/** Heading error counted per cm off the line when holding a straight, in radians */
+	public static final double CROSS_TRACK = 0.1;
+	/** Gains of the hold, in degrees per second of trim per radian, per radian second and per radian per second */
+	public static final double KP = 2000, KI = 4000, KD = 20;
+	/** Largest trim of a wheel's speed when holding a straight, as a fraction of its speed */
+	public static final double MAX_TRIM = 0.25;
+
+	/****
+	 * A queued move, and whether it has finished
+	 */
+	public static class Motion {
+		private final Clock clock;			// Clock to wait on
+		final boolean travel;				// Whether the move heads for a point
+		final double x, y;					// Point headed for, or where the plan ends the move, in cm
+		final double theta;					// Heading the plan drives the leg on, in radians
+		double turn;						// Turn before the leg, clockwise in degrees
+		double distance;					// Length of the leg in cm
+		boolean blended;					// Whether the turn was driven as an arc by the move before
+		double trim;						// Length of the leg already driven by that arc, in cm
+		private volatile boolean done;		// Whether the robot has finished the move
+
+		Motion(Clock clock, boolean travel, double x, double y, double theta, double turn, double distance) {
+			this.clock = clock;
+			this.travel = travel;
+			this.x = x;
+			this.y = y;
+			this.theta = theta;
+			this.turn = turn;
+			this.distance = distance;}
+
+		/****
+		 * Check whether the move has finished. A move blended into the next
+		 * finishes once the robot is through the corner.
+		 * @return Whether the move has finished
+		 */
+		public boolean isDone() {
+			return done;}
+
+		/****
+		 * Wait for the move to finish
+		 */
+		public void waitFor() {
+			while (!done)
+				clock.sleep(POLL);}
+	}
+
+	private final DriveMotor leftMotor, rightMotor;
+	private final Clock clock;							// Time source for all waits
+	private volatile PoseSource pose;					// Where the robot is
+	private final PoseSource odometer;					// Where the robot is, updated every step, for the hold
+	private final ArrayList<Motion> pending = new ArrayList<Motion>();	// Moves not yet started. Guarded by this
+	private boolean busy;								// Whether a move is being driven. Guarded by this
+	private double plannedX, plannedY, plannedTheta;	// Where the last queued move ends, theta in radians. Guarded by this
+	private double leftTarget, rightTarget;			// Tacho counts the wheels were last sent to
+	private int forwardSpeed = Driver.FORWARD_SPEED,	// Speeds of the wheels on straights and turns on the spot,
+				turnSpeed = Driver.LOCALIZE_SPEED;	// in degrees per second
+	private volatile double acceleration;				// Acceleration of the profile, 0 to start and stop dead
+	private double speed;								// Speed the profile wants of the faster wheel, in degrees per second
+	private double speedL, speedR;						// Speed of each wheel now, in degrees per second
+	private volatile int slips;						// Times a wheel was caught slipping
+	private volatile boolean hold = true;				// Whether to hold straights on their line
+	private boolean holding;							// Whether the move being driven is held
+	private double lineX, lineY, lineTheta;			// Point on the line held and its heading, in cm and radians
+	private volatile double corrected;					// Degrees moves to a point turned beyond their plan
+	private volatile boolean running;					// Cleared to stop after the current move
+
+	/****
+	 * Create a queue driving a pair of wheels
+	 *
+	 * @param leftMotor Motor of the left wheel
+	 * @param rightMotor Motor of the right wheel
+	 * @param pose Where the robot is, e.g. the Odometer. Holding a straight
+	 * 		reads it every step, so it should update at least that often
+	 * @param clock Time source for all waits
+	 */
+	public MotionQueue(DriveMotor leftMotor, DriveMotor rightMotor, PoseSource pose, Clock clock) {
+		this.leftMotor = leftMotor;
+		this.rightMotor = rightMotor;
+		this.pose = pose;
+		this.odometer = pose;
+		this.clock = clock;
+		this.running = true;}
+
+	/****
+	 * Set where moves are planned and aimed from. Holding a straight still
+	 * reads the pose source the queue was created with.
+	 * @param pose Where the robot is
+	 */
+	public void setPoseSource(PoseSource pose) {
+		this.pose = pose;}
+
+	/****
+	 * Set how fast moves are driven. Takes effect from the next move.
+	 *
+	 * @param forwardSpeed Speed of the wheels on straights, in degrees per second
+	 * @param turnSpeed Speed of the wheels turning on the spot, in degrees per second
+	 * @param acceleration Acceleration of the wheels in degrees per second squared,
+	 * 		or 0 to start and stop dead
+	 */
+	public synchronized void setProfile(int forwardSpeed, int turnSpeed, int acceleration) {
+		if (forwardSpeed <= 0 || turnSpeed <= 0 || acceleration < 0)
+			throw new RuntimeException("Speeds must be positive");
+		this.forwardSpeed = forwardSpeed;
+		this.turnSpeed = turnSpeed;
+		this.acceleration = acceleration;}
+
+	/****
+	 * Turn holding straights on their line on or off. Takes effect from the next move.
+	 * @param hold Whether to hold straights on their line
+	 */
+	public void setHold(boolean hold) {
+		this.hold = hold;}
+
+	/****
+	 * Get the acceleration moves are driven with, lower than set if the
+	 * wheels have slipped
+	 * @return Acceleration in degrees per second squared
+	 */
+	public double getAcceleration() {
+		return acceleration;}
+
+	/****
+	 * Get the number of times a wheel was caught slipping
+	 * @return Slips detected
+	 */
+	public int getSlips() {
+		return slips;}
+
+	/****
+	 * Get how far moves to a point have had to turn beyond their plan when
+	 * aimed again, because the robot was off its line or heading
+	 * @return Total correction in degrees
+	 */
+	public double getCorrection() {
+		return corrected;}
+
+	/****
+	 * Queue a move to a point: a turn to face it, then a straight leg
+	 *
+	 * @param x Coordinate of destination in cm
+	 * @param y Coordinate of destination in cm
+	 * @return The queued move
+	 */
+	public synchronized Motion travel(double x, double y) {
+		plan();
+		double distance = Math.hypot(x - plannedX, y - plannedY);
+		return add(true, x, y, distance < CLOSE ? 0 : heading(x - plannedX, y - plannedY, plannedTheta), distance);}
+
+	/****
+	 * Queue a turn on the spot
+	 *
+	 * @param theta The amount to turn clockwise in degrees
+	 * @return The queued move
+	 */
+	public synchronized Motion turnTo(double theta) {
+		plan();
+		return add(false, 0, 0, theta, 0);}
+
+	/****
+	 * Queue a straight leg
+	 *
+	 * @param distance Distance forward to travel in cm
+	 * @return The queued move
+	 */
+	public synchronized Motion goForward(double distance) {
+		plan();
+		return add(false, 0, 0, 0, distance);}
+
+	/****
+	 * Check whether every queued move has finished
+	 * @return Whether the queue is idle
+	 */
+	public synchronized boolean isIdle() {
+		return !busy && pending.isEmpty();}
+
+	/****
+	 * Stop taking moves once the current one finishes
+	 */
+	public void halt() {
+		running = false;}
+
+	/** Start planning from the robot's pose if nothing is queued or moving. Called holding this */
+	private void plan() {
+		if (busy || !pending.isEmpty()) return;
+		Pose from = pose.getPose();
+		plannedX = from.getX();
+		plannedY = from.getY();
+		plannedTheta = from.getTheta();}
+
+	/** Queue a move and advance the plan past it, ending a move that isn't to a point where the plan does. Called holding this */
+	private Motion add(boolean travel, double x, double y, double turn, double distance) {
+		plannedTheta += Math.toRadians(turn);
+		plannedX += distance * Math.sin(plannedTheta);
+		plannedY += distance * Math.cos(plannedTheta);
+		if (!travel){
+			x = plannedX;
+			y = plannedY;}
+		Motion m = new Motion(clock, travel, x, y, plannedTheta, turn, distance);
+		pending.add(m);
+		return m;}
+
+	// run method (required for Thread)
+	public void run() {
+		while (running){
+			Thread.interrupted();		// Only halt() stops the queue, so no sleep may end at once
+			Motion m, next;
+			int forwardSpeed, turnSpeed;
+			synchronized (this) {
+				forwardSpeed = this.forwardSpeed;
+				turnSpeed = this.turnSpeed;
+				m = pending.isEmpty() ? null : pending.remove(0);
+				if (m != null && !busy){
+					// Setting off from rest, so aim from where the wheels are
+					leftTarget = leftMotor.getTachoCount();
+					rightTarget = rightMotor.getTachoCount();}
+				busy = m != null;}
+			if (m == null){
+				clock.sleep(POLL);
+				continue;}
+
+			double theta = m.theta;
+			if (m.travel){
+				// Aim again from where the robot is now. Through a blended
+				// corner only the length of the leg can change
+				Pose p = pose.getPose();
+				double distance = Math.hypot(m.x - p.getX(), m.y - p.getY());
+				if (!m.blended){
+					// Already there, or near enough that which way it lies is noise
+					double turn = distance < CLOSE ? 0 : heading(m.x - p.getX(), m.y - p.getY(), p.getTheta());
+					corrected += Math.abs(Math.IEEEremainder(turn - m.turn, 360));
+					m.turn = turn;
+					if (distance >= CLOSE) theta = Math.atan2(m.x - p.getX(), m.y - p.getY());}
+				m.distance = m.trim + distance;}
+			if (!m.blended && m.turn != 0){
+				double d = degrees(Math.PI * Driver.WHEEL_BASE * m.turn / 360);
+				drive(d, -d, turnSpeed, turnSpeed, true);}
+
+			// Hold the leg on the line into the end of the move
+			holding = hold;
+			lineX = m.x;
+			lineY = m.y;
+			lineTheta = theta;
+			if (holding && odometer != pose) toOdometer();
+
+			double leg = m.distance - m.trim;
+			synchronized (this) {
+				next = pending.isEmpty() ? null : pending.get(0);}
+			double cut = next == null || leg <= 0 ? -1 : corner(next.turn);
+			if (cut < 0 || cut > leg || cut > next.distance){
+				// Nothing to blend into, so stop at the end of the leg
+				if (leg > 0) drive(degrees(leg), degrees(leg), forwardSpeed, forwardSpeed, true);
+			} else {
+				// Hold the straight on while the inner wheel eases into the arc
+				double late = next.turn == 0 ? 0 : Math.min(lag(forwardSpeed), next.distance - cut);
+				drive(degrees(leg - cut + late), degrees(leg - cut + late), forwardSpeed, forwardSpeed, false);
+				holding = false;
+				if (next.turn != 0) arc(next.turn, forwardSpeed);
+				next.blended = true;
+				next.trim = cut + late;}
+			holding = false;
+
+			m.done = true;
+			synchronized (this) {
+				busy = next != null && next.blended;}
+		}
+	}
+
+	/****
+	 * Get the turn to face along a vector
+	 * @param dx X component of the vector in cm
+	 * @param dy Y component of the vector in cm
+	 * @param theta Current heading in radians
+	 * @return Shortest turn clockwise in degrees
+	 */
+	private static double heading(double dx, double dy, double theta) {
+		return Math.toDegrees(Math.IEEEremainder(Math.atan2(dx, dy) - theta, 2 * Math.PI));}
+
+	/****
+	 * Get how far before and after a corner the arc through it starts and ends
+	 * @param turn Turn at the corner in degrees
+	 * @return Distance in cm, 0 for no turn, or -1 if the corner is too sharp to blend
+	 */
+	private static double corner(double turn) {
+		if (Math.abs(turn) > BLEND_ANGLE) return -1;
+		return BLEND_RADIUS * Math.tan(Math.toRadians(Math.abs(turn)) / 2);}
+
+	/****
+	 * Get how much sooner than planned the arc through a corner ends with a
+	 * profile. The inner wheel, easing down into the arc, gets ahead and
+	 * reaches its target early, which tightens the turn by about as far as
+	 * the outer wheel travels while the inner one eases.
+	 *
+	 * @param fast Speed of the outer wheel in degrees per second
+	 * @return Distance in cm, 0 without a profile
+	 */
+	private double lag(int fast) {
+		if (acceleration == 0) return 0;
+		double half = Driver.WHEEL_BASE / 2, change = fast * 2 * half / (BLEND_RADIUS + half);
+		return Math.PI * Driver.WHEEL_RADIUS / 180 * fast * change / acceleration;}
+	/** Drive an arc of BLEND_RADIUS through a corner without stopping, the outer wheel at a speed */
+	private void arc(double turn, int fast) {
+		double angle = Math.toRadians(Math.abs(turn)), half = Driver.WHEEL_BASE / 2;
+		double outer = degrees((BLEND_RADIUS + half) * angle), inner = degrees((BLEND_RADIUS - half) * angle);
+		int slow = (int) Math.round(fast * inner / outer);
+		if (turn > 0) drive(outer, inner, fast, slow, false);
+		else drive(inner, outer, slow, fast, false);
+	}
+
+	/****
+	 * Move the wheels on from their last targets
+	 *
+	 * @param left Angle to turn the left wheel by in degrees
+	 * @param right Angle to turn the right wheel by in degrees
+	 * @param leftSpeed Top speed of the left wheel in degrees per second, in proportion to its angle
+	 * @param rightSpeed Top speed of the right wheel likewise
+	 * @param stop Whether to wait for the wheels to stop, rather than until they are due
+	 * 		at their targets, so the next move carries on without a pause
+	 */
+	private void drive(double left, double right, int leftSpeed, int rightSpeed, boolean stop) {
+		leftTarget += left;
+		rightTarget += right;
+		if (acceleration > 0){
+			profile(leftSpeed, rightSpeed, stop);
+			return;}
+		leftMotor.setSpeed(leftSpeed);
+		rightMotor.setSpeed(rightSpeed);
+		leftMotor.rotateTo((int) Math.round(leftTarget), true);
+		rightMotor.rotateTo((int) Math.round(rightTarget), true);
+		if (stop){
+			leftMotor.waitComplete();
+			rightMotor.waitComplete();
+		} else {
+			double seconds = Math.max(Math.abs(leftTarget - leftMotor.getTachoCount()) / leftSpeed,
+					Math.abs(rightTarget - rightMotor.getTachoCount()) / rightSpeed);
+			clock.sleepUntil(clock.nanoTime() + (long) (seconds * 1e9));}
+	}
+
+	/****
+	 * Move the wheels to their targets, stepping the speed of the faster one
+	 * up by the acceleration, and down again in time to stop if asked to,
+	 * and the slower one in proportion. Each wheel's own speed also changes
+	 * by no more than the acceleration a step, so e.g. the inner wheel eases
+	 * into and out of an arc. The motors stop at their targets by
+	 * themselves, so a late step cannot overshoot. While holding a
+	 * straight, each step also trims the wheels apart to steer back onto
+	 * the line.
+	 *
+	 * @param leftSpeed Top speed of the left wheel in degrees per second
+	 * @param rightSpeed Top speed of the right wheel in degrees per second
+	 * @param stop Whether to stop at the targets
+	 */
+	private void profile(int leftSpeed, int rightSpeed, boolean stop) {
+		int top = Math.max(leftSpeed, rightSpeed);
+		long targetL = Math.round(leftTarget), targetR = Math.round(rightTarget);
+		int tachoL = leftMotor.getTachoCount(), tachoR = rightMotor.getTachoCount();
+		int dirL = targetL > tachoL ? 1 : -1, dirR = targetR > tachoR ? 1 : -1;
+		double expectL = tachoL, expectR = tachoR;	// Where the commanded speeds should have taken the wheels
+		boolean steer = holding && dirL > 0 && dirR > 0;
+		double trim = 0;							// Degrees the left target has moved back and the right on
+		double tick = Math.PI * Driver.WHEEL_RADIUS / 180;	// cm a wheel travels per degree
+		double integral = 0, error = 0;				// Of the hold's error, in radian seconds and radians
+		double u = 0;								// Speed taken off the left wheel and given to the right
+		boolean started = false;
+		long time = clock.nanoTime();
+
+		while (true){
+			if (started && !leftMotor.isMoving() && !rightMotor.isMoving())
+				break;
+			double dueL = Math.abs(targetL - tachoL) / speedL, dueR = Math.abs(targetR - tachoR) / speedR;
+			if (!stop && started && Math.max(dueL, dueR) <= PERIOD / 1000.0){
+				// Due at the targets before the next step; carry on into the next move
+				clock.sleepUntil(time + (long) (Math.max(dueL, dueR) * 1e9));
+				leftTarget -= trim;
+				rightTarget += trim;
+				return;}
+
+			// Time the faster wheel needs at top speed, as degrees at top speed
+			double remaining = top * Math.max(Math.abs(targetL - tachoL) / (double) leftSpeed, Math.abs(targetR - tachoR) / (double) rightSpeed);
+			double step = acceleration * PERIOD / 1000.0;
+			speed = Math.min(top, speed + step);
+			if (stop) speed = Math.min(speed, Math.sqrt(2 * acceleration * remaining));
+			speed = Math.max(speed, Math.min(MIN_SPEED, top));
+			speedL = Math.max(1, approach(speedL, speed * leftSpeed / top, step));
+			speedR = Math.max(1, approach(speedR, speed * rightSpeed / top, step));
+
+			if (steer){
+				// Too far clockwise, or right of the line, gives a positive error, so turn left
+				Pose p = odometer.getPose();
+				double before = error, dt = PERIOD / 1000.0, most = MAX_TRIM * top / KI;
+				double off = Math.IEEEremainder(p.getTheta() - lineTheta, 2 * Math.PI);
+				error = off + CROSS_TRACK * ((p.getX() - lineX) * Math.cos(lineTheta) - (p.getY() - lineY) * Math.sin(lineTheta));
+				integral = Math.max(-most, Math.min(most, integral + error * dt));
+				// Change the trim no faster than the profile changes speeds, so it can't spin a wheel
+				double limit = MAX_TRIM * Math.min(speedL, speedR);
+				u = approach(u, KP * error + KI * integral + (started ? KD * (error - before) / dt : 0), step);
+				u = Math.max(-limit, Math.min(limit, u));
+				// Set the targets apart by what is left of the heading error, so
+				// whichever wheel gets there first, the leg ends on the line's heading
+				trim = 0.5 * ((leftTarget - rightTarget) - (tachoL - tachoR) + off * Driver.WHEEL_BASE / tick);}
+			int l = (int) Math.round(speedL - u), r = (int) Math.round(speedR + u);
+			leftMotor.setSpeed(l);
+			rightMotor.setSpeed(r);
+			long toL = Math.round(leftTarget - trim), toR = Math.round(rightTarget + trim);
+			if (!started || toL != targetL || toR != targetR){
+				targetL = toL;
+				targetR = toR;
+				leftMotor.rotateTo((int) targetL, true);
+				rightMotor.rotateTo((int) targetR, true);
+				started = true;}
+
+			long last = time;
+			time += PERIOD * 1000000L;
+			clock.sleepUntil(time);
+			Thread.interrupted();
+			time = clock.nanoTime();
+			double dt = (time - last) / 1e9;
+			tachoL = leftMotor.getTachoCount();
+			tachoR = rightMotor.getTachoCount();
+			expectL = expect(expectL, dirL * l * dt, targetL);
+			expectR = expect(expectR, dirR * r * dt, targetR);
+			double aheadL = dirL * (tachoL - expectL), aheadR = dirR * (tachoR - expectR);
+			if (aheadL > SLIP_DEGREES || aheadR > SLIP_DEGREES){
+				// Spinning: ease off so the wheel grips again, and ramp more gently from now on
+				slips++;
+				speed *= 0.5;
+				speedL *= 0.5;
+				speedR *= 0.5;
+				acceleration = Math.max(MIN_ACCELERATION, acceleration / 2);
+				aheadL = aheadR = 0;}
+			// Start again from the tachos where a wheel lags, e.g. arriving early at its target
+			if (aheadL <= 0) expectL = tachoL;
+			if (aheadR <= 0) expectR = tachoR;
+		}
+		// Carry on from where the hold steered the wheels to
+		leftTarget -= trim;
+		rightTarget += trim;
+		if (stop){
+			leftMotor.waitComplete();
+			rightMotor.waitComplete();}
+		speed = speedL = speedR = 0;
+	}
+
+	/** Carry the line held from the pose source's frame into the odometer's */
+	private void toOdometer() {
+		Pose p = pose.getPose(), o = odometer.getPose();
+		double turn = o.getTheta() - p.getTheta(), sin = Math.sin(turn), cos = Math.cos(turn);
+		double dx = lineX - p.getX(), dy = lineY - p.getY();
+		lineX = o.getX() + dx * cos + dy * sin;
+		lineY = o.getY() - dx * sin + dy * cos;
+		lineTheta += turn;
+	}
+
+	/** Move a speed toward another by at most a step */
+	private static double approach(double from, double to, double step) {
+		return to > from ? Math.min(to, from + step) : Math.max(to, from - step);}
+
+	/** Advance where a wheel should be by a commanded step, stopping at its target */
+	private static double expect(double from, double step, double target) {
+		double to = from + step;
+		return step > 0 ? Math.min(to, target) : Math.max(to, target);}
+
+	/** Convert a distance travelled by a wheel to degrees */
+	private static double degrees(double distance) {
+		return 180.0 * distance / (Math.PI * Driver.WHEEL_RADIUS);}
+}
@@ -0,0 +1,35 @@
+import lejos.nxt.NXTRegulatedMotor;
+
+/******************************************************************************
+ * DriveMotor backed by a real NXT motor
+ */
+public class NXTDriveMotor implements DriveMotor {
+	private final NXTRegulatedMotor motor;
+	
+	/****
+	 * Wrap an NXT motor
+	 * @param motor The motor to drive
+	 */
+	public NXTDriveMotor(NXTRegulatedMotor motor) {
+		this.motor = motor;}
+	
+	public int getTachoCount() { return motor.getTachoCount(); }
+	
+	public void resetTachoCount() { motor.resetTachoCount(); }
+	
+	public void setSpeed(int speed) { motor.setSpeed(speed); }
+	
+	public void rotate(int angle, boolean immediateReturn) { motor.rotate(angle, immediateReturn); }
+	
+	public void rotateTo(int limitAngle, boolean immediateReturn) { motor.rotateTo(limitAngle, immediateReturn); }
+	
+	public void forward() { motor.forward(); }
+	
+	public void backward() { motor.backward(); }
+	
+	public void stop() { motor.stop(); }
+	
+	public boolean isMoving() { return motor.isMoving(); }
+	
+	public void waitComplete() { motor.waitComplete(); }
+}
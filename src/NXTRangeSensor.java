@@ -0,0 +1,21 @@
+import lejos.nxt.UltrasonicSensor;
+
+/******************************************************************************
+ * RangeSensor backed by a real NXT ultrasonic sensor
+ */
+public class NXTRangeSensor implements RangeSensor {
+	private final UltrasonicSensor us;
+	
+	/****
+	 * Wrap an NXT ultrasonic sensor
+	 * @param us The sensor to read
+	 */
+	public NXTRangeSensor(UltrasonicSensor us) {
+		this.us = us;}
+	
+	public void ping() { us.ping(); }
+	
+	public void continuous() { us.continuous(); }
+	
+	public int getDistance() { return us.getDistance(); }
+}
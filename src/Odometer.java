@@ -1,5 +1,3 @@
-import lejos.nxt.LCD;
-
 /******************************************************************************
  * Group 5
  * @author Scott Cooper	- 260503452
@@ -9,112 +7,408 @@ import lejos.nxt.LCD;
  * X, Y, and Theta coodinates.
  */
 
-public class Odometer extends Thread {
+public class Odometer extends Thread implements PoseSource {
 	// robot position
 	/*constants*/
 	
-	// odometer update period, in ms
-	private static final int ODOMETER_PERIOD = 15;
-	//LCD update period
+	/** Default odometer update period, in ms */
+	public static final int PERIOD = 5;
+	
+	/** How each update is computed */
+	public enum Kernel {
+		DOUBLE,			// In double precision
+		FIXED_POINT		// In integers, with table lookups for trig, for the brick's FPU-less ARM
+	}
+	
+	/** Distance a wheel travels per tacho count, in cm */
+	private static final double TICK = Math.PI * Driver.WHEEL_RADIUS / 180;
+	/** Heading change per count of difference between the wheels, as a binary angle scaled by 2^16 */
+	private static final long HEADING_SCALE = Math.round(TICK / Driver.WHEEL_BASE / FixedTrig.RADIANS * 65536);
+	/** Distance per unit of the fixed point position: half a count times a fixed point sine, in cm */
+	private static final double POSITION_SCALE = 0.5 * TICK / FixedTrig.ONE;
 	
 	public static final double TILE_SIZE = 30.46;
 	
+	/** Number of past updates kept for poseAt(), 640ms at the default period */
+	public static final int HISTORY = 128;
+	
 	/*variables*/ 
-	private static int previousTachoL,          /* Tacho L at last sample */
-					   previousTachoR,         /* Tacho R at last sample */
-					   currentTachoL,           /* Current tacho L */
-					   currentTachoR;           /* Current tacho R */
-	private double x, y, theta;
+	private int previousTachoL,          /* Tacho L at last sample */
+				previousTachoR,          /* Tacho R at last sample */
+				currentTachoL,           /* Current tacho L */
+				currentTachoR;           /* Current tacho R */
+	// Current pose, published under a sequence lock so updates allocate
+	// nothing and reads never lock. seq is odd while a write is under way
+	private volatile int seq;
+	private volatile double x, y, theta;
 	private boolean modTheta; // Whether or not to keep theta within [0, 360)
+	private final Tachometer leftTacho, rightTacho;	// Wheel tachometers
+	private final Clock clock;						// Time source for the update period
+	private volatile boolean running;				// Cleared to stop the update loop
+	private final long period;						// Time between updates in ns
+	private final Kernel kernel;					// How each update is computed
+	private volatile Recorder recorder;				// Where moving updates are recorded, or null
+	private int recordEvery, unrecorded;			// Moving updates per record, and since the last
+	
+	// Fixed point state. Position is originX/Y plus POSITION_SCALE times fixedX/Y,
+	// and heading is headingBase plus HEADING_SCALE times the count difference
+	private long fixedX, fixedY;
+	private double originX, originY;
+	private long headingBase;
+	
+	// Ring buffer of past updates, oldest overwritten first. Guarded by this
+	private final long[] historyTime = new long[HISTORY];		// When each update read the counts, in ns
+	private final double[] historyX = new double[HISTORY],		// Pose after each update
+				historyY = new double[HISTORY],
+				historyTheta = new double[HISTORY];
+	private final int[] historyTachoL = new int[HISTORY],		// Counts read by each update
+				historyTachoR = new int[HISTORY];
+	private int historyNext, historySize;						// Slot to write next, and slots in use
 	
-	// default constructor
-	public Odometer() {
-		x = 0.0;
-		y = 0.0;
-		theta = 0.0;
+	// Scheduling statistics, written only by the update loop
+	private volatile long updates,		// Updates run
+				missed,					// Deadlines passed with no update started
+				totalJitter, maxJitter,	// Lateness of each update's start, in ns
+				totalCost, maxCost,		// Time spent in each update, in ns
+				interrupts;				// Sleeps cut short by an interrupt
+	
+	/****
+	 * Create an odometer tracking two wheels, updating every PERIOD ms
+	 * 
+	 * @param left Tachometer of the left wheel
+	 * @param right Tachometer of the right wheel
+	 * @param clock Time source for the update period
+	 */
+	public Odometer(Tachometer left, Tachometer right, Clock clock) {
+		this(left, right, clock, PERIOD, Kernel.DOUBLE);}
+	
+	/****
+	 * Create an odometer tracking two wheels
+	 * 
+	 * @param left Tachometer of the left wheel
+	 * @param right Tachometer of the right wheel
+	 * @param clock Time source for the update period
+	 * @param period Time between updates in ms
+	 * @param kernel How each update is computed
+	 */
+	public Odometer(Tachometer left, Tachometer right, Clock clock, int period, Kernel kernel) {
+		if (period <= 0) throw new RuntimeException("Odometer period must be positive");
+		this.period = period * 1000000L;
+		this.kernel = kernel;
 		this.modTheta = true;
-		Lab5.LEFT_MOTOR.resetTachoCount();
-		Lab5.RIGHT_MOTOR.resetTachoCount();
+		this.leftTacho = left;
+		this.rightTacho = right;
+		this.clock = clock;
+		this.running = true;
+		leftTacho.resetTachoCount();
+		rightTacho.resetTachoCount();
 		
 		previousTachoL = 0;
 		previousTachoR = 0;
 		currentTachoL = 0;
 		currentTachoR = 0;
-		
-	    LCD.clear();
-	    LCD.drawString("Odometer Demo",0,0,false);
-	    LCD.drawString("Current X  ",0,4,false);
-	    LCD.drawString("Current Y  ",0,5,false);
-	    LCD.drawString("Current T  ",0,6,false);
-
 	}
 
-	// run method (required for Thread)
+	/****
+	 * Update at a fixed rate. Deadlines are every period from the start, so
+	 * a late update is followed by a shorter sleep rather than pushing every
+	 * later update back. An update that overruns whole periods skips their
+	 * deadlines, counting them as missed, since one update takes in all the
+	 * motion since the last anyway.
+	 */
 	public void run() {
-		long updateStart, updateEnd;
-
-		while(true){
-			updateStart = System.currentTimeMillis();
-			// put (some of) your odometer code here
-			double leftDistance, rightDistance, deltaDistance, deltaTheta, dX, dY;
-			currentTachoL = Lab5.LEFT_MOTOR.getTachoCount();
-			currentTachoR = Lab5.RIGHT_MOTOR.getTachoCount();
-			
-			leftDistance = 3.14159 * Driver.WHEEL_RADIUS * (currentTachoL - previousTachoL) / 180;
-			rightDistance = 3.14159 * Driver.WHEEL_RADIUS * (currentTachoR - previousTachoR) / 180;
-			
-			previousTachoL = currentTachoL;
-			previousTachoR = currentTachoR;
+		long deadline = clock.nanoTime();
+
+		while(running){
+			long start = clock.nanoTime();
+			update(start);
+			long end = clock.nanoTime();
 			
-			deltaDistance = .5 * (leftDistance + rightDistance);
-			deltaTheta = (leftDistance - rightDistance) / Driver.WHEEL_BASE;
-
-			synchronized (this) {
-				// don't use the variables x, y, or theta anywhere but here!
-				if (modTheta)
-					theta = (theta + deltaTheta) % (2 * Math.PI);
-				else theta += deltaTheta;
-				
-				dX = deltaDistance * Math.sin(theta);
-				dY = deltaDistance * Math.cos(theta);
-				
-				x += dX;
-				y += dY;
-			}
+			long jitter = start - deadline, cost = end - start;
+			updates++;
+			totalJitter += jitter;
+			totalCost += cost;
+			if (jitter > maxJitter) maxJitter = jitter;
+			if (cost > maxCost) maxCost = cost;
 			
-			// this ensures that the odometer only runs once every period
-			updateEnd = System.currentTimeMillis();
-			if (updateEnd - updateStart < ODOMETER_PERIOD) {
-				try {
-					Thread.sleep(ODOMETER_PERIOD - (updateEnd - updateStart));
-				} catch (InterruptedException e) {
-					// there is nothing to be done here because it is not
-					// expected that the odometer will be interrupted by
-					// another thread
-				}
-			}
+			deadline += period;
+			if (end - deadline >= 0){
+				long skipped = (end - deadline) / period + 1;
+				missed += skipped;
+				deadline += skipped * period;}
+			clock.sleepUntil(deadline);
+			// Only halt() stops the loop. An interrupt ends the sleep early
+			// and is cleared, or every later sleep would return at once
+			if (Thread.interrupted()) interrupts++;
 		}
 	}
+	
+	/****
+	 * Integrate the wheel motion since the last update into the pose, and
+	 * record it in the history
+	 * 
+	 * @param stamp When the counts are read, in ns
+	 */
+	void update(long stamp) {
+		int tachoL = leftTacho.getTachoCount(), tachoR = rightTacho.getTachoCount();
+		boolean moved = false;
+		double x, y, theta;
+		synchronized (this) {
+			// writers still take turns; readers just take the latest pose
+			if (tachoL != previousTachoL || tachoR != previousTachoR){	// Otherwise nothing to publish
+				currentTachoL = tachoL;
+				currentTachoR = tachoR;
+				if (kernel == Kernel.FIXED_POINT) updateFixed();
+				else updateDouble();
+				previousTachoL = currentTachoL;
+				previousTachoR = currentTachoR;
+				moved = true;}
+			record(stamp, tachoL, tachoR);
+			x = this.x;
+			y = this.y;
+			theta = this.theta;
+		}
+		Recorder r = recorder;
+		if (moved && r != null && ++unrecorded >= recordEvery){
+			unrecorded = 0;
+			r.record(Recorder.TACHO, stamp, tachoL, tachoR, 0);
+			r.record(stamp, x, y, theta);}
+	}
+	
+	/**
+	 * Update in double precision. Each wheel turns at a steady rate between
+	 * updates as far as the odometer can tell, so the robot moves along an
+	 * arc, whose chord is followed exactly.
+	 */
+	private void updateDouble() {
+		double leftDistance, rightDistance, deltaDistance, deltaTheta, chord, dX, dY;
+		leftDistance = TICK * (currentTachoL - previousTachoL);
+		rightDistance = TICK * (currentTachoR - previousTachoR);
+		
+		deltaDistance = .5 * (leftDistance + rightDistance);
+		deltaTheta = (leftDistance - rightDistance) / Driver.WHEEL_BASE;
+		// chord of the arc, along the heading halfway through it
+		chord = deltaTheta == 0 ? deltaDistance : deltaDistance * Math.sin(.5 * deltaTheta) / (.5 * deltaTheta);
+
+		double mid = this.theta + .5 * deltaTheta, theta;
+		if (modTheta)
+			theta = (this.theta + deltaTheta) % (2 * Math.PI);
+		else theta = this.theta + deltaTheta;
+		
+		dX = chord * Math.sin(mid);
+		dY = chord * Math.cos(mid);
+		
+		publish(x + dX, y + dY, theta);
+	}
+	
+	/**
+	 * Update in fixed point. The heading comes straight from the total count
+	 * difference, so rounding never builds up in it, and the position sums
+	 * counts times table sines, converting to cm only to publish. Moves are
+	 * taken along the heading halfway through them; at the turn rates the
+	 * robot reaches in one period, the chord of the arc is shorter than that
+	 * by less than the table's error.
+	 */
+	private void updateFixed() {
+		int moved = (currentTachoL - previousTachoL) + (currentTachoR - previousTachoR);	// Twice the counts moved
+		int mid = (int) (headingBase + (((long) ((previousTachoL - previousTachoR) + (currentTachoL - currentTachoR))
+				* HEADING_SCALE) >> 17));
+		fixedX += (long) moved * FixedTrig.sin(mid);
+		fixedY += (long) moved * FixedTrig.cos(mid);
+		long heading = heading();
+		publish(originX + fixedX * POSITION_SCALE, originY + fixedY * POSITION_SCALE,
+				(modTheta ? (int) heading : heading) * FixedTrig.RADIANS);
+	}
+	
+	/** Publish a pose. Only called holding the lock, so writers take turns */
+	private void publish(double x, double y, double theta) {
+		seq++;
+		this.x = x;
+		this.y = y;
+		this.theta = theta;
+		seq++;
+	}
+	
+	/** Add the current pose and counts to the history, overwriting the oldest if it is full */
+	private void record(long stamp, int tachoL, int tachoR) {
+		int i = historyNext;
+		historyTime[i] = stamp;
+		historyX[i] = x;
+		historyY[i] = y;
+		historyTheta[i] = theta;
+		historyTachoL[i] = tachoL;
+		historyTachoR[i] = tachoR;
+		historyNext = (i + 1) % HISTORY;
+		if (historySize < HISTORY) historySize++;
+	}
+	
+	/**
+	 * Find the newest update in the history at or before a time
+	 * 
+	 * @param stamp Time in ns
+	 * @return Slot of the update, -1 if the history starts after stamp
+	 */
+	private int historyBefore(long stamp) {
+		int i = historyNext;
+		for (int n = 0; n < historySize; n++){
+			i = (i + HISTORY - 1) % HISTORY;
+			if (historyTime[i] - stamp <= 0) return i;}
+		return -1;
+	}
+	
+	/****
+	 * Get where the robot was at a time in the last HISTORY updates,
+	 * interpolating between the updates either side of it. Before the
+	 * history this is its oldest pose; after it, the current pose.
+	 * 
+	 * @param stamp Time as given by the odometer's Clock.nanoTime(), in ns
+	 * @return The pose at that time
+	 */
+	public synchronized Pose poseAt(long stamp) {
+		int i = historyBefore(stamp), newest = (historyNext + HISTORY - 1) % HISTORY;
+		if (historySize == 0 || i == newest) return new Pose(x, y, theta);
+		if (i < 0) {
+			i = (historyNext + HISTORY - historySize) % HISTORY;
+			return new Pose(historyX[i], historyY[i], historyTheta[i]);}
+		
+		int j = (i + 1) % HISTORY;
+		double f = (double) (stamp - historyTime[i]) / (historyTime[j] - historyTime[i]);
+		double turn = Math.IEEEremainder(historyTheta[j] - historyTheta[i], 2 * Math.PI);
+		return new Pose(historyX[i] + f * (historyX[j] - historyX[i]),
+				historyY[i] + f * (historyY[j] - historyY[i]), historyTheta[i] + f * turn);
+	}
+	
+	/****
+	 * Get the tacho counts at a time in the last HISTORY updates, the same
+	 * way as poseAt()
+	 * 
+	 * @param stamp Time as given by the odometer's Clock.nanoTime(), in ns
+	 * @param counts Array of at least 2 to hold the left and right counts
+	 */
+	public synchronized void tachoAt(long stamp, double[] counts) {
+		int i = historyBefore(stamp), newest = (historyNext + HISTORY - 1) % HISTORY;
+		if (historySize == 0){
+			counts[0] = previousTachoL;
+			counts[1] = previousTachoR;
+			return;}
+		if (i < 0) i = (historyNext + HISTORY - historySize) % HISTORY;
+		if (i == newest || historyTime[i] - stamp > 0){
+			counts[0] = historyTachoL[i];
+			counts[1] = historyTachoR[i];
+			return;}
+		
+		int j = (i + 1) % HISTORY;
+		double f = (double) (stamp - historyTime[i]) / (historyTime[j] - historyTime[i]);
+		counts[0] = historyTachoL[i] + f * (historyTachoL[j] - historyTachoL[i]);
+		counts[1] = historyTachoR[i] + f * (historyTachoR[j] - historyTachoR[i]);
+	}
+	
+	/** Get the fixed point heading as of the last counts read, 2^32 to the turn */
+	private long heading() {
+		return headingBase + (((long) (currentTachoL - currentTachoR) * HEADING_SCALE) >> 16);}
+	
+	/**
+	 * Make the state agree with a pose that was set. Poses before it were in
+	 * another frame, so the history starts again from it.
+	 */
+	private void rebase() {
+		historySize = 0;
+		if (kernel != Kernel.FIXED_POINT) return;
+		originX = x - fixedX * POSITION_SCALE;
+		originY = y - fixedY * POSITION_SCALE;
+		headingBase += (long) Math.floor(theta / FixedTrig.RADIANS + 0.5) - heading();
+	}
+	
+	/****
+	 * Stop the update loop after its current period
+	 */
+	public void halt() {
+		running = false;}
+	
+	/****
+	 * Record the counts and pose of updates in which the wheels moved. At
+	 * the default period every update while driving is 40 bytes of records
+	 * every 5ms, so recording every few is usually plenty.
+	 * 
+	 * @param recorder Recorder to record to, or null to stop recording
+	 * @param every Record one in this many updates in which the wheels moved
+	 */
+	public void setRecorder(Recorder recorder, int every) {
+		if (every <= 0) throw new RuntimeException("Must record at least every update");
+		this.recordEvery = every;
+		this.recorder = recorder;}
 
 	
-	// Getters and Setters for Odometer parameters
-	public synchronized double getX() {return x;}
+	// Getters and Setters for Odometer parameters. Getters never lock; to read
+	// more than one value, use getPose() so they all come from the same instant
+	public double getX() {return x;}
 
-	public synchronized double getY() {return y;}
+	public double getY() {return y;}
 
-	public synchronized double getTheta() {return theta;}
+	public double getTheta() {return theta;}
+
+	public Pose getPose() {
+		while (true){
+			int s = seq;
+			double x = this.x, y = this.y, theta = this.theta;
+			if ((s & 1) == 0 && seq == s) return new Pose(x, y, theta);
+			Thread.yield();}
+	}
+	
+	/****
+	 * Get the whole pose from the same instant, like getPose(), without
+	 * allocating. If an update is being published, wait for it, giving it
+	 * the CPU.
+	 * 
+	 * @param pose Array of at least 3 to hold x, y and theta
+	 */
+	public void getPose(double[] pose) {
+		while (true){
+			int s = seq;
+			pose[0] = x;
+			pose[1] = y;
+			pose[2] = theta;
+			if ((s & 1) == 0 && seq == s) return;
+			Thread.yield();}
+	}
 
 	public synchronized boolean modTheta() {return modTheta;}
 
-	public synchronized void setX(double x) { this.x = x; }
+	// Scheduling statistics since the odometer started. Times are in ns
+	public long getUpdates() {return updates;}
+
+	public long getMissedDeadlines() {return missed;}
+
+	public long getMaxJitter() {return maxJitter;}
 
-	public synchronized void setY(double y) { this.y = y; }
+	public long getMeanJitter() {long n = updates; return n == 0 ? 0 : totalJitter / n;}
 
-	public synchronized void setThetaRad(double theta) { this.theta = theta % (2 * Math.PI); }
+	public long getMaxCost() {return maxCost;}
+
+	public long getMeanCost() {long n = updates; return n == 0 ? 0 : totalCost / n;}
+
+	public long getInterrupts() {return interrupts;}
+
+	public synchronized void setX(double x) { publish(x, y, theta); rebase(); }
+
+	public synchronized void setY(double y) { publish(x, y, theta); rebase(); }
+
+	public synchronized void setThetaRad(double theta) { publish(x, y, theta % (2 * Math.PI)); rebase(); }
 	
-	public synchronized void setThetaDeg(double theta) { this.theta = Math.toRadians(theta % (360)); }
+	public synchronized void setThetaDeg(double theta) { setThetaRad(Math.toRadians(theta % (360))); }
+
+	/****
+	 * Set the whole pose at once, so no reader sees part of it
+	 * 
+	 * @param x X coordinate in cm
+	 * @param y Y coordinate in cm
+	 * @param theta Heading in radians
+	 */
+	public synchronized void setPose(double x, double y, double theta) {
+		publish(x, y, theta % (2 * Math.PI));
+		rebase();}
 
 	public synchronized void setModTheta(boolean modTheta) {
 		this.modTheta = modTheta;
-		theta %= (Math.PI * 2);}
-}
\ No newline at end of file
+		setThetaRad(theta);}
+}
\ No newline at end of file
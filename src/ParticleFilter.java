@@ -0,0 +1,311 @@
+import java.util.Random;
+
+/******************************************************************************
+ * Continuous pose tracking on a known map once localization is done.
+ *
+ * Each period, the change in the Odometer's pose since the last period moves
+ * every particle, with noise, and an ultrasonic reading weighs each particle
+ * by how well it agrees with the distance to the nearest block along its
+ * heading. Particles are resampled with a low variance resampler when too few
+ * of them carry the weight. The weighted mean of the particles is published
+ * as the corrected pose.
+ *
+ * Particles are stored as parallel arrays, double buffered for resampling, so
+ * a period allocates nothing. Weighing particles casts a ray per particle and
+ * is split across worker threads when more than one is asked for.
+ *
+ * Poses are in the Odometer's frame. Localizer leaves tile (0, 0) of the map
+ * centred on (-TILE_SIZE / 2, -TILE_SIZE / 2) in it, so map coordinates are
+ * one tile further along each axis.
+ */
+public class ParticleFilter extends Thread implements PoseSource {
+	/** Default number of particles, small enough for the brick */
+	public static final int PARTICLES = 200;
+	/** Default time between updates, in ms */
+	public static final int PERIOD = 100;
+	/** Default furthest ultrasonic reading used, in cm */
+	public static final int MAX_RANGE = 150;
+	/** Time to wait for a ping to come back, in ms */
+	private static final int PING_WAIT = 50;
+
+	/** Standard deviation of an ultrasonic reading, in cm */
+	private static final double SENSOR_SIGMA = 5;
+	/** Weight of a reading that has nothing to do with the map, against 1 for a perfect match */
+	private static final double OUTLIER = 0.05;
+	/** Standard deviation of the distance moved, as a fraction of the distance */
+	private static final double MOVE_NOISE = 0.05;
+	/** Standard deviation of the angle turned, as a fraction of the angle */
+	private static final double TURN_NOISE = 0.05;
+	/** Standard deviation of heading drift while driving, in radians per cm */
+	private static final double DRIFT = 0.002;
+
+	private final GridMap map;			// The map
+	private final PoseSource odo;		// Dead reckoning to correct
+	private final RangeSensor us;		// Ultrasonic sensor
+	private final Clock clock;			// Time source for the update period
+	private final int period;			// Time between updates in ms
+	private final int maxRange;			// Furthest reading used, in cm
+	private final int n;				// Number of particles
+	private final Random random;		// Motion noise and resampling
+	private double[] x, y, theta;		// Particle poses
+	private double[] nextX, nextY, nextTheta;	// Resampled particle poses
+	private final double[] weight;		// Particle weights, summing to 1
+	private Pose last;					// Odometer pose read last period
+	private volatile Pose pose;			// Published pose, replaced whole so reads never lock
+	private volatile boolean running;	// Cleared to stop the update loop
+
+	private final Worker[] workers;		// Threads weighing the other chunks, empty for one thread
+	private final Object jobs;			// Lock the workers wait on
+	private int generation;				// Incremented for each reading to weigh
+	private int pending;				// Workers still weighing the current reading
+	private double reading;				// Reading being weighed
+
+	/****
+	 * Create a filter with the default number of particles, period and range,
+	 * weighing particles on the calling thread
+	 *
+	 * @param map The map
+	 * @param odo Odometer to correct
+	 * @param us Ultrasonic sensor, facing forward
+	 * @param clock Time source for the update period
+	 */
+	public ParticleFilter(GridMap map, PoseSource odo, RangeSensor us, Clock clock) {
+		this(map, odo, us, clock, PARTICLES, PERIOD, MAX_RANGE, 1, clock.nanoTime());}
+
+	/****
+	 * Create a filter
+	 *
+	 * @param map The map
+	 * @param odo Odometer to correct
+	 * @param us Ultrasonic sensor, facing forward
+	 * @param clock Time source for the update period
+	 * @param particles Number of particles
+	 * @param period Time between updates in ms
+	 * @param maxRange Furthest ultrasonic reading used, in cm
+	 * @param threads Number of threads weighing particles, including the filter's own
+	 * @param seed Seed for motion noise and resampling
+	 */
+	public ParticleFilter(GridMap map, PoseSource odo, RangeSensor us, Clock clock,
+			int particles, int period, int maxRange, int threads, long seed) {
+		this.map = map;
+		this.odo = odo;
+		this.us = us;
+		this.clock = clock;
+		this.period = period;
+		this.maxRange = maxRange;
+		this.n = particles;
+		this.random = new Random(seed);
+		this.x = new double[n];
+		this.y = new double[n];
+		this.theta = new double[n];
+		this.nextX = new double[n];
+		this.nextY = new double[n];
+		this.nextTheta = new double[n];
+		this.weight = new double[n];
+		this.running = true;
+
+		this.jobs = new Object();
+		this.workers = new Worker[threads - 1];
+		for (int i = 0; i < workers.length; i++){
+			workers[i] = new Worker(n * (i + 1) / threads, n * (i + 2) / threads);
+			workers[i].setDaemon(true);
+			workers[i].start();}
+
+		Pose p = odo.getPose();
+		reset(p.getX(), p.getY(), p.getTheta(), 0, 0);
+	}
+
+	/****
+	 * Scatter the particles around a pose, and take the Odometer's current
+	 * pose as the point motion is measured from
+	 *
+	 * @param x X coordinate in cm
+	 * @param y Y coordinate in cm
+	 * @param theta Heading in radians
+	 * @param sigmaXY Standard deviation of each coordinate in cm
+	 * @param sigmaTheta Standard deviation of the heading in radians
+	 */
+	public synchronized void reset(double x, double y, double theta, double sigmaXY, double sigmaTheta) {
+		for (int i = 0; i < n; i++){
+			this.x[i] = x + sigmaXY * random.nextGaussian();
+			this.y[i] = y + sigmaXY * random.nextGaussian();
+			this.theta[i] = theta + sigmaTheta * random.nextGaussian();
+			weight[i] = 1.0 / n;}
+		last = odo.getPose();
+		pose = new Pose(x, y, theta);
+	}
+
+	// run method (required for Thread)
+	public void run() {
+		while (running){
+			long start = clock.currentTimeMillis();
+			us.ping();
+			clock.sleep(PING_WAIT);
+			step(us.getDistance());
+
+			long spent = clock.currentTimeMillis() - start;
+			if (spent < period)
+				clock.sleep(period - spent);
+			Thread.interrupted();		// Only halt() stops the filter, so a later sleep or wait mustn't end at once
+		}
+	}
+
+	/****
+	 * Stop the update loop and the workers after the current period
+	 */
+	public void halt() {
+		running = false;
+		synchronized (jobs){
+			jobs.notifyAll();}
+	}
+
+	/****
+	 * Move the particles by the Odometer's motion since the last step, then
+	 * weigh them by a reading and publish the corrected pose
+	 *
+	 * @param distance Ultrasonic reading in cm
+	 */
+	public synchronized void step(int distance) {
+		move();
+		weigh(distance > maxRange ? maxRange : distance);
+		publish();
+	}
+
+	/** Apply the Odometer's motion, in the robot's frame, to every particle */
+	private void move() {
+		Pose now = odo.getPose();
+		double dx = now.getX() - last.getX(), dy = now.getY() - last.getY();
+		double turn = Math.IEEEremainder(now.getTheta() - last.getTheta(), 2 * Math.PI);
+		double mid = last.getTheta() + 0.5 * turn;
+		double forward = dx * Math.sin(mid) + dy * Math.cos(mid);
+		double side = dx * Math.cos(mid) - dy * Math.sin(mid);
+		last = now;
+		if (forward == 0 && side == 0 && turn == 0) return;
+
+		double turnSigma = TURN_NOISE * Math.abs(turn) + DRIFT * Math.abs(forward);
+		for (int i = 0; i < n; i++){
+			double f = forward * (1 + MOVE_NOISE * random.nextGaussian());
+			double t = turn + turnSigma * random.nextGaussian();
+			double h = theta[i] + 0.5 * t;
+			double sin = Math.sin(h), cos = Math.cos(h);
+			x[i] += f * sin + side * cos;
+			y[i] += f * cos - side * sin;
+			theta[i] += t;}
+	}
+
+	/** Weigh every particle by a reading, resampling if the weight is on too few */
+	private void weigh(double distance) {
+		if (workers.length == 0) weigh(distance, 0, n);
+		else {
+			synchronized (jobs){
+				reading = distance;
+				pending = workers.length;
+				generation++;
+				jobs.notifyAll();}
+			weigh(distance, 0, workers[0].from);
+			boolean interrupted = false;
+			synchronized (jobs){
+				while (pending > 0){
+					try {
+						jobs.wait();
+					} catch (InterruptedException e) {
+						interrupted = true;}
+				}
+			}
+			if (interrupted) Thread.currentThread().interrupt();
+		}
+
+		double sum = 0;
+		for (int i = 0; i < n; i++)
+			sum += weight[i];
+		if (!(sum > 0)){	// No particle agrees with the map - keep them all
+			for (int i = 0; i < n; i++)
+				weight[i] = 1.0 / n;
+			return;}
+
+		double squares = 0;
+		for (int i = 0; i < n; i++){
+			weight[i] /= sum;
+			squares += weight[i] * weight[i];}
+		if (1 / squares < 0.5 * n)		// Effective number of particles
+			resample();
+	}
+
+	/** Weigh particles from up to to by a reading */
+	private void weigh(double distance, int from, int to) {
+		double offset = Odometer.TILE_SIZE, scale = -0.5 / (SENSOR_SIGMA * SENSOR_SIGMA);
+		for (int i = from; i < to; i++){
+			double expected = Raycast.distance(map, Odometer.TILE_SIZE, x[i] + offset, y[i] + offset, theta[i], maxRange);
+			double error = distance - expected;
+			// A particle inside a block can't be right
+			weight[i] *= expected == 0 ? 0 : Math.exp(scale * error * error) + OUTLIER;}
+	}
+
+	/** Low variance resampling into the spare arrays, then swap them in */
+	private void resample() {
+		double step = 1.0 / n, target = step * random.nextDouble(), total = weight[0];
+		int j = 0;
+		for (int i = 0; i < n; i++, target += step){
+			while (target > total && j < n - 1)
+				total += weight[++j];
+			nextX[i] = x[j];
+			nextY[i] = y[j];
+			nextTheta[i] = theta[j];}
+
+		double[] t = x; x = nextX; nextX = t;
+		t = y; y = nextY; nextY = t;
+		t = theta; theta = nextTheta; nextTheta = t;
+		for (int i = 0; i < n; i++)
+			weight[i] = step;
+	}
+
+	/** Set the published pose to the weighted mean of the particles */
+	private void publish() {
+		double mx = 0, my = 0, sin = 0, cos = 0;
+		for (int i = 0; i < n; i++){
+			mx += weight[i] * x[i];
+			my += weight[i] * y[i];
+			sin += weight[i] * Math.sin(theta[i]);
+			cos += weight[i] * Math.cos(theta[i]);}
+		pose = new Pose(mx, my, Math.atan2(sin, cos));
+	}
+
+	/****
+	 * Get the corrected pose, as of the last step. Never waits for a step.
+	 *
+	 * @return The corrected pose
+	 */
+	public Pose getPose() {
+		return pose;}
+
+	/** Thread weighing one chunk of the particles for each reading */
+	private class Worker extends Thread {
+		final int from, to;			// Chunk of particles weighed
+
+		Worker(int from, int to) {
+			this.from = from;
+			this.to = to;}
+
+		public void run() {
+			int done = 0;
+			while (true){
+				double distance;
+				synchronized (jobs){
+					while (generation == done && running){
+						try {
+							jobs.wait();
+						} catch (InterruptedException e) {
+							break;}
+					}
+					// Finish a job already handed out, or weigh() would wait for it forever
+					if (generation == done) return;
+					done = generation;
+					distance = reading;}
+
+				weigh(distance, from, to);
+				synchronized (jobs){
+					if (--pending == 0) jobs.notifyAll();}
+			}
+		}
+	}
+}
@@ -0,0 +1,230 @@
+import java.util.ArrayList;
+
+/******************************************************************************
+ * Shortest routes between tiles of a map, costing turns as well as distance.
+ *
+ * The robot moves on the grid of tile centres, so a state is a tile and a
+ * heading, indexed (x * height + y) * 4 + direction value as in
+ * PolicyTable. From a state it can drive one tile ahead if that tile is
+ * free, or turn a quarter either way on the spot, each costing about as
+ * long as the robot takes to do it.
+ *
+ * Routes are found by Dijkstra's algorithm from the state they start at,
+ * the first time a route from there is asked for. The costs and the state
+ * before each along the best routes from that one start are kept until
+ * routes from another are asked for, so the planner takes a few ints per
+ * state whatever the size of the map. Tables of every route between every
+ * pair of states would take states squared, 32kB on the lab's map and too
+ * much for the brick past 5x5. Ask for routes from one start at a time,
+ * as RouteOptimizer does, and each start is searched once.
+ */
+public class PathPlanner {
+	/** Estimated time to drive one tile at MotionQueue's cruise speed, in ms */
+	public static final int TILE_COST = time(Odometer.TILE_SIZE, MotionQueue.CRUISE_SPEED);
+	/** Estimated time to turn a quarter on the spot at MotionQueue's turning speed, in ms */
+	public static final int TURN_COST = time(Math.PI * Driver.WHEEL_BASE / 4, MotionQueue.SPIN_SPEED);
+
+	private final GridMap map;			// The map
+	private final int width, height;	// Dimensions of the map in tiles
+	private final int states;			// Number of (tile, heading) states
+	private final int tileCost, turnCost;	// Costs of the moves
+	private final int[] cost;			// [to] cost of the best route from source in ms, -1 if none
+	private final int[] prev;			// [to] state before it along the best route from source
+	private final long[] heap;			// Cost << 32 | state, with stale entries skipped
+	private final boolean[] done;		// [state] whether its best route from source is known
+	private final int[] path;			// Scratch for route(), states from the goal back
+	private int source = -1;			// State the routes in cost and prev start at, -1 for none
+
+	/****
+	 * Plan routes on a map, costing moves by TILE_COST and TURN_COST
+	 *
+	 * @param map The map
+	 */
+	public PathPlanner(GridMap map) {
+		this(map, TILE_COST, TURN_COST);}
+
+	/****
+	 * Plan routes on a map
+	 *
+	 * @param map The map
+	 * @param tileCost Cost of driving one tile ahead, above 0
+	 * @param turnCost Cost of turning a quarter on the spot, above 0
+	 */
+	public PathPlanner(GridMap map, int tileCost, int turnCost) {
+		if (tileCost <= 0 || turnCost <= 0) throw new RuntimeException("Costs must be positive");
+		if ((long) map.getWidth() * map.getHeight() * 4 * 3 >= Integer.MAX_VALUE)
+			throw new RuntimeException("Map too big to plan routes on: " + map.getWidth() + "x" + map.getHeight());
+		this.map = map;
+		this.width = map.getWidth();
+		this.height = map.getHeight();
+		this.states = width * height * 4;
+		this.tileCost = tileCost;
+		this.turnCost = turnCost;
+		this.cost = new int[states];
+		this.prev = new int[states];
+		this.heap = new long[3 * states + 1];
+		this.done = new boolean[states];
+		this.path = new int[states];
+	}
+
+	/** Find the best routes from a state, unless they are the ones kept */
+	private void search(int from) {
+		if (from == source) return;
+		source = from;
+		for (int s = 0; s < states; s++){
+			cost[s] = -1;
+			done[s] = false;}
+		if (blocked(from)) return;
+
+		cost[from] = 0;
+		prev[from] = from;
+		heap[0] = from;
+		int size = 1;
+		while (size > 0){
+			long top = heap[0];
+			heap[0] = heap[--size];
+			down(heap, size);
+			int s = (int) top, at = (int) (top >>> 32);
+			if (done[s]) continue;
+			done[s] = true;
+
+			int dir = s & 3, tile = s >> 2, x = tile / height, y = tile % height;
+			for (int move = 0; move < 3; move++){
+				int t, c;
+				if (move == 0){
+					if (!map.isOpen(x, y, dir)) continue;
+					t = (((x + BeliefMap.ROT_XY[dir]) * height + y + BeliefMap.ROT_YY[dir]) << 2) | dir;
+					c = at + tileCost;
+				} else {
+					t = (s & ~3) | ((dir + (move == 1 ? 1 : 3)) & 3);
+					c = at + turnCost;}
+				if (done[t] || (cost[t] >= 0 && cost[t] <= c)) continue;
+				cost[t] = c;
+				prev[t] = s;
+				heap[size] = ((long) c << 32) | t;
+				up(heap, size++);}
+		}
+	}
+
+	/** Restore the heap after adding at i */
+	private static void up(long[] heap, int i) {
+		long v = heap[i];
+		while (i > 0 && heap[(i - 1) >> 1] > v){
+			heap[i] = heap[(i - 1) >> 1];
+			i = (i - 1) >> 1;}
+		heap[i] = v;
+	}
+
+	/** Restore the heap of size after replacing its top */
+	private static void down(long[] heap, int size) {
+		if (size == 0) return;
+		long v = heap[0];
+		int i = 0;
+		while (true){
+			int c = 2 * i + 1;
+			if (c >= size) break;
+			if (c + 1 < size && heap[c + 1] < heap[c]) c++;
+			if (heap[c] >= v) break;
+			heap[i] = heap[c];
+			i = c;}
+		heap[i] = v;
+	}
+
+	/** Whether a state's tile is blocked */
+	private boolean blocked(int state) {
+		int tile = state >> 2;
+		return map.isBlocked(tile / height, tile % height);}
+
+	/****
+	 * Get the index of a state
+	 * @param x X coordinate of the tile
+	 * @param y Y coordinate of the tile
+	 * @param dir Value of the heading
+	 * @return Index of the state
+	 */
+	int state(int x, int y, int dir) {
+		if (x < 0 || x >= width || y < 0 || y >= height)
+			throw new RuntimeException("Off the map");
+		return ((x * height + y) << 2) | dir;}
+
+	/** Index of the state of a position */
+	private int state(Position p) {
+		return state(p.getX(), p.getY(), p.getDir().v);}
+
+	/****
+	 * Get the cost of the best route between two states by index
+	 * @param from Index of the state to start at
+	 * @param to Index of the state to end at
+	 * @return Cost of the route, -1 if there is none
+	 */
+	synchronized int cost(int from, int to) {
+		search(from);
+		return cost[to];}
+
+	/****
+	 * Get the cost of the best route between two states
+	 *
+	 * @param from Tile and heading to start at
+	 * @param to Tile and heading to end at
+	 * @return Cost of the route, -1 if there is none
+	 */
+	public synchronized int cost(Position from, Position to) {
+		search(state(from));
+		return cost[state(to)];}
+
+	/****
+	 * Get the cost of the best route from a state to a tile, ending with any heading
+	 *
+	 * @param from Tile and heading to start at
+	 * @param x X coordinate of the tile to end on
+	 * @param y Y coordinate of the tile to end on
+	 * @return Cost of the route, -1 if there is none
+	 */
+	public synchronized int cost(Position from, int x, int y) {
+		search(state(from));
+		int best = -1, tile = (x * height + y) << 2;
+		for (int d = 0; d < 4; d++){
+			int c = cost[tile + d];
+			if (c >= 0 && (best < 0 || c < best)) best = c;}
+		return best;
+	}
+
+	/****
+	 * Get the best route between two states as the tiles to drive to in
+	 * turn. Each is the end of a straight run, so the robot turns at every
+	 * one but the last, and its direction is the heading the robot reaches
+	 * it with. Turns on the spot at the start and the end are left out.
+	 *
+	 * @param from Tile and heading to start at
+	 * @param to Tile and heading to end at
+	 * @return The tiles, empty if the robot needs only turn, or null if there is no route
+	 */
+	public synchronized ArrayList<Position> route(Position from, Position to) {
+		int start = state(from), goal = state(to);
+		search(start);
+		if (cost[goal] < 0) return null;
+		int n = 0;
+		for (int s = goal; s != start; s = prev[s])
+			path[n++] = s;
+		ArrayList<Position> tiles = new ArrayList<Position>();
+		boolean moved = false;
+		int s = start;
+		while (n > 0){
+			int t = path[--n];
+			boolean turn = (t & ~3) == (s & ~3);
+			if (turn && moved) tiles.add(position(s));
+			moved = !turn;
+			s = t;}
+		if (moved) tiles.add(position(s));
+		return tiles;
+	}
+
+	/** Get the tile and heading of a state */
+	private Position position(int state) {
+		int tile = state >> 2;
+		return new Position(tile / height, tile % height, BeliefMap.BY_VALUE[state & 3], false);}
+
+	/** Estimate the time to drive a wheel over a distance, in ms */
+	private static int time(double distance, int speed) {
+		return (int) Math.round(1000 * 180 * distance / (Math.PI * Driver.WHEEL_RADIUS) / speed);}
+}
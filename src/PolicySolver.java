@@ -0,0 +1,355 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+/******************************************************************************
+ * Offline solver for the worst case optimal localization policy of a map.
+ *
+ * Searches an AND-OR tree over beliefs - sets of possible current states -
+ * where the robot picks a move (OR) and the observation after it picks which
+ * part of the belief survives (AND). The value of a belief is the number of
+ * observations needed to reduce it to a single state in the worst case.
+ *
+ * Each belief is deepened from its best known lower bound, so the first bound
+ * it is solved within is its exact value, and the move found is optimal.
+ * Exact search grows exponentially with the size of the belief, so beliefs
+ * larger than a limit instead take the move INFORMATION_GAIN localization
+ * would, and the policy is worst case optimal from there on.
+ * Lower bounds and solved values are kept in a transposition table shared by
+ * a fork-join pool, which solves the two parts of a split in parallel near
+ * the top of the tree. Beliefs are kept as sorted arrays of state indices so
+ * memory scales with the size of beliefs rather than of the map, and the
+ * table is trimmed of unsolved entries when it outgrows its budget.
+ *
+ * Desktop only. PolicyWriter writes a PolicyTable for Localizer's map.
+ */
+public class PolicySolver {
+	/** Splits with fewer states than this are solved on one thread */
+	private static final int PARALLEL_MIN_STATES = 64;
+
+	private final int height;				// Height of the map
+	private final boolean[] blocked;		// [state] Whether the tile ahead is blocked
+	private final int[] forward;			// [state] State after moving forward, -1 if blocked
+	private final int[] initial;			// Every free state
+	private final int maxDepth;				// Most observations searched for
+	private final int exactStates;			// Largest belief solved exactly
+	private final int maxEntries;			// Budget of the transposition table
+	private final ConcurrentHashMap<Key, Entry> table = new ConcurrentHashMap<Key, Entry>();
+	private final ForkJoinPool pool;
+	private int unsolved;					// Beliefs that cannot be localized within maxDepth
+	private int worstCase;					// Worst case observations of the last policy solved
+
+	/** A belief as a sorted array of state indices */
+	private static final class Key {
+		final int[] states;
+		final int hash;
+
+		Key(int[] states) {
+			this.states = states;
+			this.hash = Arrays.hashCode(states);}
+
+		public int hashCode() {
+			return hash;}
+
+		public boolean equals(Object o) {
+			return o instanceof Key && ((Key) o).hash == hash && Arrays.equals(((Key) o).states, states);}
+	}
+
+	/** What is known about a belief */
+	private static final class Entry {
+		int lower = 1;		// Observations needed is at least this
+		int value = -1;		// Observations needed, -1 if not solved
+		int move;			// Optimal move if solved
+	}
+
+	/** Solve a belief within a bound on another thread */
+	private final class SolveTask extends RecursiveTask<Boolean> {
+		private static final long serialVersionUID = 1L;
+		private final int[] belief;
+		private final int bound;
+
+		SolveTask(int[] belief, int bound) {
+			this.belief = belief;
+			this.bound = bound;}
+
+		protected Boolean compute() {
+			return solve(belief, bound);}
+	}
+
+	/****
+	 * Create a solver for a map
+	 *
+	 * @param map The map, used map[x][y]. True if there is a block there
+	 * @param maxDepth Most observations to search for, beyond which a belief is unsolvable
+	 * @param exactStates Largest belief to solve exactly
+	 * @param maxEntries Number of beliefs the transposition table may hold before trimming
+	 * @param threads Number of threads to search with
+	 */
+	public PolicySolver(boolean[][] map, int maxDepth, int exactStates, int maxEntries, int threads) {
+		int w = map.length;
+		this.height = map[0].length;
+		this.maxDepth = maxDepth;
+		this.exactStates = exactStates;
+		this.maxEntries = maxEntries;
+		this.pool = new ForkJoinPool(threads);
+		this.blocked = new boolean[w * height * 4];
+		this.forward = new int[w * height * 4];
+
+		int free = 0;
+		for (int x = 0; x < w; x++){
+			for (int y = 0; y < height; y++){
+				for (int d = 0; d < 4; d++){
+					int s = (x * height + y) * 4 + d;
+					int nx = x + BeliefMap.ROT_XY[d], ny = y + BeliefMap.ROT_YY[d];
+					blocked[s] = nx < 0 || nx >= w || ny < 0 || ny >= height || map[nx][ny];
+					forward[s] = blocked[s] ? -1 : (nx * height + ny) * 4 + d;
+					if (!map[x][y]) free++;}
+			}
+		}
+
+		this.initial = new int[free];
+		int i = 0;
+		for (int x = 0; x < w; x++)
+			for (int y = 0; y < height; y++)
+				for (int d = 0; !map[x][y] && d < 4; d++)
+					initial[i++] = (x * height + y) * 4 + d;
+	}
+
+	/****
+	 * Solve every belief the policy can reach and build its table
+	 *
+	 * @param map The map the solver was made for
+	 * @return The policy. Beliefs that cannot be localized are left out.
+	 */
+	public PolicyTable solve(boolean[][] map) {
+		HashMap<Long, Integer> values = new HashMap<Long, Integer>();
+		HashMap<Long, Integer> policy = new HashMap<Long, Integer>();
+		unsolved = 0;
+
+		// The first observation is made before any move
+		worstCase = 0;
+		for (int[] part : split(initial)){
+			int v = evaluate(part, values, policy);
+			worstCase = v < 0 || worstCase < 0 ? -1 : Math.max(worstCase, v + 1);}
+
+		PolicyTable t = new PolicyTable(map, policy.size());
+		for (Map.Entry<Long, Integer> e : policy.entrySet())
+			t.put(e.getKey().longValue(), e.getValue().intValue());
+		return t;
+	}
+
+	/****
+	 * Get the worst case number of observations to localize from any start
+	 * following the last policy solved, counting the first observation
+	 *
+	 * @return Observations needed, -1 if some start cannot be localized
+	 */
+	public int worstCase() {
+		return worstCase;}
+
+	/****
+	 * Get the number of beliefs left out of the last table solved
+	 * @return Beliefs the policy reaches that cannot be localized within maxDepth
+	 */
+	public int unsolved() {
+		return unsolved;}
+
+	/****
+	 * Stop the search threads. The solver can't solve again afterwards.
+	 */
+	public void shutdown() {
+		pool.shutdown();}
+
+	/****
+	 * Pick the move for a belief and every belief it can lead to
+	 *
+	 * @param belief Belief after an observation
+	 * @param values Worst case observations of beliefs already evaluated, by fingerprint
+	 * @param policy Moves picked so far, by fingerprint
+	 * @return Worst case observations to localize from belief, -1 if it cannot be
+	 */
+	private int evaluate(int[] belief, HashMap<Long, Integer> values, HashMap<Long, Integer> policy) {
+		if (belief.length <= 1) return 0;
+		Long key = Long.valueOf(fingerprint(belief));
+		Integer known = values.get(key);
+		if (known != null) return known.intValue();
+		values.put(key, Integer.valueOf(-1));	// Until evaluated, so a loop counts as unsolvable
+
+		int move = -1;
+		if (belief.length <= exactStates){
+			Entry e = solved(belief);
+			if (e != null) move = e.move;
+		} else move = greedyMove(belief);
+
+		int value = -1;
+		if (move < 0) unsolved++;
+		else {
+			policy.put(key, Integer.valueOf(move));
+			value = 0;
+			for (int[] part : split(apply(belief, move))){
+				int v = evaluate(part, values, policy);
+				value = v < 0 || value < 0 ? -1 : Math.max(value, v + 1);}
+		}
+		values.put(key, Integer.valueOf(value));
+		return value;
+	}
+
+	/****
+	 * Pick a move the way INFORMATION_GAIN localization does: towards the
+	 * nearest sequence of moves whose observation rules out the most states
+	 * per move
+	 *
+	 * @return The move, -1 if nothing within Localizer.SEARCH_DEPTH moves tells states apart
+	 */
+	private int greedyMove(int[] belief) {
+		ArrayList<int[]> queue = new ArrayList<int[]>();
+		ArrayList<int[]> first = new ArrayList<int[]>();	// { first move, moves }
+		HashSet<Long> visited = new HashSet<Long>();
+		queue.add(belief);
+		first.add(new int[] { -1, 0 });
+		visited.add(Long.valueOf(fingerprint(belief)));
+
+		int n = belief.length, best = -1, bestMoves = 1;
+		double bestGain = 0;
+		for (int head = 0; head < queue.size(); head++){
+			int[] b = queue.get(head);
+			int[] path = first.get(head);
+			for (int move = Localizer.TURN_LEFT; move <= Localizer.FORWARD; move++){
+				if (move == Localizer.FORWARD && blocked[b[0]]) continue;
+				int[] next = apply(b, move);
+				if (!visited.add(Long.valueOf(fingerprint(next)))) continue;
+
+				int seen = 0, moves = path[1] + 1;
+				for (int i = 0; i < n; i++)
+					if (blocked[next[i]]) seen++;
+				int firstMove = path[0] < 0 ? move : path[0];
+				if (seen > 0 && seen < n){
+					double gain = n - ((double)seen * seen + (double)(n - seen) * (n - seen)) / n;
+					if (gain * bestMoves > bestGain * moves){
+						bestGain = gain;
+						bestMoves = moves;
+						best = firstMove;}
+				} else if (moves < Localizer.SEARCH_DEPTH){
+					queue.add(next);
+					first.add(new int[] { firstMove, moves });}
+			}
+		}
+		return best;
+	}
+
+	/** Solve a belief exactly, null if it needs more than maxDepth observations */
+	private Entry solved(int[] belief) {
+		Key key = new Key(belief);
+		while (true){
+			if (!pool.invoke(new SolveTask(belief, maxDepth)).booleanValue()) return null;
+			Entry e = table.get(key);
+			if (e != null && e.value >= 0) return e;}	// Else trimmed since it was solved
+	}
+
+	/****
+	 * Check whether a belief can be localized within a number of observations,
+	 * recording its value and optimal move if so
+	 */
+	private boolean solve(int[] belief, int bound) {
+		if (belief.length <= 1) return true;
+		if (bound <= 0) return false;
+
+		Entry e = entry(new Key(belief));
+		synchronized (e){
+			if (e.value >= 0) return e.value <= bound;}
+
+		// Each observation at best halves the belief
+		int j = Math.max(e.lower, 32 - Integer.numberOfLeadingZeros(belief.length - 1));
+		for (; j <= bound; j++){
+			for (int move = Localizer.TURN_LEFT; move <= Localizer.FORWARD; move++){
+				if (move == Localizer.FORWARD && blocked[belief[0]]) continue;
+				if (solveAll(split(apply(belief, move)), j - 1)){
+					synchronized (e){
+						if (e.value < 0 || j < e.value){
+							e.value = j;
+							e.move = move;}
+					}
+					table.put(new Key(belief), e);	// In case it was trimmed meanwhile
+					return true;}
+			}
+			synchronized (e){
+				e.lower = Math.max(e.lower, j + 1);}
+		}
+		return false;
+	}
+
+	/** Check whether every part can be localized within bound, in parallel if worthwhile */
+	private boolean solveAll(int[][] parts, int bound) {
+		if (parts.length == 2 && parts[0].length + parts[1].length >= PARALLEL_MIN_STATES){
+			SolveTask other = new SolveTask(parts[1], bound);
+			other.fork();
+			if (!solve(parts[0], bound)){
+				other.cancel(false);
+				return false;}
+			return other.join().booleanValue();}
+
+		for (int[] part : parts)
+			if (!solve(part, bound)) return false;
+		return true;
+	}
+
+	/** Get or create the entry for a belief, trimming the table if over budget */
+	private Entry entry(Key key) {
+		Entry e = table.get(key);
+		if (e != null) return e;
+		if (table.size() >= maxEntries) trim();
+		e = new Entry();
+		Entry old = table.putIfAbsent(key, e);
+		return old == null ? e : old;
+	}
+
+	/** Drop unsolved entries; if that is not enough, drop everything */
+	private synchronized void trim() {
+		if (table.size() < maxEntries) return;
+		for (Key k : table.keySet()){
+			Entry e = table.get(k);
+			if (e != null && e.value < 0) table.remove(k);}
+		if (table.size() >= maxEntries / 2)
+			table.clear();
+	}
+
+	/** Move every state in a belief. Forward assumes no state is blocked. */
+	private int[] apply(int[] belief, int move) {
+		int[] next = new int[belief.length];
+		for (int i = 0; i < belief.length; i++){
+			int s = belief[i];
+			if (move == Localizer.TURN_LEFT) next[i] = (s & ~3) | ((s + 1) & 3);
+			else if (move == Localizer.TURN_RIGHT) next[i] = (s & ~3) | ((s + 3) & 3);
+			else next[i] = forward[s];}
+		Arrays.sort(next);
+		return next;
+	}
+
+	/** Split a belief by what an observation would see */
+	private int[][] split(int[] belief) {
+		int b = 0;
+		for (int i = 0; i < belief.length; i++)
+			if (blocked[belief[i]]) b++;
+		if (b == 0 || b == belief.length) return new int[][] { belief };
+
+		int[] seen = new int[b], open = new int[belief.length - b];
+		int i = 0, j = 0;
+		for (int k = 0; k < belief.length; k++){
+			if (blocked[belief[k]]) seen[i++] = belief[k];
+			else open[j++] = belief[k];}
+		return new int[][] { seen, open };
+	}
+
+	/** Fingerprint of a belief as used by PolicyTable */
+	private static long fingerprint(int[] belief) {
+		long h = 0;
+		for (int i = 0; i < belief.length; i++)
+			h += PolicyTable.mix(belief[i]);
+		return h;
+	}
+}
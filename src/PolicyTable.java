@@ -0,0 +1,172 @@
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+
+/******************************************************************************
+ * Compact table giving the next localization move for each belief.
+ *
+ * A belief is a set of possible current states (x, y, Direction) on the map,
+ * where the state index is (x * height + y) * 4 + direction value. The table
+ * is keyed by a 64 bit fingerprint of the set, the sum of mix() over its
+ * states, so the robot can compute the key from its possible starting states
+ * and relative pose in any order (see BeliefState.currentStateHash()).
+ *
+ * Lookups are open addressing with linear probing in a power of two table.
+ * On disk the table is:
+ *   int magic, short version, short width, short height, long map hash,
+ *   int capacity, capacity * long keys (0 = empty), capacity * byte moves
+ * Tables are written by PolicySolver.
+ */
+public class PolicyTable {
+	/** "LPOL" */
+	public static final int MAGIC = 0x4C504F4C;
+	/** Version of the file format */
+	public static final short VERSION = 1;
+
+	private final int width, height;	// Dimensions of the map the table is for
+	private final long mapHash;			// mapHash() of the map the table is for
+	private final long[] keys;			// Fingerprints, 0 for an empty slot
+	private final byte[] moves;			// Localizer move for each fingerprint
+	private final int mask;				// Capacity - 1
+	private int size;					// Number of beliefs in the table
+
+	/****
+	 * Create an empty table
+	 *
+	 * @param map The map the table is for, used map[x][y]
+	 * @param entries Number of beliefs the table must hold
+	 */
+	PolicyTable(boolean[][] map, int entries) {
+		this(map.length, map[0].length, mapHash(new GridMap(map)), capacityFor(entries));}
+
+	private PolicyTable(int width, int height, long mapHash, int capacity) {
+		this.width = width;
+		this.height = height;
+		this.mapHash = mapHash;
+		this.keys = new long[capacity];
+		this.moves = new byte[capacity];
+		this.mask = capacity - 1;}
+
+	/** Smallest power of two keeping the table at most half full */
+	private static int capacityFor(int entries) {
+		int capacity = 2;
+		while (capacity < 2 * entries) capacity <<= 1;
+		return capacity;
+	}
+
+	/****
+	 * Set the move for a belief
+	 *
+	 * @param key Fingerprint of the belief
+	 * @param move Localizer move to make
+	 */
+	void put(long key, int move) {
+		int i = slot(key);
+		if (keys[i] == 0) size++;
+		keys[i] = key;
+		moves[i] = (byte) move;}
+
+	/****
+	 * Get the move for a belief
+	 *
+	 * @param key Fingerprint of the belief
+	 * @return The move to make, or -1 if the belief is not in the table
+	 */
+	public int get(long key) {
+		int i = slot(key);
+		return keys[i] == 0 ? -1 : moves[i];}
+
+	/** Slot holding key, or the empty slot where it would go */
+	private int slot(long key) {
+		int i = (int) (key ^ (key >>> 32)) & mask;
+		while (keys[i] != 0 && keys[i] != key)
+			i = (i + 1) & mask;
+		return i;
+	}
+
+	/****
+	 * Get the number of beliefs in the table
+	 * @return Number of beliefs in the table
+	 */
+	public int size() {
+		return size;}
+
+	/****
+	 * Check whether the table was made for a map
+	 *
+	 * @param map The map
+	 * @return True iff the table was solved for exactly this map
+	 */
+	public boolean matches(GridMap map) {
+		return map.getWidth() == width && map.getHeight() == height && mapHash(map) == mapHash;}
+
+	/****
+	 * Read a table written by write()
+	 *
+	 * @param in Stream to read from
+	 * @return The table
+	 * @throws IOException If the stream does not hold a policy table
+	 */
+	public static PolicyTable read(DataInputStream in) throws IOException {
+		if (in.readInt() != MAGIC || in.readShort() != VERSION)
+			throw new IOException("Not a policy table");
+		int width = in.readShort(), height = in.readShort();
+		long mapHash = in.readLong();
+		int capacity = in.readInt();
+		if (capacity <= 0 || (capacity & (capacity - 1)) != 0)
+			throw new IOException("Bad policy table capacity " + capacity);
+
+		PolicyTable t = new PolicyTable(width, height, mapHash, capacity);
+		for (int i = 0; i < capacity; i++){
+			t.keys[i] = in.readLong();
+			if (t.keys[i] != 0) t.size++;}
+		in.readFully(t.moves);
+		return t;
+	}
+
+	/****
+	 * Write the table
+	 *
+	 * @param out Stream to write to
+	 * @throws IOException If writing fails
+	 */
+	public void write(DataOutputStream out) throws IOException {
+		out.writeInt(MAGIC);
+		out.writeShort(VERSION);
+		out.writeShort(width);
+		out.writeShort(height);
+		out.writeLong(mapHash);
+		out.writeInt(keys.length);
+		for (int i = 0; i < keys.length; i++)
+			out.writeLong(keys[i]);
+		out.write(moves);
+	}
+
+	/****
+	 * Get the contribution of one state to the fingerprint of a belief
+	 *
+	 * @param state Index of the state, (x * height + y) * 4 + direction value
+	 * @return A well mixed 64 bit value for the state
+	 */
+	static long mix(int state) {
+		long z = (state + 1) * 0x9E3779B97F4A7C15L;
+		z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+		z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+		return z ^ (z >>> 31);
+	}
+
+	/****
+	 * Get a hash of a map's dimensions and blocks
+	 *
+	 * @param map The map
+	 * @return The hash
+	 */
+	static long mapHash(GridMap map) {
+		int width = map.getWidth(), height = map.getHeight();
+		long h = width * 31L + height;
+		for (int x = 0; x < width; x++)
+			for (int y = 0; y < height; y++)
+				h = h * 0x100000001B3L + (map.isBlocked(x, y) ? 1 : 0);
+		return h;
+	}
+}
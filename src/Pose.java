@@ -0,0 +1,43 @@
+/******************************************************************************
+ * Immutable pose in the Odometer's frame: x and y in cm, and theta in radians
+ * clockwise from positive y.
+ *
+ * Publishing a new Pose through a volatile field hands readers all three
+ * values from the same instant in one read, without taking a lock.
+ */
+public final class Pose {
+	private final double x, y, theta;
+
+	/****
+	 * Create a pose
+	 *
+	 * @param x X coordinate in cm
+	 * @param y Y coordinate in cm
+	 * @param theta Heading in radians
+	 */
+	public Pose(double x, double y, double theta) {
+		this.x = x;
+		this.y = y;
+		this.theta = theta;}
+
+	/****
+	 * Get the X coordinate
+	 * @return X coordinate in cm
+	 */
+	public double getX() {
+		return x;}
+
+	/****
+	 * Get the Y coordinate
+	 * @return Y coordinate in cm
+	 */
+	public double getY() {
+		return y;}
+
+	/****
+	 * Get the heading
+	 * @return Heading in radians, clockwise from positive y
+	 */
+	public double getTheta() {
+		return theta;}
+}
@@ -0,0 +1,16 @@
+/******************************************************************************
+ * Something that knows where the robot is, in the Odometer's frame: x and y
+ * in cm, and theta in radians clockwise from positive y.
+ *
+ * The Odometer is one, from dead reckoning alone. A ParticleFilter is another,
+ * correcting the Odometer with the ultrasonic sensor and the map.
+ */
+public interface PoseSource {
+	/****
+	 * Get the current pose. Never blocks, so it is safe to call from any
+	 * thread however often.
+	 *
+	 * @return The latest pose, all three parts from the same instant
+	 */
+	public Pose getPose();
+}
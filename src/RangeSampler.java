@@ -0,0 +1,171 @@
+/******************************************************************************
+ * Background sampler for a RangeSensor in continuous mode.
+ *
+ * Reads the sensor at a fixed rate and writes each reading, stamped with
+ * the Clock's nanoTime(), into a ring buffer. There is one writer, so the
+ * buffer needs no lock: the count of readings is volatile and written after
+ * each slot, and a reader that finds its slots overwritten while copying
+ * them simply copies again. Readers never wait for the sampler and never
+ * allocate.
+ *
+ * Taking a median over a few readings throws out the odd reading far from
+ * the rest, e.g. a false echo that would make a free tile look blocked.
+ */
+public class RangeSampler extends Thread {
+	/** Default time between readings, in ms. About how often the NXT sensor measures in continuous mode */
+	public static final int PERIOD = 30;
+	/** Number of readings kept */
+	public static final int SIZE = 64;
+
+	private final RangeSensor us;			// Sensor to read
+	private final Clock clock;				// Time source for stamps and the period
+	private final int period;				// Time between readings in ms
+	private final int[] distances = new int[SIZE];	// Ring of readings in cm
+	private final long[] times = new long[SIZE];	// When each reading was taken, in ns
+	private volatile int count;				// Readings written so far
+	private volatile boolean running;		// Cleared to stop sampling
+
+	/****
+	 * Create a sampler reading every PERIOD ms
+	 *
+	 * @param us Sensor to read
+	 * @param clock Time source for stamps and the period
+	 */
+	public RangeSampler(RangeSensor us, Clock clock) {
+		this(us, clock, PERIOD);}
+
+	/****
+	 * Create a sampler
+	 *
+	 * @param us Sensor to read
+	 * @param clock Time source for stamps and the period
+	 * @param period Time between readings in ms
+	 */
+	public RangeSampler(RangeSensor us, Clock clock, int period) {
+		if (period <= 0) throw new RuntimeException("Sampling period must be positive");
+		this.us = us;
+		this.clock = clock;
+		this.period = period;
+		this.running = true;}
+
+	// run method (required for Thread)
+	public void run() {
+		us.continuous();
+		long deadline = clock.nanoTime();
+		while (running){
+			long stamp = clock.nanoTime();
+			int distance = us.getDistance();
+			int c = count, i = c % SIZE;
+			distances[i] = distance;
+			times[i] = stamp;
+			count = c + 1;		// Publishes the slot
+
+			deadline += period * 1000000L;
+			if (clock.nanoTime() - deadline >= 0) deadline = clock.nanoTime();	// Fell behind - start again from now
+			clock.sleepUntil(deadline);
+			Thread.interrupted();		// Only halt() stops sampling, so a later sleep mustn't end at once
+		}
+	}
+
+	/****
+	 * Stop sampling after the current reading
+	 */
+	public void halt() {
+		running = false;}
+
+	/****
+	 * Get the time between readings
+	 * @return Time between readings in ms
+	 */
+	public int getPeriod() {
+		return period;}
+
+	/****
+	 * Get the number of readings taken so far
+	 * @return Readings taken
+	 */
+	public int getCount() {
+		return count;}
+
+	/****
+	 * Copy out the latest readings, newest first, without waiting
+	 *
+	 * @param distances Array to hold as many readings as it has room for, in cm
+	 * @param times Array as long as distances to hold when each was taken in ns, or null
+	 * @return Number of readings copied, fewer than asked for if there aren't that many yet
+	 */
+	public int latest(int[] distances, long[] times) {
+		int n = Math.min(distances.length, SIZE / 2);
+		while (true){
+			int c = count, got = Math.min(n, c);
+			for (int k = 0; k < got; k++){
+				int i = (c - 1 - k) % SIZE;
+				distances[k] = this.distances[i];
+				if (times != null) times[k] = this.times[i];}
+			// The writer may be filling slot count, overwriting reading count - SIZE
+			if (count - c + got < SIZE) return got;
+		}
+	}
+
+	/****
+	 * Get the median of the latest readings, without waiting
+	 *
+	 * @param window Array as long as the number of readings to take the median of,
+	 * 		used as scratch space
+	 * @return Median in cm, or -1 if there are no readings yet
+	 */
+	public int getMedian(int[] window) {
+		return median(window, latest(window, null));}
+
+	/****
+	 * Get the mean of the latest readings, leaving out the lowest and highest
+	 * few, without waiting
+	 *
+	 * @param window Array as long as the number of readings to average,
+	 * 		used as scratch space
+	 * @param trim Number of readings to leave out at each end
+	 * @return Trimmed mean in cm, or -1 if there are no readings yet
+	 */
+	public int getTrimmedMean(int[] window, int trim) {
+		return trimmedMean(window, latest(window, null), trim);}
+
+	/****
+	 * Get the median of values, sorting them in place
+	 *
+	 * @param values Values, of which the first n are used
+	 * @param n Number of values
+	 * @return Median, the lower of the middle two for even n, or -1 if n is 0
+	 */
+	public static int median(int[] values, int n) {
+		if (n == 0) return -1;
+		sort(values, n);
+		return values[(n - 1) / 2];}
+
+	/****
+	 * Get the mean of values leaving out the lowest and highest few, sorting
+	 * them in place
+	 *
+	 * @param values Values, of which the first n are used
+	 * @param n Number of values
+	 * @param trim Number of values to leave out at each end, fewer if n is too small
+	 * @return Rounded trimmed mean, or -1 if n is 0
+	 */
+	public static int trimmedMean(int[] values, int n, int trim) {
+		if (n == 0) return -1;
+		sort(values, n);
+		if (2 * trim >= n) trim = (n - 1) / 2;
+		int sum = 0;
+		for (int i = trim; i < n - trim; i++)
+			sum += values[i];
+		return (2 * sum + (n - 2 * trim)) / (2 * (n - 2 * trim));
+	}
+
+	/** Insertion sort of the first n values. Windows are a handful of readings */
+	private static void sort(int[] values, int n) {
+		for (int i = 1; i < n; i++){
+			int v = values[i], j = i - 1;
+			for (; j >= 0 && values[j] > v; j--)
+				values[j + 1] = values[j];
+			values[j + 1] = v;}
+	}
+}
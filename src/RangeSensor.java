@@ -0,0 +1,22 @@
+/******************************************************************************
+ * Ultrasonic range sensor, as used by Localizer
+ */
+public interface RangeSensor {
+	/****
+	 * Send a single ping. The result is available from getDistance()
+	 * once the echo has had time to return.
+	 */
+	public void ping();
+	
+	/****
+	 * Have the sensor measure over and over by itself. getDistance() then
+	 * returns the latest measurement, until ping() is called again.
+	 */
+	public void continuous();
+	
+	/****
+	 * Get the last measured distance
+	 * @return Distance in cm, 255 if nothing was seen
+	 */
+	public int getDistance();
+}
@@ -0,0 +1,48 @@
+/******************************************************************************
+ * Ray casting through a tile map.
+ * 
+ * World coordinates are in cm with tile (x, y) covering
+ * [x * tile, (x + 1) * tile) by [y * tile, (y + 1) * tile). Headings follow
+ * the Odometer: 0 is positive Y and angles increase clockwise. Everything
+ * outside the map is treated as blocked.
+ */
+public class Raycast {
+	private Raycast(){}
+	
+	/****
+	 * Get the distance along a ray to the first blocked tile
+	 * 
+	 * @param map The map
+	 * @param tile Size of a tile in cm
+	 * @param x X coordinate of the start of the ray in cm
+	 * @param y Y coordinate of the start of the ray in cm
+	 * @param theta Heading of the ray in radians
+	 * @param max Furthest distance of interest in cm
+	 * @return Distance to the first blocked tile, or max if there is none closer
+	 */
+	public static double distance(GridMap map, double tile, double x, double y, double theta, double max) {
+		int cx = (int) Math.floor(x / tile), cy = (int) Math.floor(y / tile);
+		if (map.isBlocked(cx, cy)) return 0;
+		
+		double dx = Math.sin(theta), dy = Math.cos(theta);
+		int stepX = dx > 0 ? 1 : -1, stepY = dy > 0 ? 1 : -1;
+		double nextX = dx == 0 ? Double.POSITIVE_INFINITY : ((stepX > 0 ? cx + 1 : cx) * tile - x) / dx;
+		double nextY = dy == 0 ? Double.POSITIVE_INFINITY : ((stepY > 0 ? cy + 1 : cy) * tile - y) / dy;
+		double deltaX = dx == 0 ? Double.POSITIVE_INFINITY : tile / Math.abs(dx);
+		double deltaY = dy == 0 ? Double.POSITIVE_INFINITY : tile / Math.abs(dy);
+		
+		while (true) {
+			double t;
+			if (nextX < nextY) {
+				t = nextX;
+				nextX += deltaX;
+				cx += stepX;
+			} else {
+				t = nextY;
+				nextY += deltaY;
+				cy += stepY;}
+			if (t >= max) return max;
+			if (map.isBlocked(cx, cy)) return t;
+		}
+	}
+}
@@ -0,0 +1,252 @@
+import java.io.IOException;
+import java.io.OutputStream;
+
+/******************************************************************************
+ * Telemetry recorder for looking back at a run after the fact.
+ *
+ * The odometer, localizer and driver record fixed size events into a ring
+ * allocated up front, and a background thread writes them out to a stream,
+ * e.g. a file in the brick's flash, every FLUSH_PERIOD ms. Recording takes
+ * the lock only to store five ints, and never allocates or waits on the
+ * stream, so it can stay on for every run. If the stream falls behind by a
+ * whole ring, the oldest events are overwritten and a DROPPED event in the
+ * stream counts them.
+ *
+ * The stream is a header, then records, all big endian:
+ *   int magic, short version, short record size, long currentTimeMillis()
+ *   at the start, then per record: int time since the start in us, int
+ *   type, int a, int b, int c
+ * Times wrap every 2^32 us, about 71 minutes. RecordingPrinter prints a
+ * stream on a desktop; it unwraps times as long as no two records in a row are
+ * 35 minutes apart.
+ */
+public class Recorder extends Thread {
+	/** "LREC" */
+	public static final int MAGIC = 0x4C524543;
+	/** Version of the stream format */
+	public static final short VERSION = 2;
+	/** Ints in each record: time, type, a, b, c */
+	public static final int RECORD_INTS = 5;
+	/** Default number of records kept, 10kB, a few seconds of odometry recorded every few updates */
+	public static final int SIZE = 512;
+	/** Most records copied out of the ring at once, so recording never waits long for the lock */
+	public static final int CHUNK = 64;
+	/** Default time between writes to the stream, in ms */
+	public static final int FLUSH_PERIOD = 250;
+	/** Distances and command arguments are recorded in thousandths of a cm or degree, up to 21km, past the side of any map */
+	public static final double SCALE = 1000;
+	/** Headings are recorded in millionths of a radian, up to 341 turns */
+	public static final double ANGLE_SCALE = 1000000;
+
+	/** Record types, and what a, b and c hold */
+	public static final int
+		TACHO = 1,			// Left count, right count
+		POSE = 2,			// x and y scaled by SCALE, theta by ANGLE_SCALE
+		RANGE = 3,			// Reading from the middle of the tile in cm, tile x, tile y
+		HYPOTHESES = 4,		// Possible starting states, observations made, moves made
+		COMMAND = 5,		// Command below, then its arguments scaled by SCALE
+		DROPPED = 6;		// Records overwritten before they were written out
+
+	/** Driver commands in COMMAND records */
+	public static final int
+		TRAVEL = 1,			// x, y
+		TURN = 2,			// Angle in degrees
+		FORWARD = 3,		// Distance in cm
+		ROTATE = 4,			// 1 clockwise, 0 anticlockwise
+		STOP = 5;
+
+	private final Clock clock;				// Time source for stamps and the period
+	private final long start;				// clock.nanoTime() at the start
+	private final long startMillis;			// clock.currentTimeMillis() at the start
+	private final int size;					// Records in the ring
+	private final int[] ring;				// Records, RECORD_INTS each. Guarded by this
+	private int written, read;				// Records stored and taken so far. Guarded by this
+	private int dropped;					// Records overwritten before they were taken. Guarded by this
+	private final int[] pending = new int[CHUNK * RECORD_INTS];		// Records taken for writing
+	private final byte[] bytes = new byte[CHUNK * RECORD_INTS * 4];	// The same, encoded for the stream
+	private final OutputStream out;			// Where records go
+	private final int period;				// Time between writes in ms
+	private volatile boolean running;		// Cleared to stop writing
+	private volatile IOException error;		// Why writing stopped, or null
+
+	/****
+	 * Create a recorder keeping SIZE records and writing every FLUSH_PERIOD ms
+	 *
+	 * @param out Stream to write records to, closed when the recorder stops
+	 * @param clock Time source for stamps and the period
+	 */
+	public Recorder(OutputStream out, Clock clock) {
+		this(out, clock, SIZE, FLUSH_PERIOD);}
+
+	/****
+	 * Create a recorder
+	 *
+	 * @param out Stream to write records to, closed when the recorder stops
+	 * @param clock Time source for stamps and the period
+	 * @param size Number of records kept
+	 * @param period Time between writes in ms
+	 */
+	public Recorder(OutputStream out, Clock clock, int size, int period) {
+		if (size <= 0 || period <= 0) throw new RuntimeException("Recorder size and period must be positive");
+		this.out = out;
+		this.clock = clock;
+		this.size = size;
+		this.period = period;
+		this.ring = new int[size * RECORD_INTS];
+		this.start = clock.nanoTime();
+		this.startMillis = clock.currentTimeMillis();
+		this.running = true;}
+
+	/****
+	 * Record an event
+	 *
+	 * @param type Record type
+	 * @param stamp When it happened, as given by the clock's nanoTime()
+	 * @param a First value
+	 * @param b Second value
+	 * @param c Third value
+	 */
+	public void record(int type, long stamp, int a, int b, int c) {
+		int time = (int) ((stamp - start) / 1000);
+		synchronized (this) {
+			int i = (written % size) * RECORD_INTS;
+			ring[i] = time;
+			ring[i + 1] = type;
+			ring[i + 2] = a;
+			ring[i + 3] = b;
+			ring[i + 4] = c;
+			written++;}
+	}
+
+	/****
+	 * Record an event happening now
+	 *
+	 * @param type Record type
+	 * @param a First value
+	 * @param b Second value
+	 * @param c Third value
+	 */
+	public void record(int type, int a, int b, int c) {
+		record(type, clock.nanoTime(), a, b, c);}
+
+	/****
+	 * Record a pose
+	 *
+	 * @param stamp When the robot was there, as given by the clock's nanoTime()
+	 * @param x X coordinate in cm
+	 * @param y Y coordinate in cm
+	 * @param theta Heading in radians
+	 */
+	public void record(long stamp, double x, double y, double theta) {
+		record(POSE, stamp, (int) (x * SCALE), (int) (y * SCALE), (int) (theta * ANGLE_SCALE));}
+
+	/****
+	 * Record a driver command happening now
+	 *
+	 * @param command Command, e.g. TRAVEL
+	 * @param b First argument
+	 * @param c Second argument
+	 */
+	public void command(int command, double b, double c) {
+		record(COMMAND, clock.nanoTime(), command, (int) (b * SCALE), (int) (c * SCALE));}
+
+	// run method (required for Thread)
+	public void run() {
+		header();
+		long deadline = clock.nanoTime();
+		while (running && error == null){
+			deadline += period * 1000000L;
+			clock.sleepUntil(deadline);
+			flush();}
+		flush();
+		try {
+			out.close();
+		} catch (IOException e) {
+			if (error == null) error = e;}
+	}
+
+	/****
+	 * Stop after writing out every record stored so far, and close the stream
+	 */
+	public void halt() {
+		running = false;
+		interrupt();}
+
+	/****
+	 * Get the number of records stored so far
+	 * @return Records stored, written out or not
+	 */
+	public synchronized int getCount() {
+		return written;}
+
+	/****
+	 * Get the number of records overwritten before they were written out
+	 * @return Records lost
+	 */
+	public synchronized int getDropped() {
+		return dropped;}
+
+	/****
+	 * Get why writing to the stream stopped. Recording carries on into the
+	 * ring regardless.
+	 *
+	 * @return The error, or null if there was none
+	 */
+	public IOException getError() {
+		return error;}
+
+	/** Write the stream's header */
+	private void header() {
+		int n = put(bytes, 0, MAGIC);
+		n = put(bytes, n, (VERSION << 16) | (RECORD_INTS * 4));
+		n = put(bytes, n, (int) (startMillis >>> 32));
+		write(put(bytes, n, (int) startMillis));
+	}
+
+	/** Take every record not yet written out and write them to the stream, a chunk at a time */
+	private void flush() {
+		while (error == null){
+			int n = 0, lost = 0;
+			long stamp = 0;
+			synchronized (this) {
+				if (written - read > size){
+					lost = written - read - size;
+					dropped += lost;
+					read = written - size;
+					stamp = clock.nanoTime();}
+				for (; read != written && n < pending.length; read++){
+					System.arraycopy(ring, (read % size) * RECORD_INTS, pending, n, RECORD_INTS);
+					n += RECORD_INTS;}
+			}
+			if (lost > 0){
+				int k = put(bytes, 0, (int) ((stamp - start) / 1000));
+				k = put(bytes, k, DROPPED);
+				k = put(bytes, k, lost);
+				k = put(bytes, k, 0);
+				write(put(bytes, k, 0));}
+			if (n == 0) return;
+			int k = 0;
+			for (int i = 0; i < n; i++)
+				k = put(bytes, k, pending[i]);
+			write(k);
+		}
+	}
+
+	/** Write the first n bytes, remembering the error if it fails */
+	private void write(int n) {
+		try {
+			out.write(bytes, 0, n);
+			out.flush();
+		} catch (IOException e) {
+			error = e;}
+	}
+
+	/** Encode an int big endian at an offset, returning the offset after it */
+	private static int put(byte[] b, int i, int v) {
+		b[i] = (byte) (v >>> 24);
+		b[i + 1] = (byte) (v >>> 16);
+		b[i + 2] = (byte) (v >>> 8);
+		b[i + 3] = (byte) v;
+		return i + 4;
+	}
+}
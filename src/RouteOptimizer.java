@@ -0,0 +1,283 @@
+/******************************************************************************
+ * Orders a list of tiles to visit so the whole run takes the least time.
+ *
+ * Costs come from a PathPlanner, so they count turns as well as distance,
+ * and the heading the robot reaches a tile with matters for the leg after
+ * it. So each stop is a tile and the heading to reach it with.
+ *
+ * Up to a limit set when the optimizer is made, tiles are ordered exactly
+ * by dynamic programming over the subsets of tiles visited, the tile
+ * visited last and the heading it was reached with (Held-Karp). That takes
+ * time and memory exponential in the number of tiles, 20 * n * 2^n bytes:
+ * 3kB for 5 tiles, 18kB for 7 and 1MB for 12. So the limit is EXACT_LIMIT
+ * on a desktop but BRICK_EXACT_LIMIT on the brick. Past the limit the
+ * order is built by going to the nearest tile left each time, then
+ * improved by reversing any stretch of it (2-opt), or moving any one tile
+ * elsewhere in it, while that makes the run quicker. For any order, the
+ * best heading to reach each tile with is found exactly.
+ */
+public class RouteOptimizer {
+	/** Most tiles ever ordered exactly, and the default limit */
+	public static final int EXACT_LIMIT = 12;
+	/** Most tiles to order exactly on the brick, where more don't fit in memory beside everything else */
+	public static final int BRICK_EXACT_LIMIT = 5;
+
+	private final PathPlanner planner;	// Costs of routes between states
+	private final int exactLimit;		// Most tiles optimize() orders exactly
+
+	/****
+	 * Create an optimizer ordering up to EXACT_LIMIT tiles exactly
+	 * @param planner Routes of the map the tiles are on
+	 */
+	public RouteOptimizer(PathPlanner planner) {
+		this(planner, EXACT_LIMIT);}
+
+	/****
+	 * Create an optimizer
+	 * @param planner Routes of the map the tiles are on
+	 * @param exactLimit Most tiles to order exactly, up to EXACT_LIMIT. More are ordered heuristically
+	 */
+	public RouteOptimizer(PathPlanner planner, int exactLimit) {
+		if (exactLimit < 0 || exactLimit > EXACT_LIMIT) throw new RuntimeException("Exact limit must be 0 to " + EXACT_LIMIT);
+		this.planner = planner;
+		this.exactLimit = exactLimit;}
+
+	/****
+	 * Order tiles to visit in the least time
+	 *
+	 * @param from Tile and heading to start at
+	 * @param targets Tiles to visit, their directions ignored
+	 * @return The tiles in the order to visit them, each with the heading to reach it with,
+	 * 		or null if one can't be reached
+	 */
+	public Position[] optimize(Position from, Position[] targets) {
+		return targets.length <= exactLimit ? exact(from, targets) : heuristic(from, targets);}
+
+	/****
+	 * Find the best headings to visit tiles with in the order given
+	 *
+	 * @param from Tile and heading to start at
+	 * @param targets Tiles to visit in turn, their directions ignored
+	 * @return The tiles, each with the heading to reach it with, or null if one can't be reached
+	 */
+	public Position[] inOrder(Position from, Position[] targets) {
+		Costs c = new Costs(from, targets);
+		int[] order = new int[targets.length];
+		for (int i = 0; i < order.length; i++)
+			order[i] = i;
+		return c.evaluate(order) < 0 ? null : c.stops(order);}
+
+	/****
+	 * Get the cost of visiting stops in turn
+	 *
+	 * @param from Tile and heading to start at
+	 * @param stops Tiles to visit, each with the heading to reach it with
+	 * @return Total cost, -1 if a stop can't be reached
+	 */
+	public int cost(Position from, Position[] stops) {
+		int total = 0;
+		for (int i = 0; i < stops.length; i++){
+			int c = planner.cost(i == 0 ? from : stops[i - 1], stops[i]);
+			if (c < 0) return -1;
+			total += c;}
+		return total;
+	}
+
+	/****
+	 * Order tiles exactly, by dynamic programming over subsets
+	 *
+	 * @param from Tile and heading to start at
+	 * @param targets At most EXACT_LIMIT tiles to visit
+	 * @return The tiles in order with their headings, or null if one can't be reached
+	 */
+	Position[] exact(Position from, Position[] targets) {
+		int n = targets.length;
+		if (n > EXACT_LIMIT) throw new RuntimeException("Too many tiles to order exactly");
+		if (n == 0) return new Position[0];
+		Costs c = new Costs(from, targets);
+		int ends = 4 * n, full = (1 << n) - 1;
+		// best[mask * ends + end]: least cost to visit the tiles in mask, ending at end = tile * 4 + heading
+		int[] best = new int[(full + 1) * ends];
+		byte[] came = new byte[(full + 1) * ends];		// End visited before it, or -1 at the start
+		for (int i = 0; i < best.length; i++)
+			best[i] = -1;
+		for (int e = 0; e < ends; e++){
+			best[(1 << (e >> 2)) * ends + e] = c.start[e];
+			came[(1 << (e >> 2)) * ends + e] = -1;}
+
+		for (int mask = 1; mask <= full; mask++)
+			for (int e = 0; e < ends; e++){
+				int at = best[mask * ends + e];
+				if (at < 0 || (mask & (1 << (e >> 2))) == 0) continue;
+				for (int f = 0; f < ends; f++){
+					if ((mask & (1 << (f >> 2))) != 0) continue;
+					int step = c.between[e * ends + f];
+					if (step < 0) continue;
+					int i = (mask | (1 << (f >> 2))) * ends + f;
+					if (best[i] < 0 || at + step < best[i]){
+						best[i] = at + step;
+						came[i] = (byte) e;}
+				}
+			}
+
+		int end = -1;
+		for (int e = 0; e < ends; e++){
+			int v = best[full * ends + e];
+			if (v >= 0 && (end < 0 || v < best[full * ends + end])) end = e;}
+		if (end < 0) return null;
+		Position[] stops = new Position[n];
+		for (int mask = full, k = n - 1; k >= 0; k--){
+			stops[k] = c.stop(end);
+			int before = came[mask * ends + end];
+			mask &= ~(1 << (end >> 2));
+			end = before;}
+		return stops;
+	}
+
+	/****
+	 * Order tiles by going to the nearest one left each time, then improve
+	 * the order by reversing stretches of it or moving single tiles while
+	 * that makes it quicker
+	 *
+	 * @param from Tile and heading to start at
+	 * @param targets Tiles to visit
+	 * @return The tiles in order with their headings, or null if one can't be reached
+	 */
+	Position[] heuristic(Position from, Position[] targets) {
+		int n = targets.length;
+		Costs c = new Costs(from, targets);
+		int[] order = new int[n];
+		boolean[] visited = new boolean[n];
+		int end = -1;							// Tile and heading the robot is at, -1 at the start
+		for (int k = 0; k < n; k++){
+			int next = -1, nextCost = -1;
+			for (int f = 0; f < 4 * n; f++){
+				if (visited[f >> 2]) continue;
+				int step = end < 0 ? c.start[f] : c.between[end * 4 * n + f];
+				if (step >= 0 && (next < 0 || step < nextCost)){
+					next = f;
+					nextCost = step;}
+			}
+			if (next < 0) return null;
+			order[k] = next >> 2;
+			visited[next >> 2] = true;
+			end = next;}
+
+		// 2-opt: reverse order[i..j] whenever that is quicker, and move single
+		// tiles elsewhere whenever that is, until neither is
+		int total = c.evaluate(order);
+		boolean improved = true;
+		while (improved){
+			improved = false;
+			for (int i = 0; i < n - 1; i++)
+				for (int j = i + 1; j < n; j++){
+					reverse(order, i, j);
+					int t = c.evaluate(order);
+					if (t >= 0 && t < total){
+						total = t;
+						improved = true;
+					} else reverse(order, i, j);}
+			for (int i = 0; i < n; i++)
+				for (int j = 0; j < n; j++){
+					if (i == j) continue;
+					move(order, i, j);
+					int t = c.evaluate(order);
+					if (t >= 0 && t < total){
+						total = t;
+						improved = true;
+					} else move(order, j, i);}
+		}
+		c.evaluate(order);
+		return c.stops(order);
+	}
+
+	/** Move order[i] to j, shifting those between along */
+	private static void move(int[] order, int i, int j) {
+		int t = order[i];
+		if (i < j) System.arraycopy(order, i + 1, order, i, j - i);
+		else System.arraycopy(order, j, order, j + 1, i - j);
+		order[j] = t;}
+
+	/** Reverse order[i..j] in place */
+	private static void reverse(int[] order, int i, int j) {
+		for (; i < j; i++, j--){
+			int t = order[i];
+			order[i] = order[j];
+			order[j] = t;}
+	}
+
+	/****
+	 * Costs between every stop, a stop being a target tile and a heading,
+	 * indexed tile * 4 + heading value, and the best headings for an order
+	 */
+	private class Costs {
+		final Position[] targets;		// Tiles to visit
+		final int[] start;				// [stop] cost from the start, -1 if unreachable
+		final int[] between;			// [stop * 4n + stop] cost between stops, -1 if unreachable
+		final int[] at, choice;			// Scratch for evaluate(): [k * 4 + heading] least cost and heading before
+		int[] headings;					// Heading of each tile in the last order evaluated
+
+		Costs(Position from, Position[] targets) {
+			int n = targets.length, ends = 4 * n;
+			this.targets = targets;
+			int[] state = new int[ends];
+			for (int e = 0; e < ends; e++)
+				state[e] = planner.state(targets[e >> 2].getX(), targets[e >> 2].getY(), e & 3);
+			int origin = planner.state(from.getX(), from.getY(), from.getDir().v);
+			start = new int[ends];
+			between = new int[ends * ends];
+			// A stop at a time, so the planner searches from each once
+			for (int e = 0; e < ends; e++)
+				start[e] = planner.cost(origin, state[e]);
+			for (int e = 0; e < ends; e++){
+				for (int f = 0; f < ends; f++)
+					between[e * ends + f] = (e >> 2) == (f >> 2) ? -1 : planner.cost(state[e], state[f]);}
+			at = new int[ends];
+			choice = new int[ends];
+			headings = new int[n];}
+
+		/** Get a stop as a Position */
+		Position stop(int e) {
+			Position t = targets[e >> 2];
+			return new Position(t.getX(), t.getY(), BeliefMap.BY_VALUE[e & 3], false);}
+
+		/****
+		 * Find the least cost of visiting the tiles in an order, choosing the
+		 * heading to reach each with, and keep those headings
+		 * @return Least cost, -1 if a tile can't be reached
+		 */
+		int evaluate(int[] order) {
+			int n = order.length, ends = 4 * n;
+			if (n == 0) return 0;
+			for (int h = 0; h < 4; h++)
+				at[h] = start[4 * order[0] + h];
+			for (int k = 1; k < n; k++)
+				for (int h = 0; h < 4; h++){
+					int f = 4 * order[k] + h, least = -1;
+					for (int g = 0; g < 4; g++){
+						int before = at[4 * (k - 1) + g], step = between[(4 * order[k - 1] + g) * ends + f];
+						if (before < 0 || step < 0) continue;
+						if (least < 0 || before + step < least){
+							least = before + step;
+							choice[4 * k + h] = g;}
+					}
+					at[4 * k + h] = least;}
+			int last = -1;
+			for (int h = 0; h < 4; h++)
+				if (at[4 * (n - 1) + h] >= 0 && (last < 0 || at[4 * (n - 1) + h] < at[4 * (n - 1) + last])) last = h;
+			if (last < 0) return -1;
+			int total = at[4 * (n - 1) + last];
+			for (int k = n - 1; k >= 0; k--){
+				headings[k] = last;
+				if (k > 0) last = choice[4 * k + last];}
+			return total;
+		}
+
+		/** Get an order as stops, with the headings from the last evaluate() of it */
+		Position[] stops(int[] order) {
+			Position[] stops = new Position[order.length];
+			for (int k = 0; k < order.length; k++)
+				stops[k] = stop(4 * order[k] + headings[k]);
+			return stops;}
+	}
+}
@@ -0,0 +1,116 @@
+import java.util.ArrayList;
+import java.util.PriorityQueue;
+
+/******************************************************************************
+ * Discrete-event clock for running the robot's threads faster than real time.
+ *
+ * Threads taking part in a simulation are registered with the clock. Virtual
+ * time only advances when every registered thread is asleep on the clock, and
+ * then jumps straight to the earliest wake-up. A registered thread that blocks
+ * on anything other than the clock therefore holds time still. Threads that
+ * are not registered may still sleep on the clock; they count as registered
+ * while they are asleep.
+ */
+public class SimClock implements Clock {
+	private long now;										// Virtual time in ns
+	private long sequence;									// Tie breaker for equal wake times
+	private int asleep;										// Participants asleep on the clock
+	private final ArrayList<Thread> participants = new ArrayList<Thread>();
+	private final PriorityQueue<Sleeper> sleepers = new PriorityQueue<Sleeper>();
+
+	/** A thread waiting for virtual time to reach its wake time */
+	private static final class Sleeper implements Comparable<Sleeper> {
+		final long wake, order;
+		boolean awake;
+
+		Sleeper(long wake, long order) {
+			this.wake = wake;
+			this.order = order;}
+
+		public int compareTo(Sleeper o) {
+			if (wake != o.wake) return wake < o.wake ? -1 : 1;
+			return order < o.order ? -1 : (order == o.order ? 0 : 1);}
+	}
+
+	/****
+	 * Make a thread take part in the simulation. Register threads before
+	 * starting them so that time cannot advance before they first run.
+	 *
+	 * @param t The thread to register
+	 */
+	public synchronized void register(Thread t) {
+		if (!participants.contains(t))
+			participants.add(t);}
+
+	/****
+	 * Stop a thread taking part in the simulation
+	 *
+	 * @param t The thread to unregister
+	 */
+	public synchronized void unregister(Thread t) {
+		participants.remove(t);
+		advance();}
+
+	public synchronized long nanoTime() {
+		return now;}
+
+	public long currentTimeMillis() {
+		return nanoTime() / 1000000L;}
+
+	public void sleep(long millis) {
+		sleepNanos(millis * 1000000L);}
+
+	/****
+	 * Sleep the calling thread for an amount of virtual time
+	 * @param nanos Time to sleep in ns
+	 */
+	public synchronized void sleepNanos(long nanos) {
+		sleepUntil(now + nanos);}
+
+	/****
+	 * Sleep the calling thread until virtual time reaches a point
+	 * @param wake Time to wake up at in ns
+	 */
+	public synchronized void sleepUntil(long wake) {
+		Thread me = Thread.currentThread();
+		boolean registered = participants.contains(me);
+		if (!registered)
+			participants.add(me);
+
+		Sleeper s = new Sleeper(Math.max(wake, now), sequence++);
+		sleepers.add(s);
+		asleep++;
+		advance();
+
+		boolean interrupted = false;
+		while (!s.awake){
+			try {
+				wait();
+			} catch (InterruptedException e) {
+				interrupted = true;}
+		}
+
+		if (!registered){
+			participants.remove(me);
+			advance();}
+		if (interrupted)
+			me.interrupt();
+	}
+
+	/****
+	 * Advance time to the next wake-up if every participant is asleep
+	 */
+	private void advance() {
+		for (int i = participants.size() - 1; i >= 0; i--)
+			if (participants.get(i).getState() == Thread.State.TERMINATED)
+				participants.remove(i);		// Finished without unregistering
+
+		if (sleepers.isEmpty() || asleep < participants.size()) return;
+
+		now = Math.max(now, sleepers.peek().wake);
+		while (!sleepers.isEmpty() && sleepers.peek().wake <= now){
+			sleepers.poll().awake = true;
+			asleep--;}
+		notifyAll();
+	}
+}
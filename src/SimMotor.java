@@ -0,0 +1,176 @@
+/******************************************************************************
+ * Simulated regulated motor.
+ * 
+ * The motor reaches its commanded speed instantly, so its position is
+ * piecewise linear in virtual time. Any change of command first lets the
+ * SimWorld integrate the robot's motion up to the current time.
+ *
+ * When the SimWorld finds the wheel slipping, the unloaded wheel spins past
+ * its command before the regulator catches it. The extra turn is kept in
+ * spin, which the tacho count includes. The regulator aims by that count,
+ * so a spin also brings its target closer.
+ *
+ * A motor with a gain below 1 turns that much slower than commanded, like
+ * a weaker motor, but still stops at its target.
+ */
+public class SimMotor implements DriveMotor {
+	private final SimWorld world;	// World this motor drives, also used as the lock
+	private final SimClock clock;	// Virtual time
+	private double anchorPos;		// Position in degrees at anchorTime
+	private long anchorTime;		// Time of the last change of command in ns
+	private int speed;				// Commanded speed in degrees per second
+	private int direction;			// -1, 0 or 1
+	private boolean hasTarget;		// Whether the motor stops at target
+	private double target;			// Position to stop at in degrees
+	private int tachoOffset;		// Position at the last tacho reset
+	private double spin;			// Degrees turned past the command while slipping
+	private double gain = 1;		// Fraction of the commanded speed the motor turns at
+	
+	SimMotor(SimWorld world, SimClock clock) {
+		this.world = world;
+		this.clock = clock;}
+	
+	/****
+	 * Get the position of the motor at a time at or after the last change of command
+	 * @param t Time in ns
+	 * @return Position in degrees
+	 */
+	double positionAt(long t) {
+		if (direction == 0 || speed == 0) return anchorPos;
+		double p = anchorPos + direction * speed * gain * ((t - anchorTime) / 1e9);
+		if (hasTarget && (direction > 0 ? p >= target : p <= target)) return target;
+		return p;
+	}
+	
+	/****
+	 * Get the commanded speed of the motor at a time at or after the last change of command
+	 * @param t Time in ns
+	 * @return Speed in degrees per second, negative backward
+	 */
+	double velocityAt(long t) {
+		if (direction == 0 || speed == 0 || t >= stopTime()) return 0;
+		return direction * speed * gain;
+	}
+	
+	/****
+	 * Add a spin past the command, found by the world while slipping
+	 * @param degrees Angle spun in degrees, negative backward
+	 * @param t Time the spin was found at in ns, at or after the last change of command
+	 */
+	void spin(double degrees, long t) {
+		spin += degrees;
+		if (!hasTarget) return;
+		double p = positionAt(t);
+		target -= degrees;
+		if (direction > 0 ? target < p : target > p) target = p;
+	}
+	
+	/****
+	 * Get the time the motor will stop by itself
+	 * @return Time in ns, Long.MAX_VALUE if it will not
+	 */
+	long stopTime() {
+		if (direction == 0 || speed == 0 || !hasTarget) return Long.MAX_VALUE;
+		return anchorTime + (long) Math.ceil(Math.abs(target - anchorPos) / (speed * gain) * 1e9);
+	}
+	
+	/****
+	 * Make the motor turn slower than commanded
+	 * @param gain Fraction of the commanded speed the motor turns at, above 0
+	 */
+	void setGain(double gain) {
+		synchronized (world) {
+			reanchor();
+			this.gain = gain;}
+	}
+	
+	/** Bring the world and this motor's position up to now before a change of command */
+	private void reanchor() {
+		long now = clock.nanoTime();
+		world.update();
+		anchorPos = positionAt(now);
+		anchorTime = now;
+		if (hasTarget && anchorPos == target) direction = 0;
+	}
+	
+	public int getTachoCount() {
+		synchronized (world) {
+			world.update();
+			return (int) Math.round(positionAt(clock.nanoTime()) + spin) - tachoOffset;}
+	}
+	
+	public void resetTachoCount() {
+		synchronized (world) {
+			world.update();
+			tachoOffset = (int) Math.round(positionAt(clock.nanoTime()) + spin);}
+	}
+	
+	public void setSpeed(int speed) {
+		synchronized (world) {
+			reanchor();
+			this.speed = Math.abs(speed);}
+	}
+	
+	public void rotate(int angle, boolean immediateReturn) {
+		long stop;
+		synchronized (world) {
+			reanchor();
+			stop = moveTo(anchorPos + angle);}
+		if (!immediateReturn && stop != Long.MAX_VALUE)
+			clock.sleepUntil(stop);
+	}
+	
+	public void rotateTo(int limitAngle, boolean immediateReturn) {
+		long stop;
+		synchronized (world) {
+			reanchor();
+			stop = moveTo(limitAngle + tachoOffset - spin);}
+		if (!immediateReturn && stop != Long.MAX_VALUE)
+			clock.sleepUntil(stop);
+	}
+	
+	/****
+	 * Head for a position, once reanchored
+	 * @param target Position to stop at in degrees
+	 * @return Time the motor will stop in ns
+	 */
+	private long moveTo(double target) {
+		hasTarget = true;
+		this.target = target;
+		direction = target > anchorPos ? 1 : (target < anchorPos ? -1 : 0);
+		return stopTime();}
+	
+	public void forward() {
+		run(1);}
+	
+	public void backward() {
+		run(-1);}
+	
+	private void run(int direction) {
+		synchronized (world) {
+			reanchor();
+			hasTarget = false;
+			this.direction = direction;}
+	}
+	
+	public void stop() {
+		synchronized (world) {
+			reanchor();
+			hasTarget = false;
+			direction = 0;}
+	}
+	
+	public void waitComplete() {
+		long stop;
+		synchronized (world) {
+			stop = stopTime();}
+		if (stop != Long.MAX_VALUE)
+			clock.sleepUntil(stop);
+	}
+	
+	public boolean isMoving() {
+		synchronized (world) {
+			long now = clock.nanoTime();
+			return direction != 0 && speed != 0 && stopTime() > now;}
+	}
+}
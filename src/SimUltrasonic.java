@@ -0,0 +1,56 @@
+import java.util.Random;
+
+/******************************************************************************
+ * Simulated ultrasonic sensor. Measures the distance along the robot's
+ * heading to the first blocked tile, optionally with Gaussian noise.
+ */
+public class SimUltrasonic implements RangeSensor {
+	/** Reading returned when nothing is in range */
+	public static final int NO_ECHO = 255;
+	
+	private final SimWorld world;
+	private final Random noise;			// null for a noiseless sensor
+	private final double sigma;			// Standard deviation of noise in cm
+	private int echo;					// Result of the last ping
+	private boolean pinged;				// Whether echo is waiting to be read
+	
+	/****
+	 * Create a sensor mounted at the centre of the robot, looking forward
+	 * 
+	 * @param world World to measure
+	 * @param sigma Standard deviation of the noise in cm, 0 for none
+	 * @param seed Seed for the noise
+	 */
+	SimUltrasonic(SimWorld world, double sigma, long seed) {
+		this.world = world;
+		this.sigma = sigma;
+		this.noise = sigma > 0 ? new Random(seed) : null;}
+	
+	public void ping() {
+		synchronized (world) {
+			echo = measure();
+			pinged = true;}
+	}
+	
+	/** Every getDistance() without a ping measures afresh, as in continuous mode */
+	public void continuous() {
+		synchronized (world) {
+			pinged = false;}
+	}
+	
+	public int getDistance() {
+		synchronized (world) {
+			if (pinged) {
+				pinged = false;
+				return echo;}
+			return measure();}
+	}
+	
+	private int measure() {
+		world.update();
+		double d = world.range(NO_ECHO);
+		if (noise != null) d += noise.nextGaussian() * sigma;
+		if (d < 0) d = 0;
+		return d >= NO_ECHO ? NO_ECHO : (int) Math.round(d);
+	}
+}
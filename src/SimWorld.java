@@ -0,0 +1,216 @@
+/******************************************************************************
+ * Simulated robot on a tile map.
+ *
+ * Holds the true pose of the robot and integrates it exactly from the wheel
+ * motors whenever a motor changes command or a sensor is read. Between those
+ * events each wheel turns at a constant rate, so the robot follows a circular
+ * arc. Coordinates are in cm with tile (x, y) centred on
+ * ((x + 0.5) * TILE_SIZE, (y + 0.5) * TILE_SIZE), and headings follow the
+ * Odometer: 0 is positive Y and angles increase clockwise.
+ *
+ * With a traction limit set, a wheel can only change its speed over the
+ * ground so fast. A wheel told to change speed faster slips: the ground
+ * under it catches up at the traction limit, and the slip shows up in the
+ * motor's tacho count as spin. The right wheel grips RIGHT_GRIP as well as
+ * the left, so slip also turns the robot. Motion while slipping is
+ * integrated in steps of SLIP_STEP.
+ *
+ * With a mismatch set, the right motor turns slower than commanded. It
+ * still stops where it was sent, so the tachos, and the odometer, see the
+ * robot veer off and come back onto its heading late.
+ *
+ * All simulated hardware synchronizes on the world.
+ */
+public class SimWorld {
+	/** Traction of the right wheel as a fraction of the left's */
+	public static final double RIGHT_GRIP = 0.9;
+	/** Time step while a wheel slips, in ns */
+	private static final long SLIP_STEP = 1000000;
+
+	private final GridMap map;					// The map
+	private final SimClock clock;				// Virtual time
+	private final SimMotor left, right;			// Wheel motors
+	private final double wheelRadius, wheelBase;	// Geometry of the simulated robot in cm
+	private double x, y, theta;					// True pose
+	private double lastLeft, lastRight;			// Wheel positions at lastUpdate in degrees
+	private long lastUpdate;					// Time of the last integration in ns
+	private boolean collided;					// Whether the centre ever entered a blocked tile
+	private double tractionLeft = Double.POSITIVE_INFINITY,	// Fastest change of each wheel's
+				tractionRight = Double.POSITIVE_INFINITY;	// ground speed, in degrees per second squared
+	private double groundLeft, groundRight;		// Speed of each wheel over the ground, in degrees per second
+
+	/****
+	 * Create a robot centred on a tile, with the geometry given by Driver
+	 *
+	 * @param map The map, used map[x][y]. True if there is a block there
+	 * @param clock Virtual time
+	 * @param start Tile and direction the robot starts in
+	 */
+	public SimWorld(boolean[][] map, SimClock clock, Position start) {
+		this(map, clock, start, Driver.WHEEL_RADIUS, Driver.WHEEL_BASE);}
+
+	/****
+	 * Create a robot centred on a tile
+	 *
+	 * @param map The map, used map[x][y]. True if there is a block there
+	 * @param clock Virtual time
+	 * @param start Tile and direction the robot starts in
+	 * @param wheelRadius True radius of the wheels in cm
+	 * @param wheelBase True distance between the wheels in cm
+	 */
+	public SimWorld(boolean[][] map, SimClock clock, Position start, double wheelRadius, double wheelBase) {
+		this.map = new GridMap(map);
+		this.clock = clock;
+		this.wheelRadius = wheelRadius;
+		this.wheelBase = wheelBase;
+		this.left = new SimMotor(this, clock);
+		this.right = new SimMotor(this, clock);
+		this.x = (start.getX() + 0.5) * Odometer.TILE_SIZE;
+		this.y = (start.getY() + 0.5) * Odometer.TILE_SIZE;
+		this.theta = -0.5 * start.getDir().v * Math.PI;
+		this.lastUpdate = clock.nanoTime();}
+
+	/****
+	 * Get the left wheel motor
+	 * @return The left wheel motor
+	 */
+	public DriveMotor getLeftMotor() {
+		return left;}
+
+	/****
+	 * Get the right wheel motor
+	 * @return The right wheel motor
+	 */
+	public DriveMotor getRightMotor() {
+		return right;}
+
+	/****
+	 * Limit how fast the wheels can change speed without slipping
+	 * @param traction Fastest change of the left wheel's speed over the ground, in cm per second squared
+	 */
+	public synchronized void setTraction(double traction) {
+		update();
+		tractionLeft = 180 * traction / (Math.PI * wheelRadius);
+		tractionRight = RIGHT_GRIP * tractionLeft;}
+
+	/****
+	 * Make the right motor weaker than the left
+	 * @param mismatch Fraction of its commanded speed the right motor falls short by, below 1
+	 */
+	public void setMismatch(double mismatch) {
+		if (mismatch >= 1) throw new RuntimeException("Mismatch must be below 1");
+		right.setGain(1 - mismatch);}
+
+	/****
+	 * Create an ultrasonic sensor looking along the robot's heading
+	 *
+	 * @param sigma Standard deviation of the noise in cm, 0 for none
+	 * @param seed Seed for the noise
+	 * @return The sensor
+	 */
+	public RangeSensor createUltrasonic(double sigma, long seed) {
+		return new SimUltrasonic(this, sigma, seed);}
+
+	/****
+	 * Integrate the robot's motion up to the current virtual time
+	 */
+	synchronized void update() {
+		long now = clock.nanoTime();
+		long t = lastUpdate;
+		while (t < now) {
+			// Split the interval where a wheel stops by itself
+			long next = now;
+			long stop = left.stopTime();
+			if (stop > t && stop < next) next = stop;
+			stop = right.stopTime();
+			if (stop > t && stop < next) next = stop;
+			boolean slips = tractionLeft != Double.POSITIVE_INFINITY;
+			if (slips && (groundLeft != left.velocityAt(t) || groundRight != right.velocityAt(t)) && next - t > SLIP_STEP)
+				next = t + SLIP_STEP;
+
+			double l = left.positionAt(next), r = right.positionAt(next);
+			double dl = l - lastLeft, dr = r - lastRight;
+			if (slips){
+				dl = ground(left, dl, left.velocityAt(t), t, next, true);
+				dr = ground(right, dr, right.velocityAt(t), t, next, false);}
+			integrate(Math.PI * wheelRadius * dl / 180,
+					Math.PI * wheelRadius * dr / 180);
+			lastLeft = l;
+			lastRight = r;
+			t = next;}
+		lastUpdate = now;
+	}
+
+	/****
+	 * Work out how far a wheel turning at a steady rate moves over the ground,
+	 * catching its ground speed up to the rate at the traction limit
+	 *
+	 * @param motor The wheel's motor, which is given any spin
+	 * @param turned Angle the motor was commanded through in degrees
+	 * @param rate Commanded speed of the motor in degrees per second
+	 * @param from Time the step starts in ns
+	 * @param to Time the step ends in ns
+	 * @param isLeft Whether it is the left wheel
+	 * @return Angle the wheel moved through over the ground in degrees
+	 */
+	private double ground(SimMotor motor, double turned, double rate, long from, long to, boolean isLeft) {
+		double dt = (to - from) / 1e9, v = isLeft ? groundLeft : groundRight, traction = isLeft ? tractionLeft : tractionRight;
+		double gap = rate - v, moved;
+		if (Math.abs(gap) <= traction * dt){
+			// Catches up within the step
+			double tc = Math.abs(gap) / traction;
+			moved = v * tc + 0.5 * gap * tc + rate * (dt - tc);
+			v = rate;
+		} else {
+			double next = v + Math.signum(gap) * traction * dt;
+			moved = 0.5 * (v + next) * dt;
+			v = next;}
+		// A wheel driven ahead of the ground spins; one braked behind it skids without turning
+		if (rate != 0 && Math.signum(turned - moved) == Math.signum(rate))
+			motor.spin(turned - moved, to);
+		if (isLeft) groundLeft = v; else groundRight = v;
+		return moved;
+	}
+
+	/** Move along the arc given by the distance travelled by each wheel */
+	private void integrate(double dl, double dr) {
+		double ds = 0.5 * (dl + dr), dTheta = (dl - dr) / wheelBase;
+		if (Math.abs(dTheta) < 1e-9) {
+			x += ds * Math.sin(theta);
+			y += ds * Math.cos(theta);
+		} else {
+			double radius = ds / dTheta;
+			x += radius * (Math.cos(theta) - Math.cos(theta + dTheta));
+			y += radius * (Math.sin(theta + dTheta) - Math.sin(theta));}
+		theta += dTheta;
+
+		int cx = (int) Math.floor(x / Odometer.TILE_SIZE), cy = (int) Math.floor(y / Odometer.TILE_SIZE);
+		if (map.isBlocked(cx, cy))
+			collided = true;
+	}
+
+	/****
+	 * Get the distance along the robot's heading to the first blocked tile
+	 * @param max Furthest distance of interest in cm
+	 * @return Distance in cm
+	 */
+	synchronized double range(double max) {
+		return Raycast.distance(map, Odometer.TILE_SIZE, x, y, theta, max);}
+
+	/****
+	 * Get the true pose of the robot
+	 * @param pose Array of at least 3 to hold x, y (cm) and theta (radians)
+	 */
+	public synchronized void getPose(double[] pose) {
+		update();
+		pose[0] = x;
+		pose[1] = y;
+		pose[2] = theta;}
+
+	/****
+	 * Check whether the centre of the robot ever entered a blocked tile or left the map
+	 * @return True iff the robot hit something
+	 */
+	public synchronized boolean collided() {
+		return collided;}
+}
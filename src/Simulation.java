@@ -0,0 +1,687 @@
+/******************************************************************************
+ * Headless, faster than real time run of the robot off the brick.
+ *
+ * Builds the real Odometer, Driver and Localizer on top of a SimWorld and a
+ * SimClock, then localizes and optionally runs the demo. Virtual time only
+ * advances while every robot thread is waiting on the clock, so a run that
+ * takes minutes on the brick takes milliseconds here.
+ *
+ * Running main() localizes from every possible starting state of the map.
+ */
+public class Simulation {
+	/** Outcome of one simulated run */
+	public static class Result {
+		public Position start;				// Where the robot really started
+		public Position found;				// Where localization says it started, null if it failed
+		public int observations;			// Observations made while localizing
+		public int ambiguity;				// Starting states localization could not tell apart
+		public int moves;					// Moves made while localizing
+		public long sensingMillis;			// Virtual time spent waiting on readings while localizing, in ms
+		public long computeNanos;			// Real time spent filtering and choosing moves while the robot stood still
+		public long overlappedNanos;		// Real time spent filtering and choosing moves while the robot moved
+		public long simMillis;				// Virtual duration of the run in ms
+		public long demoMillis;				// Virtual duration of the demo in ms, 0 if not run
+		public int slips;					// Times the MotionQueue caught a wheel slipping
+		public double acceleration;			// Acceleration the MotionQueue ended up with, in degrees per second squared
+		public double corrected;			// Degrees the MotionQueue's moves to a point turned beyond their plan
+		public long wallNanos;				// Real duration of the run in ns
+		public double errorX, errorY;		// Believed minus true position at the end, cm
+		public double errorTheta;			// Believed minus true heading at the end, radians
+		public double missed;				// Distance from the end of the demo at the end, cm
+		public boolean collided;			// Whether the robot drove into a block
+		public RuntimeException failure;	// What went wrong, null if nothing
+
+		/****
+		 * Check whether localization found the true starting state
+		 * @return True iff the run localized correctly and did not fail
+		 */
+		public boolean correct() {
+			return failure == null && found != null && found.getX() == start.getX()
+					&& found.getY() == start.getY() && found.getDir() == start.getDir();}
+	}
+
+	/** How to run the robot. Defaults match the robot on the brick */
+	public static class Setup {
+		public Localizer.LocalizationType type = Localizer.LocalizationType.INFORMATION_GAIN;
+		public boolean demo = true;						// Whether to run Driver.demo() after localizing
+		public int maxRange = Localizer.SENSOR_CAP;		// Furthest reading used for localizing, in cm
+		public double sigma;							// Standard deviation of ultrasonic noise in cm
+		public boolean track;							// Whether the demo follows a ParticleFilter
+		public double wheelRadius = Driver.WHEEL_RADIUS;	// True wheel radius of the robot in cm
+		public double wheelBase = Driver.WHEEL_BASE;	// True wheel base of the robot in cm
+		public int odometerPeriod = Odometer.PERIOD;	// Time between odometer updates in ms
+		public Odometer.Kernel kernel = Odometer.Kernel.FIXED_POINT;	// How the odometer computes updates
+		public int samples;								// Sampled readings per observation, 0 to ping instead
+		public boolean pipelined;						// Whether Localizer computes while the robot moves
+		public boolean queued = true;					// Whether moves go through a MotionQueue
+		public int forwardSpeed = MotionQueue.CRUISE_SPEED;	// Wheel speed on straights, in degrees per second
+		public int turnSpeed = MotionQueue.SPIN_SPEED;	// Wheel speed turning on the spot, in degrees per second
+		public int acceleration = MotionQueue.ACCELERATION;	// Wheel acceleration, in degrees per second squared, 0 for none
+		public double traction = Double.POSITIVE_INFINITY;	// Fastest change of wheel speed over the ground, in cm per second squared
+		public boolean hold = true;						// Whether the MotionQueue holds straights on their line
+		public double mismatch;							// Fraction of its commanded speed the right motor falls short by
+		public ClassTable classes;						// Classes to stop localizing at, null for none
+		public int observationLimit;					// Most observations before localizing fails, 0 for no limit
+	}
+
+	/** Outcome of a sweep over every starting state */
+	private static class Sweep {
+		int runs, failed;			// Runs made, and those that didn't end at the right start
+		double observations;		// Mean observations over every run, failed or not
+	}
+
+	private static PolicyTable policy;		// Policy for Localizer's map, solved on first use
+
+	private Simulation(){}
+
+	/****
+	 * Localize from a starting state, and optionally run the demo, in simulation
+	 *
+	 * @param start Tile and direction the robot starts in
+	 * @param type Type of localization to use
+	 * @param demo Whether to run Driver.demo() after localizing
+	 * @return The outcome of the run
+	 */
+	public static Result run(Position start, Localizer.LocalizationType type, boolean demo) {
+		return run(start, type, demo, Localizer.SENSOR_CAP);}
+
+	/****
+	 * Localize from a starting state, and optionally run the demo, in simulation
+	 *
+	 * @param start Tile and direction the robot starts in
+	 * @param type Type of localization to use
+	 * @param demo Whether to run Driver.demo() after localizing
+	 * @param maxRange Furthest ultrasonic reading used for localizing, in cm
+	 * @return The outcome of the run
+	 */
+	public static Result run(Position start, Localizer.LocalizationType type, boolean demo, int maxRange) {
+		return run(start, type, demo, maxRange, 0);}
+
+	/****
+	 * Localize from a starting state, and optionally run the demo, in simulation
+	 *
+	 * @param start Tile and direction the robot starts in
+	 * @param type Type of localization to use
+	 * @param demo Whether to run Driver.demo() after localizing
+	 * @param maxRange Furthest ultrasonic reading used for localizing, in cm
+	 * @param sigma Standard deviation of ultrasonic noise in cm, seeded by the start
+	 * @return The outcome of the run
+	 */
+	public static Result run(Position start, Localizer.LocalizationType type, boolean demo, int maxRange, double sigma) {
+		Setup setup = new Setup();
+		setup.type = type;
+		setup.demo = demo;
+		setup.maxRange = maxRange;
+		setup.sigma = sigma;
+		return run(start, setup);}
+
+	/****
+	 * Run the robot from a starting state in simulation
+	 *
+	 * @param start Tile and direction the robot starts in
+	 * @param setup How to run the robot. Ultrasonic noise is seeded by the start.
+	 * @return The outcome of the run
+	 */
+	public static Result run(Position start, Setup setup) {
+		Display.setEnabled(false);
+		SimClock clock = new SimClock();
+		SimWorld world = new SimWorld(Localizer.getMap(), clock, start, setup.wheelRadius, setup.wheelBase);
+		Odometer odo = new Odometer(world.getLeftMotor(), world.getRightMotor(), clock, setup.odometerPeriod, setup.kernel);
+		Driver driver = new Driver(odo, world.getLeftMotor(), world.getRightMotor());
+		if (setup.traction != Double.POSITIVE_INFINITY)
+			world.setTraction(setup.traction);
+		if (setup.mismatch != 0)
+			world.setMismatch(setup.mismatch);
+		long seed = (start.getX() * 31L + start.getY()) * 4 + start.getDir().v;
+		RangeSensor us = world.createUltrasonic(setup.sigma, seed);
+		Localizer l = new Localizer(us, odo, driver, setup.type, clock);
+		l.setMaxRange(setup.maxRange);
+		l.setPipelined(setup.pipelined);
+		if (setup.type == Localizer.LocalizationType.POLICY)
+			l.setPolicy(policy());
+		if (setup.classes != null)
+			l.setClassTable(setup.classes);
+		l.setObservationLimit(setup.observationLimit);
+
+		Result result = new Result();
+		result.start = start;
+		long wallStart = System.nanoTime();
+
+		clock.register(Thread.currentThread());
+		clock.register(odo);
+		odo.setDaemon(true);
+		odo.start();
+		MotionQueue queue = null;
+		if (setup.queued){
+			queue = new MotionQueue(world.getLeftMotor(), world.getRightMotor(), odo, clock);
+			queue.setProfile(setup.forwardSpeed, setup.turnSpeed, setup.acceleration);
+			queue.setHold(setup.hold);
+			clock.register(queue);
+			queue.setDaemon(true);
+			queue.start();
+			driver.setMotionQueue(queue);}
+		RangeSampler sampler = null;
+		if (setup.samples > 0){
+			sampler = new RangeSampler(us, clock);
+			clock.register(sampler);
+			sampler.setDaemon(true);
+			sampler.start();
+			l.setSampler(sampler, setup.samples);}
+		PoseSource believed = odo;
+		ParticleFilter filter = null;
+		try {
+			result.observations = l.localize();
+			result.sensingMillis = l.getSensingTime() / 1000000;
+			result.computeNanos = l.getComputeTime(false);
+			result.overlappedNanos = l.getComputeTime(true);
+			result.found = l.getStartingPoint();
+			result.ambiguity = l.getAmbiguity();
+			result.moves = l.getMoves();
+			// The filter pings for itself, which takes the sensor out of continuous mode
+			if (sampler != null){
+				sampler.halt();
+				clock.unregister(sampler);}
+			if (setup.track){
+				filter = new ParticleFilter(Localizer.getGrid(), odo, us, clock, ParticleFilter.PARTICLES,
+						ParticleFilter.PERIOD, ParticleFilter.MAX_RANGE, Runtime.getRuntime().availableProcessors(), seed);
+				clock.register(filter);
+				filter.setDaemon(true);
+				filter.start();
+				driver.setPoseSource(filter);
+				believed = filter;}
+			if (setup.demo){
+				long demoStart = clock.currentTimeMillis();
+				driver.demo();
+				result.demoMillis = clock.currentTimeMillis() - demoStart;}
+		} catch (RuntimeException e) {
+			result.failure = e;
+		} finally {
+			// Halt and unregister the robot threads together, so none can be left
+			// waiting on the clock for another that has already finished
+			odo.halt();
+			clock.unregister(odo);
+			if (queue != null){
+				queue.halt();
+				clock.unregister(queue);}
+			if (sampler != null){
+				sampler.halt();
+				clock.unregister(sampler);}
+			if (filter != null){
+				filter.halt();
+				clock.unregister(filter);}
+			clock.unregister(Thread.currentThread());
+			try {
+				odo.join();
+				if (queue != null) queue.join();
+				if (sampler != null) sampler.join();
+				if (filter != null) filter.join();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();}
+		}
+
+		result.wallNanos = System.nanoTime() - wallStart;
+		result.simMillis = clock.currentTimeMillis();
+		result.collided = world.collided();
+		if (queue != null){
+			result.slips = queue.getSlips();
+			result.acceleration = queue.getAcceleration();
+			result.corrected = queue.getCorrection();}
+
+		// The odometer frame is offset by one tile from the world frame
+		double[] pose = new double[3];
+		world.getPose(pose);
+		Pose guess = believed.getPose();
+		result.errorX = guess.getX() + Odometer.TILE_SIZE - pose[0];
+		result.errorY = guess.getY() + Odometer.TILE_SIZE - pose[1];
+		result.errorTheta = Math.IEEEremainder(guess.getTheta() - pose[2], 2 * Math.PI);
+		Position end = Driver.demoGoal(Localizer.getGrid());
+		result.missed = Math.hypot((end.getX() + 0.5) * Odometer.TILE_SIZE - pose[0], (end.getY() + 0.5) * Odometer.TILE_SIZE - pose[1]);
+		return result;
+	}
+
+	/** Get the policy for Localizer's map, solving it the first time and whenever the map changes */
+	private static synchronized PolicyTable policy() {
+		boolean[][] map = Localizer.getMap();
+		if (policy == null || !policy.matches(Localizer.getGrid())){
+			PolicySolver solver = new PolicySolver(map, 24, 48, 1 << 20, Runtime.getRuntime().availableProcessors());
+			try {
+				policy = solver.solve(map);
+			} finally {
+				solver.shutdown();}
+		}
+		return policy;
+	}
+
+	/****
+	 * Localize and run the demo from every possible starting state of the map.
+	 * With no arguments, every type of localization is run and their
+	 * observation counts are compared, first using blocked/free readings and
+	 * then readings up to RANGE cm, then with NOISE cm of sensor noise, then
+	 * taking the median of Localizer.WINDOW sampled readings with and without
+	 * the noise rather than pinging, then with readings up to RANGE cm with
+	 * and without pipelining. Then the demo's route is driven with and
+	 * without a MotionQueue blending its corners, and on wheels that slip
+	 * past TRACTION with and without speed profiles, and with a right
+	 * motor MISMATCH slower than the left with and without the MotionQueue
+	 * holding straights on their line, and
+	 * the demo is run on a robot whose wheel base is off by DRIFT_BASE, with
+	 * and without a ParticleFilter correcting the odometer, and an arc is
+	 * driven with the odometer updating every one of PERIODS, and the
+	 * odometry kernels are compared over a long random drive. With a
+	 * type, and optionally a range and noise in cm, a number of sampled
+	 * readings per observation and whether to pipeline, each run is listed.
+	 *
+	 * @param args Optionally the LocalizationType to run, then the range, noise, samples and pipelining
+	 */
+	public static void main(String[] args) {
+		if (args.length > 0){
+			Setup setup = setup(Localizer.LocalizationType.valueOf(args[0]),
+					args.length > 1 ? Integer.parseInt(args[1]) : Localizer.SENSOR_CAP,
+					args.length > 2 ? Double.parseDouble(args[2]) : 0,
+					args.length > 3 ? Integer.parseInt(args[3]) : 0);
+			setup.pipelined = args.length > 4 && Boolean.parseBoolean(args[4]);
+			sweep(setup, true);
+			return;}
+
+		Localizer.LocalizationType[] types = Localizer.LocalizationType.values();
+		Sweep[] avg = new Sweep[types.length], ranged = new Sweep[types.length];
+		for (int i = 0; i < types.length; i++)
+			avg[i] = sweep(setup(types[i], Localizer.SENSOR_CAP, 0, 0), false);
+		for (int i = 0; i < types.length; i++)
+			ranged[i] = sweep(setup(types[i], RANGE, 0, 0), false);
+		for (int i = 0; i < types.length; i++)
+			sweep(setup(types[i], Localizer.SENSOR_CAP, NOISE, 0), false);
+		for (int i = 0; i < types.length; i++)
+			sweep(setup(types[i], Localizer.SENSOR_CAP, 0, Localizer.WINDOW), false);
+		for (int i = 0; i < types.length; i++)
+			sweep(setup(types[i], Localizer.SENSOR_CAP, NOISE, Localizer.WINDOW), false);
+		for (int i = 0; i < types.length; i++){
+			Setup setup = setup(types[i], RANGE, 0, Localizer.WINDOW);
+			sweep(setup, false);
+			setup.pipelined = true;
+			sweep(setup, false);}
+		route(false);
+		route(true);
+		profile(Driver.FORWARD_SPEED, Driver.LOCALIZE_SPEED, 0);
+		profile(MotionQueue.CRUISE_SPEED, MotionQueue.SPIN_SPEED, 0);
+		profile(MotionQueue.CRUISE_SPEED, MotionQueue.SPIN_SPEED, MotionQueue.ACCELERATION);
+		profile(MotionQueue.CRUISE_SPEED, MotionQueue.SPIN_SPEED, 4 * MotionQueue.ACCELERATION);
+		holding(false);
+		holding(true);
+		tracking(false);
+		tracking(true);
+		for (int i = 0; i < PERIODS.length; i++)
+			sampling(PERIODS[i]);
+		kernels();
+
+		for (int last = 2; last < types.length; last++)
+			for (int i = 0; i < last; i++)
+				System.out.println(types[last] + " vs " + types[i] + ": "
+						+ fewer(avg[i].observations, avg[last].observations) + " observations, "
+						+ avg[last].failed + " vs " + avg[i].failed + " of " + avg[i].runs + " runs failed");
+		for (int i = 0; i < types.length; i++)
+			System.out.println(types[i] + " " + RANGE + "cm range vs blocked/free: "
+					+ fewer(avg[i].observations, ranged[i].observations) + " observations, "
+					+ ranged[i].failed + " vs " + avg[i].failed + " of " + avg[i].runs + " runs failed");
+	}
+
+	/** Reading range compared against blocked/free by main(), in cm */
+	private static final int RANGE = 150;
+	/** Standard deviation of sensor noise tried by main(), in cm */
+	private static final double NOISE = 8;
+
+	/** True wheel base used to show odometry drift in main(), about 2% wider than Driver's, in cm */
+	private static final double DRIFT_BASE = 15.9;
+
+	/****
+	 * Run the demo from every possible starting state on a robot whose wheel
+	 * base is off by DRIFT_BASE, and print how far off it ends up and how
+	 * often it drives into a block
+	 *
+	 * @param track Whether the demo follows a ParticleFilter rather than the odometer
+	 */
+	private static void tracking(boolean track) {
+		Setup setup = new Setup();
+		setup.track = track;
+		setup.wheelBase = DRIFT_BASE;
+		setup.sigma = 2;
+		boolean[][] map = Localizer.getMap();
+		int runs = 0, correct = 0, collided = 0;
+		double error = 0, missed = 0;
+		for (int x = 0; x < map.length; x++)
+			for (int y = 0; y < map[0].length; y++)
+				for (int d = 0; !map[x][y] && d < 4; d++){
+					Result r = run(new Position(x, y, BeliefMap.BY_VALUE[d], false), setup);
+					runs++;
+					if (r.collided) collided++;
+					if (!r.correct()) continue;
+					correct++;
+					error += Math.hypot(r.errorX, r.errorY);
+					missed += r.missed;}
+
+		System.out.println((track ? "ParticleFilter" : "Odometer") + " with " + DRIFT_BASE + "cm true wheel base: "
+				+ correct + "/" + runs + " localized, " + Math.round(10 * error / correct) / 10.0 + "cm pose error, "
+				+ Math.round(10 * missed / correct) / 10.0 + "cm from the end of the demo on average, " + collided + " collided");
+	}
+
+	/****
+	 * Run the demo from every possible starting state and print how long it
+	 * takes and how far from its end the robot stops
+	 *
+	 * @param queued Whether the demo's legs go through a MotionQueue
+	 */
+	private static void route(boolean queued) {
+		Setup setup = new Setup();
+		setup.queued = queued;
+		setup.forwardSpeed = Driver.FORWARD_SPEED;
+		setup.turnSpeed = Driver.LOCALIZE_SPEED;
+		setup.acceleration = 0;
+		boolean[][] map = Localizer.getMap();
+		int runs = 0, correct = 0, collided = 0;
+		long demoMillis = 0;
+		double missed = 0, worst = 0;
+		for (int x = 0; x < map.length; x++)
+			for (int y = 0; y < map[0].length; y++)
+				for (int d = 0; !map[x][y] && d < 4; d++){
+					Result r = run(new Position(x, y, BeliefMap.BY_VALUE[d], false), setup);
+					runs++;
+					if (r.collided) collided++;
+					if (!r.correct()) continue;
+					correct++;
+					demoMillis += r.demoMillis;
+					missed += r.missed;
+					worst = Math.max(worst, r.missed);}
+
+		System.out.println("Demo " + (queued ? "queued, corners blended" : "one leg at a time") + ": "
+				+ correct + "/" + runs + " localized, " + demoMillis / correct + "ms per demo, "
+				+ Math.round(100 * missed / correct) / 100.0 + "cm from the end on average, "
+				+ Math.round(100 * worst) / 100.0 + "cm worst, " + collided + " collided");
+	}
+
+	/** Traction of the wheels used to show slipping in main(), in cm per second squared */
+	private static final double TRACTION = 150;
+
+	/****
+	 * Localize and run the demo from every possible starting state on wheels
+	 * that slip past TRACTION, and print how long it takes, how far off the
+	 * odometer ends up and how often slipping was caught
+	 *
+	 * @param forwardSpeed Wheel speed on straights, in degrees per second
+	 * @param turnSpeed Wheel speed turning on the spot, in degrees per second
+	 * @param acceleration Wheel acceleration in degrees per second squared, 0 to start and stop dead
+	 */
+	private static void profile(int forwardSpeed, int turnSpeed, int acceleration) {
+		Setup setup = new Setup();
+		setup.forwardSpeed = forwardSpeed;
+		setup.turnSpeed = turnSpeed;
+		setup.acceleration = acceleration;
+		setup.traction = TRACTION;
+		boolean[][] map = Localizer.getMap();
+		int runs = 0, correct = 0, slips = 0;
+		long simMillis = 0;
+		double error = 0, missed = 0, ended = 0;
+		for (int x = 0; x < map.length; x++)
+			for (int y = 0; y < map[0].length; y++)
+				for (int d = 0; !map[x][y] && d < 4; d++){
+					Result r = run(new Position(x, y, BeliefMap.BY_VALUE[d], false), setup);
+					runs++;
+					slips += r.slips;
+					ended += r.acceleration;
+					if (!r.correct()) continue;
+					correct++;
+					simMillis += r.simMillis;
+					error += Math.hypot(r.errorX, r.errorY);
+					missed += r.missed;}
+
+		System.out.println(forwardSpeed + "/" + turnSpeed + " deg/s, "
+				+ (acceleration == 0 ? "dead starts" : acceleration + " deg/s^2") + " on " + TRACTION + "cm/s^2 traction: "
+				+ correct + "/" + runs + " localized, " + (correct == 0 ? 0 : simMillis / correct) + "ms per run, "
+				+ Math.round(100 * error / correct) / 100.0 + "cm pose error, "
+				+ Math.round(100 * missed / correct) / 100.0 + "cm from the end, "
+				+ Math.round(10.0 * slips / runs) / 10.0 + " slips caught per run"
+				+ (acceleration == 0 ? "" : ", ending at " + Math.round(ended / runs) + " deg/s^2"));
+	}
+
+	/** Fraction of its commanded speed the right motor falls short by in holding(), about a weak NXT motor's */
+	private static final double MISMATCH = 0.05;
+
+	/****
+	 * Localize and run the demo from every possible starting state with the
+	 * right motor MISMATCH slower than the left, and print how far off the
+	 * robot ends up and how far it had to turn to get back on course
+	 *
+	 * @param hold Whether the MotionQueue holds straights on their line
+	 */
+	private static void holding(boolean hold) {
+		Setup setup = new Setup();
+		setup.hold = hold;
+		setup.mismatch = MISMATCH;
+		boolean[][] map = Localizer.getMap();
+		int runs = 0, correct = 0, collided = 0;
+		double error = 0, missed = 0, corrected = 0;
+		for (int x = 0; x < map.length; x++)
+			for (int y = 0; y < map[0].length; y++)
+				for (int d = 0; !map[x][y] && d < 4; d++){
+					Result r = run(new Position(x, y, BeliefMap.BY_VALUE[d], false), setup);
+					runs++;
+					if (r.collided) collided++;
+					if (!r.correct()) continue;
+					correct++;
+					error += Math.hypot(r.errorX, r.errorY);
+					missed += r.missed;
+					corrected += r.corrected;}
+
+		System.out.println((hold ? "Straights held" : "Straights open loop") + " with the right motor " + Math.round(100 * MISMATCH) + "% slow: "
+				+ correct + "/" + runs + " localized, " + Math.round(100 * error / correct) / 100.0 + "cm pose error, "
+				+ Math.round(100 * missed / correct) / 100.0 + "cm from the end, "
+				+ Math.round(10 * corrected / correct) / 10.0 + " degrees of correcting turns per run, " + collided + " collided");
+	}
+
+	/** Odometer periods compared by main(), in ms */
+	private static final int[] PERIODS = { 15, 5, 2 };
+	/** Wheel speeds of the arc driven by sampling(), in degrees per second */
+	private static final int ARC_OUTER = 250, ARC_INNER = 100;
+	/** Time the arc is driven for, and between checks of the odometer along it, in ms */
+	private static final int ARC_TIME = 4000, ARC_CHECK = 10;
+
+	/****
+	 * Drive an arc with the odometer updating at a period, and print how far
+	 * the odometer strays from the true pose along it. Each update projects
+	 * the distance moved along the heading at its end, so on an arc the
+	 * error grows with the period.
+	 *
+	 * @param period Time between odometer updates in ms
+	 */
+	private static void sampling(int period) {
+		SimClock clock = new SimClock();
+		Position start = new Position(0, 0, Direction.UP, false);
+		SimWorld world = new SimWorld(new boolean[][] {{ false }}, clock, start);
+		Odometer odo = new Odometer(world.getLeftMotor(), world.getRightMotor(), clock, period, Odometer.Kernel.DOUBLE);
+		DriveMotor left = world.getLeftMotor(), right = world.getRightMotor();
+		double[] pose = new double[3];
+		double worst = 0, worstTheta = 0;
+
+		clock.register(Thread.currentThread());
+		clock.register(odo);
+		odo.setDaemon(true);
+		odo.start();
+		try {
+			left.setSpeed(ARC_OUTER);
+			right.setSpeed(ARC_INNER);
+			left.forward();
+			right.forward();
+			for (int t = 0; t < ARC_TIME; t += ARC_CHECK){
+				clock.sleep(ARC_CHECK);
+				// The odometer starts at 0, in the middle of the tile
+				world.getPose(pose);
+				Pose guess = odo.getPose();
+				worst = Math.max(worst, Math.hypot(guess.getX() + 0.5 * Odometer.TILE_SIZE - pose[0],
+						guess.getY() + 0.5 * Odometer.TILE_SIZE - pose[1]));
+				worstTheta = Math.max(worstTheta, Math.abs(Math.IEEEremainder(guess.getTheta() - pose[2], 2 * Math.PI)));}
+			left.stop();
+			right.stop();
+		} finally {
+			odo.halt();
+			clock.unregister(odo);
+			clock.unregister(Thread.currentThread());
+			try {
+				odo.join();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();}
+		}
+
+		System.out.println("Odometer every " + period + "ms on an arc: " + Math.round(1000 * worst) / 1000.0 + "cm, "
+				+ Math.round(1000 * Math.toDegrees(worstTheta)) / 1000.0 + " degrees worst error, "
+				+ odo.getUpdates() + " updates, " + odo.getMissedDeadlines() + " deadlines missed");
+	}
+
+	/** Simulated length of the drive kernels() compares the odometry kernels over, in ms */
+	private static final int DRIVE_TIME = 30 * 60 * 1000;
+	/** Longest single command of that drive, in ms */
+	private static final int DRIVE_SEGMENT = 3000;
+	/** Fastest wheel speed on that drive, in degrees per second */
+	private static final int DRIVE_SPEED = 250;
+
+	/****
+	 * Drive both odometry kernels side by side over a long random mix of
+	 * straights, turns and arcs, and print how far the fixed point kernel
+	 * strays from the double one, and how far each strays from the truth.
+	 * They are compared after each command, once both have caught up.
+	 */
+	private static void kernels() {
+		SimClock clock = new SimClock();
+		Position start = new Position(0, 0, Direction.UP, false);
+		SimWorld world = new SimWorld(new boolean[][] {{ false }}, clock, start);
+		DriveMotor left = world.getLeftMotor(), right = world.getRightMotor();
+		Odometer exact = new Odometer(left, right, clock, Odometer.PERIOD, Odometer.Kernel.DOUBLE);
+		Odometer fixed = new Odometer(left, right, clock, Odometer.PERIOD, Odometer.Kernel.FIXED_POINT);
+		java.util.Random random = new java.util.Random(1);
+		double[] pose = new double[3], worst = new double[6];
+
+		clock.register(Thread.currentThread());
+		clock.register(exact);
+		clock.register(fixed);
+		exact.setDaemon(true);
+		fixed.setDaemon(true);
+		exact.start();
+		fixed.start();
+		try {
+			for (int t = 0; t < DRIVE_TIME; ){
+				int l = random.nextInt(2 * DRIVE_SPEED + 1) - DRIVE_SPEED, r = random.nextInt(2 * DRIVE_SPEED + 1) - DRIVE_SPEED;
+				left.setSpeed(l);
+				right.setSpeed(r);
+				if (l < 0) left.backward(); else left.forward();
+				if (r < 0) right.backward(); else right.forward();
+				int segment = random.nextInt(DRIVE_SEGMENT);
+				clock.sleep(segment);
+				left.stop();
+				right.stop();
+				clock.sleep(2 * Odometer.PERIOD);
+				t += segment;
+
+				world.getPose(pose);
+				Pose a = exact.getPose(), b = fixed.getPose();
+				// Both odometers start at 0, in the middle of the tile
+				pose[0] -= 0.5 * Odometer.TILE_SIZE;
+				pose[1] -= 0.5 * Odometer.TILE_SIZE;
+				compare(worst, 0, a, b.getX(), b.getY(), b.getTheta());
+				compare(worst, 2, a, pose[0], pose[1], pose[2]);
+				compare(worst, 4, b, pose[0], pose[1], pose[2]);
+			}
+		} finally {
+			exact.halt();
+			fixed.halt();
+			clock.unregister(exact);
+			clock.unregister(fixed);
+			clock.unregister(Thread.currentThread());
+			try {
+				exact.join();
+				fixed.join();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();}
+		}
+
+		String[] names = { "FIXED_POINT vs DOUBLE", "DOUBLE vs truth", "FIXED_POINT vs truth" };
+		for (int i = 0; i < names.length; i++)
+			System.out.println(names[i] + " over " + DRIVE_TIME / 60000 + " minutes: "
+					+ (float) worst[2 * i] + "cm, "
+					+ (float) Math.toDegrees(worst[2 * i + 1]) + " degrees worst difference");
+	}
+
+	/** Keep the worst position and heading differences between a pose and another seen so far */
+	private static void compare(double[] worst, int i, Pose a, double x, double y, double theta) {
+		worst[i] = Math.max(worst[i], Math.hypot(a.getX() - x, a.getY() - y));
+		worst[i + 1] = Math.max(worst[i + 1], Math.abs(Math.IEEEremainder(a.getTheta() - theta, 2 * Math.PI)));}
+
+	/** Describe a change as "x% fewer", or "x% more" if it went up */
+	private static String fewer(double before, double after) {
+		double percent = Math.round(1000 * (before - after) / before) / 10.0;
+		return percent < 0 ? -percent + "% more" : percent + "% fewer";}
+
+	/****
+	 * Set up a run of the demo
+	 *
+	 * @param type Type of localization to use
+	 * @param maxRange Furthest ultrasonic reading used for localizing, in cm
+	 * @param sigma Standard deviation of ultrasonic noise in cm
+	 * @param samples Sampled readings per observation, 0 to ping instead
+	 * @return The setup, otherwise as on the brick
+	 */
+	private static Setup setup(Localizer.LocalizationType type, int maxRange, double sigma, int samples) {
+		Setup setup = new Setup();
+		setup.type = type;
+		setup.maxRange = maxRange;
+		setup.sigma = sigma;
+		setup.samples = samples;
+		return setup;}
+
+	/****
+	 * Localize and run the demo from every possible starting state of the map
+	 *
+	 * @param setup How to run the robot
+	 * @param verbose Whether to print every run
+	 * @return The number of runs, how many failed and the mean observations over all of them
+	 */
+	private static Sweep sweep(Setup setup, boolean verbose) {
+		boolean[][] map = Localizer.getMap();
+		int runs = 0, correct = 0, worst = 0, total = 0;
+		long simMillis = 0, wallNanos = 0, sensingMillis = 0, computeNanos = 0, overlappedNanos = 0;
+
+		for (int x = 0; x < map.length; x++){
+			for (int y = 0; y < map[0].length; y++){
+				if (map[x][y]) continue;
+				for (int d = 0; d < 4; d++){
+					Result r = run(new Position(x, y, BeliefMap.BY_VALUE[d], false), setup);
+					runs++;
+					simMillis += r.simMillis;
+					wallNanos += r.wallNanos;
+					sensingMillis += r.sensingMillis;
+					computeNanos += r.computeNanos;
+					overlappedNanos += r.overlappedNanos;
+					total += r.observations;
+					worst = Math.max(worst, r.observations);
+					if (r.correct()) correct++;
+					if (verbose)
+						System.out.println("(" + x + ", " + y + ", " + BeliefMap.BY_VALUE[d].asCardinal() + ")"
+								+ " observations=" + r.observations
+								+ " sim=" + r.simMillis + "ms"
+								+ " wall=" + (r.wallNanos / 1000000) + "ms"
+								+ " error=(" + Math.round(r.errorX * 10) / 10.0 + ", " + Math.round(r.errorY * 10) / 10.0 + ")"
+								+ (r.collided ? " COLLIDED" : "")
+								+ (r.correct() ? "" : " FAILED " + (r.failure == null ? "wrong start" : r.failure.getMessage())));}
+			}
+		}
+		Sweep sweep = new Sweep();
+		sweep.runs = runs;
+		sweep.failed = runs - correct;
+		sweep.observations = runs == 0 ? 0 : (double) total / runs;
+		System.out.println(setup.type + " (" + setup.maxRange + "cm" + (setup.sigma > 0 ? ", " + setup.sigma + "cm noise" : "")
+				+ (setup.samples > 0 ? ", median of " + setup.samples : "") + (setup.pipelined ? ", pipelined" : "") + "): "
+				+ correct + "/" + runs + " correct, "
+				+ Math.round(sweep.observations * 100) / 100.0 + " observations avg, " + worst + " worst over all runs, "
+				+ (total == 0 ? 0 : sensingMillis / total) + "ms per observation, "
+				+ (computeNanos / runs / 1000) + "us computing standing + " + (overlappedNanos / runs / 1000) + "us moving, "
+				+ (simMillis / runs) + "ms simulated vs " + (wallNanos / runs / 1000000) + "ms wall per run");
+		return sweep;
+	}
+}
@@ -0,0 +1,40 @@
+/******************************************************************************
+ * Clock backed by the system timers, used on the brick
+ */
+public class SystemClock implements Clock {
+	/** Shared instance - the system clock has no state */
+	public static final SystemClock INSTANCE = new SystemClock();
+	
+	private SystemClock(){}
+	
+	public long currentTimeMillis() {
+		return System.currentTimeMillis();}
+	
+	public long nanoTime() {
+		return System.nanoTime();}
+	
+	public void sleep(long millis) {
+		try {
+			Thread.sleep(millis);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();}
+	}
+	
+	/****
+	 * Sleep whole milliseconds until the deadline has passed. Thread.sleep()
+	 * can't be asked for less than a ms, so this wakes up to a ms late
+	 * rather than spinning through the last part of one.
+	 * 
+	 * @param wake Time to wake up at in ns, as given by nanoTime()
+	 */
+	public void sleepUntil(long wake) {
+		long left;
+		while ((left = wake - System.nanoTime()) > 0){
+			try {
+				Thread.sleep((left + 999999L) / 1000000L);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				return;}
+		}
+	}
+}
@@ -0,0 +1,15 @@
+/******************************************************************************
+ * Anything that counts the degrees a wheel has turned
+ */
+public interface Tachometer {
+	/****
+	 * Get the number of degrees turned since the last reset
+	 * @return Tacho count in degrees
+	 */
+	public int getTachoCount();
+	
+	/****
+	 * Reset the tacho count to 0
+	 */
+	public void resetTachoCount();
+}